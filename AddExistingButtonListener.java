@@ -21,8 +21,10 @@ import javax.swing.JTextField;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -96,24 +98,50 @@ public class AddExistingButtonListener implements ActionListener {
 		}
 		allList.setSelectedIndices(index);
 
-		// Updates this photo's tags.
+		// Adds the selected tags this photo does not have yet in the background.
+		List<String> newTags = new ArrayList<String>();
 		for (int i : index) {
-			if (!thisListModel.contains(allListModel.getElementAt(i))) {
-				thisListModel.addElement(allListModel.getElementAt(i));
-				try {
-					photo.addTag(TagManager.findTag((String) allListModel.getElementAt(i)));
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+			String tagName = (String) allListModel.getElementAt(i);
+			if (!thisListModel.contains(tagName)) {
+				newTags.add(tagName);
 			} else {
-				JOptionPane.showMessageDialog(null, "This photo already has " + allListModel.getElementAt(i));
+				JOptionPane.showMessageDialog(null, "This photo already has " + tagName);
 			}
 		}
+		if (newTags.isEmpty()) {
+			return;
+		}
+		PhotoService.shared().addTags(photo, newTags).whenCompleteAsync(new BiConsumer<List<String>, Throwable>() {
+			@Override
+			public void accept(List<String> added, Throwable failure) {
+				if (failure != null) {
+					JOptionPane.showMessageDialog(null, PhotoService.messageOf(failure));
+					return;
+				}
+				showAddedTags(added);
+			}
+		}, PhotoService.ON_EDT);
+	}
 
-		// Updates the revert options.
-		String date = this.photo.getLastModifiedDate();
-		JMenuItem newMenuItem = new JMenuItem(
-				date + "--> (Added Tag) " + this.photo.getRenamingHistory().get(date).getName());
+	/**
+	 * Shows the tags added to this photo and updates the revert options and
+	 * the photo's name on the window.
+	 * 
+	 * @param added
+	 *            the names of the tags added
+	 */
+	private void showAddedTags(List<String> added) {
+		for (String tagName : added) {
+			thisListModel.addElement(tagName);
+		}
+
+		// Updates the revert options from the latest snapshot of the photo.
+		PhotoView view = PhotoManager.snapshot().getPhoto(this.photo.getPhotoId());
+		if (view == null) {
+			return;
+		}
+		String date = view.getLastModifiedDate();
+		JMenuItem newMenuItem = new JMenuItem(date + "--> (Added Tag) " + view.getHistory().get(date));
 		revertOptions.add(newMenuItem);
 		ActionListener revertBackToDate = new RevertListener(photo, date, revertOptions, thisListModel, allListModel,
 				thisList, allList, photoFrame, imageNameIndicator);
@@ -121,7 +149,7 @@ public class AddExistingButtonListener implements ActionListener {
 
 		// Updates JFrame to add the new revert options and shows the changes of
 		// the photo's name.
-		imageNameIndicator.setText(TEXT_SEPARATOR + this.photo.getName() + TEXT_SEPARATOR);
+		imageNameIndicator.setText(TEXT_SEPARATOR + view.getName() + TEXT_SEPARATOR);
 		photoFrame.getContentPane().validate();
 		photoFrame.getContentPane().repaint();
 	}
@@ -17,8 +17,9 @@ import javax.swing.JTextField;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -89,66 +90,76 @@ public class AddTagButtonListener implements ActionListener {
 	 *            the event object
 	 */
 	public void actionPerformed(ActionEvent e) {
-		String allTags = this.textArea.getText().trim();
-		
-		if (allTags.equals("")) {
-			Toolkit.getDefaultToolkit().beep();
-			JOptionPane.showMessageDialog(null, "Please enter a non-empty tag.");
-			textArea.requestFocusInWindow();
-			textArea.selectAll();
-			return;
-		} else if (allTags.indexOf("@") != -1) {
+		List<String> tagsList;
+		try {
+			tagsList = PhotoService.parseTags(this.textArea.getText());
+		} catch (IllegalArgumentException invalid) {
 			Toolkit.getDefaultToolkit().beep();
-			JOptionPane.showMessageDialog(null, "Tag should not contain '@' character, please re-enter.");
+			JOptionPane.showMessageDialog(null, invalid.getMessage());
 			textArea.requestFocusInWindow();
 			textArea.selectAll();
-			textArea.setText("");
+			if (this.textArea.getText().indexOf("@") != -1) {
+				textArea.setText("");
+			}
 			return;
-		} 
+		}
 		
-		// The user provided a valid tag(s). Adds the tag(s) to this photo.
-		else {
-			List<String> tagsList = Arrays.asList(allTags.split(","));
-			for (String tagEntered: tagsList) {
-				if (!tagEntered.trim().equals("") && !thisListModel.contains(tagEntered.trim())) {
-					Tag newTag = TagManager.findTag(tagEntered.trim());
-					if (newTag == null) {
-						newTag = new Tag(tagEntered.trim());
-					}
-					try {
-						String tagName = tagEntered.trim();
-						this.photo.addTag(newTag);
-						thisListModel.addElement(tagName);
-						if (!allListModel.contains(tagName)) {
-							allListModel.addElement(tagName);
-						}
-					} catch (IOException a) {
-						a.printStackTrace();
-					}
-				}
+		// The user provided a valid tag(s). Adds the tag(s) to this photo in the
+		// background and shows the result once done.
+		List<String> newTags = new ArrayList<String>();
+		for (String tagEntered : tagsList) {
+			if (!thisListModel.contains(tagEntered)) {
+				newTags.add(tagEntered);
 			}
-			JOptionPane.showMessageDialog(null, "Done adding tags to " + photo.getName());
-			JOptionPane.showMessageDialog(null, this.photo.printTags());
 		}
-		
-		// Resets the text field.
-		int index = thisList.getSelectedIndex();
-        textArea.requestFocusInWindow();
+		textArea.requestFocusInWindow();
 		textArea.setText("");
-        
-		// Updates the revert options only if this tag is new.
-        String date = this.photo.getLastModifiedDate();
-        System.out.println(this.photo.getName());
+		PhotoService.shared().addTags(this.photo, newTags).whenCompleteAsync(new BiConsumer<List<String>, Throwable>() {
+			@Override
+			public void accept(List<String> added, Throwable failure) {
+				if (failure != null) {
+					JOptionPane.showMessageDialog(null, PhotoService.messageOf(failure));
+					return;
+				}
+				showAddedTags(added);
+			}
+		}, PhotoService.ON_EDT);
+	}
+
+	/**
+	 * Shows the tags added to this photo and updates the revert options and
+	 * the photo's name on the window.
+	 * 
+	 * @param added
+	 *            the names of the tags added
+	 */
+	private void showAddedTags(List<String> added) {
+		for (String tagName : added) {
+			thisListModel.addElement(tagName);
+			if (!allListModel.contains(tagName)) {
+				allListModel.addElement(tagName);
+			}
+		}
+		JOptionPane.showMessageDialog(null, "Done adding tags to " + photo.getName());
+		JOptionPane.showMessageDialog(null, this.photo.printTags());
+		if (added.isEmpty()) {
+			return;
+		}
+
+		// Updates the revert options only if this tag is new, from the latest
+		// snapshot of the photo.
+        PhotoView view = PhotoManager.snapshot().getPhoto(this.photo.getPhotoId());
+        String date = view.getLastModifiedDate();
+        String menuText = date + "--> (Added Tag) " + view.getHistory().get(date);
         boolean alreadyAdded = false;
         for (int i=0; i<revertOptions.getItemCount(); i++) {
-            String menuText = date + "--> (Added Tag) " + this.photo.getRenamingHistory().get(this.photo.getLastModifiedDate()).getName();
         	if (revertOptions.getItem(i).getText().equals(menuText)) {
         		logger.log(Level.FINE, "menuItem: " + revertOptions.getItem(i).getName());
         		alreadyAdded = true;
         	}
         }
         if (!alreadyAdded) {
-        	JMenuItem newMenuItem = new JMenuItem(date + "--> (Added Tag) " + this.photo.getRenamingHistory().get(date).getName());
+        	JMenuItem newMenuItem = new JMenuItem(menuText);
     		revertOptions.add(newMenuItem);
     		ActionListener revertBackToDate = new RevertListener(photo, date, revertOptions, thisListModel,
     				allListModel, thisList, allList, photoFrame, imageNameIndicator);
@@ -159,6 +170,6 @@ public class AddTagButtonListener implements ActionListener {
     		photoFrame.getContentPane().repaint();
         }
         //updates the photo's name on Photo Editing window.
-        imageNameIndicator.setText(TEXT_SEPARATOR + this.photo.getName() + TEXT_SEPARATOR);
+        imageNameIndicator.setText(TEXT_SEPARATOR + view.getName() + TEXT_SEPARATOR);
 	}
 }
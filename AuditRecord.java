@@ -0,0 +1,301 @@
+package photo_renamer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * One entry of the rename audit log: which photo was changed, how, from which name to
+ * which name, with which tags, and when. Records are stored one per line as a flat JSON
+ * object with fixed fields, e.g.
+ * {"time":1476880000000,"op":"RENAME","photo":"IMG_1.jpg","old":"IMG_1.jpg","new":"IMG_1@sea.jpg","tags":["sea"]}
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class AuditRecord {
+	private final long time;
+	private final String operation;
+	private final String photoId;
+	private final String oldName;
+	private final String newName;
+	private final List<String> tags;
+
+	/**
+	 * Constructor for the AuditRecord object.
+	 *
+	 * @param time
+	 *            the time of the operation in epoch milliseconds
+	 * @param operation
+	 *            the kind of operation
+	 * @param photoId
+	 *            the identifier of the photo
+	 * @param oldName
+	 *            the name before the operation
+	 * @param newName
+	 *            the name after the operation
+	 * @param tags
+	 *            the tags of the photo after the operation
+	 */
+	public AuditRecord(long time, String operation, String photoId, String oldName, String newName,
+			List<String> tags) {
+		this.time = time;
+		this.operation = operation;
+		this.photoId = photoId;
+		this.oldName = oldName;
+		this.newName = newName;
+		this.tags = Collections.unmodifiableList(tags);
+	}
+
+	/**
+	 * @return the time of the operation in epoch milliseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the kind of operation
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the identifier of the photo
+	 */
+	public String getPhotoId() {
+		return photoId;
+	}
+
+	/**
+	 * @return the name before the operation
+	 */
+	public String getOldName() {
+		return oldName;
+	}
+
+	/**
+	 * @return the name after the operation
+	 */
+	public String getNewName() {
+		return newName;
+	}
+
+	/**
+	 * @return the tags of the photo after the operation
+	 */
+	public List<String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * Returns this record as a single line JSON object, without the line
+	 * break.
+	 *
+	 * @return the JSON representation
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder(128);
+		json.append("{\"time\":").append(time);
+		json.append(",\"op\":");
+		quote(operation, json);
+		json.append(",\"photo\":");
+		quote(photoId, json);
+		json.append(",\"old\":");
+		quote(oldName, json);
+		json.append(",\"new\":");
+		quote(newName, json);
+		json.append(",\"tags\":[");
+		for (int i = 0; i < tags.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			quote(tags.get(i), json);
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * Parses a line written by toJson. Fields may appear in any order;
+	 * unknown fields are skipped.
+	 *
+	 * @param line
+	 *            the JSON line
+	 * @return the parsed record
+	 * @throws IllegalArgumentException
+	 *             if the line is not a valid record
+	 */
+	public static AuditRecord fromJson(String line) {
+		Parser parser = new Parser(line);
+		long time = 0;
+		String operation = null, photoId = null, oldName = null, newName = null;
+		List<String> tags = new ArrayList<String>();
+		parser.expect('{');
+		while (!parser.consume('}')) {
+			parser.consume(',');
+			String field = parser.string();
+			parser.expect(':');
+			if (field.equals("time")) {
+				time = parser.number();
+			} else if (field.equals("op")) {
+				operation = parser.string();
+			} else if (field.equals("photo")) {
+				photoId = parser.string();
+			} else if (field.equals("old")) {
+				oldName = parser.string();
+			} else if (field.equals("new")) {
+				newName = parser.string();
+			} else if (field.equals("tags")) {
+				parser.expect('[');
+				while (!parser.consume(']')) {
+					parser.consume(',');
+					tags.add(parser.string());
+				}
+			} else {
+				parser.skipValue();
+			}
+		}
+		if (operation == null || photoId == null) {
+			throw new IllegalArgumentException("Not an audit record: " + line);
+		}
+		return new AuditRecord(time, operation, photoId, oldName, newName, tags);
+	}
+
+	/**
+	 * Returns a reader-friendly representation of this record.
+	 *
+	 * @return the string representation
+	 */
+	@Override
+	public String toString() {
+		return operation + " " + photoId + ": " + oldName + " -> " + newName + " " + Arrays.toString(tags.toArray())
+				+ " at " + time;
+	}
+
+	/**
+	 * Appends value as a JSON string literal.
+	 *
+	 * @param value
+	 *            the string to quote, null is written as an empty string
+	 * @param json
+	 *            the builder to append to
+	 */
+	private static void quote(String value, StringBuilder json) {
+		json.append('"');
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					json.append('\\').append(c);
+				} else if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+
+	/*
+	 * A minimal reader for the flat JSON objects written by toJson.
+	 */
+	private static class Parser {
+		private final String text;
+		private int position;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		void expect(char c) {
+			if (!consume(c)) {
+				throw new IllegalArgumentException("Expected '" + c + "' at " + position + " in " + text);
+			}
+		}
+
+		boolean consume(char c) {
+			skipWhitespace();
+			if (position < text.length() && text.charAt(position) == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder value = new StringBuilder();
+			while (position < text.length()) {
+				char c = text.charAt(position++);
+				if (c == '"') {
+					return value.toString();
+				}
+				if (c == '\\') {
+					char escaped = text.charAt(position++);
+					switch (escaped) {
+					case 'u':
+						value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+						position += 4;
+						break;
+					case 'n':
+						value.append('\n');
+						break;
+					case 't':
+						value.append('\t');
+						break;
+					case 'r':
+						value.append('\r');
+						break;
+					case 'b':
+						value.append('\b');
+						break;
+					case 'f':
+						value.append('\f');
+						break;
+					default:
+						value.append(escaped);
+					}
+				} else {
+					value.append(c);
+				}
+			}
+			throw new IllegalArgumentException("Unterminated string in " + text);
+		}
+
+		long number() {
+			skipWhitespace();
+			int start = position;
+			while (position < text.length() && (text.charAt(position) == '-' || Character.isDigit(text.charAt(position)))) {
+				position++;
+			}
+			return Long.parseLong(text.substring(start, position));
+		}
+
+		void skipValue() {
+			skipWhitespace();
+			char c = text.charAt(position);
+			if (c == '"') {
+				string();
+			} else if (c == '[') {
+				position++;
+				while (!consume(']')) {
+					consume(',');
+					skipValue();
+				}
+			} else {
+				while (position < text.length() && ",}]".indexOf(text.charAt(position)) == -1) {
+					position++;
+				}
+			}
+		}
+
+		private void skipWhitespace() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+	}
+}
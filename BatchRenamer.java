@@ -0,0 +1,218 @@
+package photo_renamer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The headless entry point of this program, for tagging jobs on machines without a
+ * display. It reads operations from files, or from the standard input, one per line:
+ * <pre>
+ * tag    /photos/2016/IMG_0001.jpg  sea,beach
+ * untag  /photos/2016/IMG_0001.jpg  beach
+ * revert /photos/2016/IMG_0001.jpg  2016/10/19 14:03:12
+ * </pre>
+ * Fields are separated by tabs, or by spaces when the path has none. Blank lines and
+ * lines starting with '#' are skipped. The photo may be named by its initial or its
+ * current file name.
+ * <p>
+ * Operations are read in batches. The operations of a batch are grouped by photo; the
+ * groups run in parallel, the operations of a photo in the order they were read, and
+ * the catalog files are saved once per batch instead of once per operation. Progress
+ * and failures are written to the standard error.
+ * <p>
+ * Usage: java -Djava.awt.headless=true photo_renamer.BatchRenamer [--batch-size n]
+ * [--threads n] [file...]
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class BatchRenamer {
+	private static final String DATE_FORMAT = "yyyy/MM/dd HH:mm:ss";
+
+	private final int batchSize;
+	private final ExecutorService executor;
+	private final PhotoService service;
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private long start;
+
+	/**
+	 * Constructor for the batch renamer.
+	 *
+	 * @param batchSize
+	 *            the number of operations per batch
+	 * @param threads
+	 *            the number of photos processed in parallel
+	 */
+	public BatchRenamer(int batchSize, int threads) {
+		this.batchSize = batchSize;
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.service = new PhotoService(executor);
+	}
+
+	/**
+	 * Runs the operations of the designated files, or of the standard input
+	 * if there are none.
+	 *
+	 * @param args
+	 *            the options and the operation files
+	 * @throws Exception
+	 *             if the catalog cannot be loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		int batchSize = 500;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--batch-size") && i + 1 < args.length) {
+				batchSize = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].startsWith("--")) {
+				System.err.println(
+						"Usage: java photo_renamer.BatchRenamer [--batch-size n] [--threads n] [file...]");
+				System.exit(2);
+			} else {
+				files.add(args[i]);
+			}
+		}
+		new PhotoManager();
+		new TagManager();
+		BatchRenamer renamer = new BatchRenamer(Math.max(1, batchSize), Math.max(1, threads));
+		try {
+			if (files.isEmpty()) {
+				renamer.run(System.in, "stdin");
+			} else {
+				for (String file : files) {
+					InputStream input = new FileInputStream(file);
+					try {
+						renamer.run(input, file);
+					} finally {
+						input.close();
+					}
+				}
+			}
+		} finally {
+			renamer.shutdown();
+		}
+		System.exit(renamer.failed.get() == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Reads the operations from input and runs them batch by batch.
+	 *
+	 * @param input
+	 *            the operations, one per line
+	 * @param source
+	 *            the name of the input, for messages
+	 * @throws IOException
+	 *             if the input cannot be read
+	 */
+	public void run(InputStream input, String source) throws IOException {
+		if (start == 0) {
+			start = System.nanoTime();
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		Map<PhotoService.Operation, String> batch = new LinkedHashMap<PhotoService.Operation, String>();
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+				continue;
+			}
+			try {
+				batch.put(parse(trimmed), source + ":" + lineNumber);
+			} catch (IllegalArgumentException e) {
+				fail(source + ":" + lineNumber, e.getMessage());
+				done.incrementAndGet();
+			}
+			if (batch.size() == batchSize) {
+				runBatch(batch);
+				batch = new LinkedHashMap<PhotoService.Operation, String>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			runBatch(batch);
+		}
+	}
+
+	/**
+	 * Runs one batch through PhotoService: the operations of each photo in
+	 * order, the photos in parallel, then saves the catalog once.
+	 *
+	 * @param batch
+	 *            the operations of the batch, with their location in the input
+	 */
+	private void runBatch(Map<PhotoService.Operation, String> batch) {
+		Map<PhotoService.Operation, Throwable> failures;
+		try {
+			failures = service.batch(new ArrayList<PhotoService.Operation>(batch.keySet())).join();
+		} catch (CompletionException e) {
+			System.err.println("Cannot save the catalog: " + PhotoService.messageOf(e));
+			failures = Collections.emptyMap();
+		}
+		for (Map.Entry<PhotoService.Operation, Throwable> failure : failures.entrySet()) {
+			fail(batch.get(failure.getKey()), PhotoService.messageOf(failure.getValue()));
+		}
+		done.addAndGet(batch.size());
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format("%d operations, %d failed, %.1f ops/s", done.get(), failed.get(),
+				done.get() / seconds));
+	}
+
+	private void fail(String location, String message) {
+		failed.incrementAndGet();
+		System.err.println(location + ": " + message);
+	}
+
+	/**
+	 * Parses a line of input.
+	 *
+	 * @param line
+	 *            a non-blank line of input
+	 * @return the operation
+	 * @throws IllegalArgumentException
+	 *             if the line is not a valid operation
+	 */
+	static PhotoService.Operation parse(String line) {
+		String[] fields = (line.indexOf('\t') != -1) ? line.split("\t+", 3) : line.split("\\s+", 3);
+		if (fields.length != 3) {
+			throw new IllegalArgumentException("Expected an operation, a photo and an argument: " + line);
+		}
+		String kind = fields[0].trim().toLowerCase();
+		String argument = fields[2].trim();
+		if (kind.equals(PhotoService.Operation.REVERT)) {
+			try {
+				new SimpleDateFormat(DATE_FORMAT).parse(argument);
+			} catch (ParseException e) {
+				throw new IllegalArgumentException("Expected a date as " + DATE_FORMAT + ": " + argument);
+			}
+		}
+		return new PhotoService.Operation(kind, new File(fields[1].trim()), argument);
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
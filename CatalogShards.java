@@ -0,0 +1,223 @@
+package photo_renamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The files of the catalog, one shard per directory of photos in ./catalog. A shard holds
+ * the PhotoNodes of one directory by id and is named after the SHA-1 of the directory's
+ * absolute path, so the shard of a directory is found without an index and opening a
+ * directory reads only its own photos.
+ * <p>
+ * Each shard starts with a header of MAGIC and the path of its directory, ahead of the
+ * serialized photos, so the directories of the catalog are listed from the headers without
+ * decoding any photo, and the shards can then be decoded independently, in parallel.
+ * Shards written before there were headers start with the serialized photos directly;
+ * they are still read, and given a header when their directory is first listed.
+ * <p>
+ * A shard is written to a temporary file which then replaces it, so a shard on disk is
+ * always complete, even if the program is stopped while saving.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+final class CatalogShards {
+	static final File DIRECTORY = new File("./catalog");
+	private static final String SUFFIX = ".bin";
+	/** The start of a shard with a header. */
+	private static final int MAGIC = 0x50524353;
+	/** The start of a serialized stream, and so of a shard without a header. */
+	private static final int STREAM_MAGIC = 0xACED0005;
+
+	private CatalogShards() {
+	}
+
+	/**
+	 * Returns the shard of the designated directory.
+	 *
+	 * @param directory
+	 *            a directory of photos
+	 * @return the file of its shard, which may not exist yet
+	 */
+	static File shardOf(File directory) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(directory.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder(hash.length * 2 + SUFFIX.length());
+			for (byte b : hash) {
+				name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return new File(DIRECTORY, name.append(SUFFIX).toString());
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the shards of all directories
+	 */
+	static List<File> shards() {
+		List<File> shards = new ArrayList<File>();
+		File[] files = DIRECTORY.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(SUFFIX)) {
+					shards.add(file);
+				}
+			}
+		}
+		return shards;
+	}
+
+	/**
+	 * Reads the designated shard.
+	 *
+	 * @param shard
+	 *            the file of a shard
+	 * @return the photos of the shard by id, empty if the shard does not exist
+	 * @throws IOException
+	 *             if the shard cannot be read
+	 * @throws ClassNotFoundException
+	 *             if the shard holds classes of another program
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, PhotoNode> read(File shard) throws IOException, ClassNotFoundException {
+		if (!shard.exists()) {
+			return new HashMap<String, PhotoNode>();
+		}
+		InputStream file = new BufferedInputStream(new FileInputStream(shard));
+		try {
+			readHeader(file, shard);
+			return (Map<String, PhotoNode>) new ObjectInputStream(file).readObject();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the directory of the designated shard from its header.
+	 *
+	 * @param shard
+	 *            the file of a shard
+	 * @return the directory, or null if the shard has no header
+	 * @throws IOException
+	 *             if the shard cannot be read
+	 */
+	static File directoryOf(File shard) throws IOException {
+		InputStream file = new BufferedInputStream(new FileInputStream(shard), 512);
+		try {
+			return readHeader(file, shard);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the directory of the designated shard, giving the shard a header
+	 * first if it has none.
+	 *
+	 * @param shard
+	 *            the file of a shard
+	 * @return the directory, or null if the shard has no photos
+	 * @throws IOException
+	 *             if the shard cannot be read or written
+	 * @throws ClassNotFoundException
+	 *             if the shard holds classes of another program
+	 */
+	static synchronized File upgrade(File shard) throws IOException, ClassNotFoundException {
+		File directory = directoryOf(shard);
+		if (directory == null) {
+			// Writes are synchronized too, so the shard is written as it was read.
+			Map<String, PhotoNode> photos = read(shard);
+			if (photos.isEmpty()) {
+				return null;
+			}
+			directory = photos.values().iterator().next().getDirectory();
+			write(directory, photos.values());
+		}
+		return directory;
+	}
+
+	/**
+	 * Reads the header of a shard, leaving the stream at the serialized
+	 * photos.
+	 *
+	 * @return the directory of the shard, or null if it has no header
+	 */
+	private static File readHeader(InputStream file, File shard) throws IOException {
+		file.mark(4);
+		DataInputStream header = new DataInputStream(file);
+		int magic = header.readInt();
+		if (magic == STREAM_MAGIC) {
+			file.reset();
+			return null;
+		}
+		if (magic != MAGIC) {
+			throw new StreamCorruptedException(shard + " is not a shard of the catalog");
+		}
+		return new File(header.readUTF());
+	}
+
+	/**
+	 * Writes the designated photos as the shard of the designated directory,
+	 * or deletes the shard if there are none.
+	 *
+	 * @param directory
+	 *            a directory of photos
+	 * @param photos
+	 *            the photos of the catalog in the directory
+	 * @throws IOException
+	 *             if the shard cannot be written
+	 */
+	static synchronized void write(File directory, Collection<PhotoNode> photos) throws IOException {
+		File shard = shardOf(directory);
+		if (photos.isEmpty()) {
+			Files.deleteIfExists(shard.toPath());
+			return;
+		}
+		Map<String, PhotoNode> byId = new HashMap<String, PhotoNode>();
+		for (PhotoNode photo : photos) {
+			byId.put(photo.getPhotoId(), photo);
+		}
+		DIRECTORY.mkdirs();
+		File temporary = new File(DIRECTORY, shard.getName() + ".tmp");
+		DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+		try {
+			file.writeInt(MAGIC);
+			file.writeUTF(directory.getAbsolutePath());
+			ObjectOutputStream output = new ObjectOutputStream(file);
+			output.writeObject(byId);
+			output.flush();
+		} finally {
+			file.close();
+		}
+		try {
+			Files.move(temporary.toPath(), shard.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), shard.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package photo_renamer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * An immutable, consistent state of the catalog: every photo's PhotoView by id, and the
+ * photos of every tag. PhotoManager publishes a new snapshot after each change
+ * of a photo through an AtomicReference; the tag lists, revert menus and queries read
+ * the latest snapshot without locks while writers build the next one.
+ * <p>
+ * Both maps are PersistentMaps, so a change of one photo shares all the rest of the
+ * catalog with the previous snapshot. A tag is in a snapshot as long as a photo has it.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class CatalogSnapshot {
+	private static final CatalogSnapshot EMPTY = new CatalogSnapshot(PersistentMap.<String, PhotoView> empty(),
+			PersistentMap.<String, PersistentMap<String, PhotoView>> empty(), 0);
+
+	private final PersistentMap<String, PhotoView> photos;
+	private final PersistentMap<String, PersistentMap<String, PhotoView>> tagged;
+	private final long version;
+
+	private CatalogSnapshot(PersistentMap<String, PhotoView> photos,
+			PersistentMap<String, PersistentMap<String, PhotoView>> tagged, long version) {
+		this.photos = photos;
+		this.tagged = tagged;
+		this.version = version;
+	}
+
+	/**
+	 * @return the snapshot of the empty catalog
+	 */
+	public static CatalogSnapshot empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Returns a snapshot with the designated view replacing the one of the
+	 * same photo, and the photo moved between the tags it left and joined.
+	 *
+	 * @param view
+	 *            the new view of a photo
+	 * @return the new snapshot
+	 */
+	CatalogSnapshot with(PhotoView view) {
+		String key = view.getPhotoId();
+		PhotoView old = photos.get(key);
+		PersistentMap<String, PersistentMap<String, PhotoView>> newTagged = tagged;
+		if (old != null) {
+			newTagged = untag(newTagged, key, old, view.getTagNames());
+		}
+		for (String tagName : view.getTagNames()) {
+			PersistentMap<String, PhotoView> members = newTagged.get(tagName);
+			if (members == null) {
+				members = PersistentMap.empty();
+			}
+			newTagged = newTagged.plus(tagName, members.plus(key, view));
+		}
+		return new CatalogSnapshot(photos.plus(key, view), newTagged, version + 1);
+	}
+
+	/**
+	 * Returns a snapshot without the photo with the designated id, which is
+	 * now known by another id.
+	 *
+	 * @param photoId
+	 *            the former id of a photo
+	 * @return the new snapshot
+	 */
+	CatalogSnapshot without(String photoId) {
+		PhotoView old = photos.get(photoId);
+		if (old == null) {
+			return this;
+		}
+		PersistentMap<String, PersistentMap<String, PhotoView>> newTagged = untag(tagged, photoId, old,
+				Collections.<String> emptyList());
+		return new CatalogSnapshot(photos.minus(photoId), newTagged, version + 1);
+	}
+
+	/**
+	 * Returns tagged without the photo in the tags of old that are not kept.
+	 */
+	private static PersistentMap<String, PersistentMap<String, PhotoView>> untag(
+			PersistentMap<String, PersistentMap<String, PhotoView>> tagged, String key, PhotoView old,
+			List<String> kept) {
+		PersistentMap<String, PersistentMap<String, PhotoView>> newTagged = tagged;
+		for (String tagName : old.getTagNames()) {
+			if (!kept.contains(tagName)) {
+				PersistentMap<String, PhotoView> members = newTagged.get(tagName).minus(key);
+				newTagged = members.isEmpty() ? newTagged.minus(tagName) : newTagged.plus(tagName, members);
+			}
+		}
+		return newTagged;
+	}
+
+	/**
+	 * Returns the number of changes published before this snapshot, so that
+	 * a reader can tell whether the catalog changed since its last read.
+	 *
+	 * @return the version of this snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return every photo of the catalog by id
+	 */
+	public Map<String, PhotoView> getPhotos() {
+		return photos;
+	}
+
+	/**
+	 * @param photoId
+	 *            the id of a photo
+	 * @return the view of the photo, or null if it is not in the catalog
+	 */
+	public PhotoView getPhoto(String photoId) {
+		return photos.get(photoId);
+	}
+
+	/**
+	 * @return the names of the tags some photo has
+	 */
+	public Set<String> getTagNames() {
+		return tagged.keySet();
+	}
+
+	/**
+	 * Returns the photos having the designated tag.
+	 *
+	 * @param tagName
+	 *            the name of a tag
+	 * @return the photos with the tag by id, empty if none has it
+	 */
+	public Map<String, PhotoView> getPhotosTagged(String tagName) {
+		Map<String, PhotoView> members = tagged.get(tagName);
+		return (members == null) ? Collections.<String, PhotoView> emptyMap() : members;
+	}
+}
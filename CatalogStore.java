@@ -0,0 +1,135 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Where PhotoManager and TagManager keep the catalog. The photos are read and written a
+ * directory at a time, as PhotoManager loads and saves them, and the tags whole. A store
+ * also looks photos up by id, by tag and by the time of a change without the caller
+ * loading the catalog; how fast it does so depends on the store. Directories are read
+ * from several threads at once.
+ * <p>
+ * CatalogStores opens the store the catalog.store system property names.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public interface CatalogStore {
+	/**
+	 * Reads the photos of the designated directory.
+	 *
+	 * @param directory
+	 *            a directory of photos
+	 * @return the photos of the directory by id, empty if it has none
+	 * @throws IOException
+	 *             if the photos cannot be read
+	 */
+	Map<String, PhotoNode> readDirectory(File directory) throws IOException;
+
+	/**
+	 * Lists the directories that have photos, without reading the photos, so
+	 * that they can be read in parallel.
+	 *
+	 * @return the directories with photos
+	 * @throws IOException
+	 *             if the catalog cannot be read
+	 */
+	Collection<File> directories() throws IOException;
+
+	/**
+	 * Reads the photos of every directory.
+	 *
+	 * @return all photos of the catalog
+	 * @throws IOException
+	 *             if the photos cannot be read
+	 */
+	Collection<PhotoNode> readAll() throws IOException;
+
+	/**
+	 * Replaces the photos of the designated directory with the designated
+	 * ones. Either all of them are written or, if it fails, none.
+	 *
+	 * @param directory
+	 *            a directory of photos
+	 * @param photos
+	 *            the photos of the catalog in the directory, maybe none
+	 * @throws IOException
+	 *             if the photos cannot be written
+	 */
+	void writeDirectory(File directory, Collection<PhotoNode> photos) throws IOException;
+
+	/**
+	 * Reads the tags.
+	 *
+	 * @return the tags by name, with the ids of their photos
+	 * @throws IOException
+	 *             if the tags cannot be read
+	 */
+	Map<String, Tag> readTags() throws IOException;
+
+	/**
+	 * Replaces the tags with the designated ones.
+	 *
+	 * @param tags
+	 *            the tags by name
+	 * @throws IOException
+	 *             if the tags cannot be written
+	 */
+	void writeTags(Map<String, Tag> tags) throws IOException;
+
+	/**
+	 * Reads the photo with the designated id.
+	 *
+	 * @param photoId
+	 *            the id of a photo
+	 * @return the photo, or null if the catalog has none with the id
+	 * @throws IOException
+	 *             if the photo cannot be read
+	 */
+	PhotoNode readPhoto(String photoId) throws IOException;
+
+	/**
+	 * Finds the photos with the designated tag.
+	 *
+	 * @param tagName
+	 *            the name of a tag
+	 * @return the ids of the photos with the tag, as last written
+	 * @throws IOException
+	 *             if the catalog cannot be read
+	 */
+	Set<String> findTagged(String tagName) throws IOException;
+
+	/**
+	 * Finds the photos changed in the designated time, that is with an entry
+	 * of their renaming history in it. Times are in the format of the
+	 * renaming history, yyyy/MM/dd HH:mm:ss.
+	 *
+	 * @param from
+	 *            the start of the time, included
+	 * @param to
+	 *            the end of the time, excluded
+	 * @return the ids of the photos changed
+	 * @throws IOException
+	 *             if the catalog cannot be read
+	 */
+	Set<String> findChanged(String from, String to) throws IOException;
+
+	/**
+	 * @return whether the store has no photos
+	 * @throws IOException
+	 *             if the catalog cannot be read
+	 */
+	boolean isEmpty() throws IOException;
+
+	/**
+	 * Releases what the store holds open. The store is not used afterwards.
+	 *
+	 * @throws IOException
+	 *             if the store cannot be closed
+	 */
+	void close() throws IOException;
+}
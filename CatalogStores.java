@@ -0,0 +1,81 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Opens the CatalogStore the catalog.store system property names: a JDBC URL for a
+ * JdbcCatalogStore, or nothing for the serialized files in the working directory.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+final class CatalogStores {
+	/** The system property naming the store. */
+	static final String PROPERTY = "catalog.store";
+	/** The file of the tags of the serialized store. */
+	static final String TAG_FILE = "./tag manager.bin";
+
+	private CatalogStores() {
+	}
+
+	/**
+	 * Opens the configured store.
+	 *
+	 * @return the store
+	 * @throws IOException
+	 *             if the store cannot be opened
+	 */
+	static CatalogStore open() throws IOException {
+		String url = System.getProperty(PROPERTY, "");
+		if (url.startsWith("jdbc:")) {
+			return new JdbcCatalogStore(url);
+		}
+		return serialized();
+	}
+
+	/**
+	 * @return the store of the serialized files in the working directory
+	 */
+	static CatalogStore serialized() {
+		return new SerializedCatalogStore(new File(TAG_FILE));
+	}
+
+	/**
+	 * Writes the designated photos into the designated store by directory.
+	 * Photos without a file have no directory and are left out.
+	 *
+	 * @param store
+	 *            a store
+	 * @param photos
+	 *            photos in any directories
+	 * @return the number of photos written
+	 * @throws IOException
+	 *             if the store cannot be written
+	 */
+	static int writeAll(CatalogStore store, Collection<PhotoNode> photos) throws IOException {
+		Map<File, List<PhotoNode>> byDirectory = new HashMap<File, List<PhotoNode>>();
+		int written = 0;
+		for (PhotoNode photo : photos) {
+			if (photo.getDirectory() == null) {
+				continue;
+			}
+			List<PhotoNode> inDirectory = byDirectory.get(photo.getDirectory());
+			if (inDirectory == null) {
+				inDirectory = new ArrayList<PhotoNode>();
+				byDirectory.put(photo.getDirectory(), inDirectory);
+			}
+			inDirectory.add(photo);
+			written++;
+		}
+		for (Map.Entry<File, List<PhotoNode>> directory : byDirectory.entrySet()) {
+			store.writeDirectory(directory.getKey(), directory.getValue());
+		}
+		return written;
+	}
+}
@@ -11,6 +11,7 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
@@ -34,10 +35,10 @@ import javax.swing.JTextField;
 public class DeleteTagButtonListener implements ActionListener {
 	/** The area to use to display the nested directory contents. */
 	private PhotoNode photo;
-	private DefaultListModel thisListModel;
-	private DefaultListModel allListModel;
-	private JList thisList;
-	private JList allList;
+	private DefaultListModel<String> thisListModel;
+	private DefaultListModel<String> allListModel;
+	private JList<String> thisList;
+	private JList<String> allList;
 	private JFrame photoFrame;
 	private JMenu revertOptions;
 	private JTextArea imageNameIndicator;
@@ -63,8 +64,9 @@ public class DeleteTagButtonListener implements ActionListener {
 	 * @param imageNameIndicator
 	 *            the JTextArea displaying this photo's name
 	 */
-	public DeleteTagButtonListener(PhotoNode photo, DefaultListModel thisListModel, DefaultListModel allListModel, JList thisList,
-			JList allList, JFrame photoFrame, JMenu revertOptions, JTextArea imageNameIndicator) {
+	public DeleteTagButtonListener(PhotoNode photo, DefaultListModel<String> thisListModel,
+			DefaultListModel<String> allListModel, JList<String> thisList, JList<String> allList, JFrame photoFrame,
+			JMenu revertOptions, JTextArea imageNameIndicator) {
 		this.photo = photo;
 		this.thisListModel = thisListModel;
 		this.allListModel = allListModel;
@@ -101,30 +103,38 @@ public class DeleteTagButtonListener implements ActionListener {
 		// Rebuilds this photo's listModel which consists all of its tags.
 		List<String> removeList = new ArrayList<String>();
 		for (int h = index.length - 1; h >= 0; h--) {
-			String removedTagName = (String) thisListModel.get(index[h]);
+			String removedTagName = thisListModel.get(index[h]);
 			removeList.add(removedTagName);
 		}
 		for (String removed : removeList) {
 			thisListModel.removeElement(removed);
-			Tag removedTag = TagManager.findTag(removed);
-			// Deletes the valid tag from the photo.
-			if (removedTag != null) {
-				try {
-					photo.deleteTag(removedTag);
-				} catch (IOException e) {
-					e.printStackTrace();
+		}
+		// Deletes the tags from the photo in the background.
+		PhotoService.shared().deleteTags(photo, removeList).whenCompleteAsync(new BiConsumer<List<String>, Throwable>() {
+			@Override
+			public void accept(List<String> deleted, Throwable failure) {
+				if (failure != null) {
+					JOptionPane.showMessageDialog(null, PhotoService.messageOf(failure));
+					thisListModel.clear();
+					PhotoView view = PhotoManager.snapshot().getPhoto(photo.getPhotoId());
+					if (view != null) {
+						for (String tag : view.getTagNames()) {
+							thisListModel.addElement(tag);
+						}
+					}
 				}
+				showDeletedTags();
 			}
-		}
-
-		// Clear all tags with no photo attached to them from the TagManager.
-		try {
-			TagManager.tagCleaner();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		}, PhotoService.ON_EDT);
+	}
 
-		// Rebuilds the tag manager listModel.
+	/**
+	 * Shows the tags left to this photo and to the tag manager, and updates
+	 * the revert options and the photo's name on the window.
+	 */
+	private void showDeletedTags() {
+		// Rebuilds the tag manager listModel from the tags of the whole library.
+		CatalogSnapshot catalog = PhotoManager.snapshot();
 		allListModel.clear();
 		for (String tags : TagManager.getTags().keySet()) {
 			allListModel.addElement(tags);
@@ -133,9 +143,16 @@ public class DeleteTagButtonListener implements ActionListener {
 		JOptionPane.showMessageDialog(null, this.photo.printTags());
 
 		// Updates the renaming history.
-		String date = this.photo.getLastModifiedDate();
-		JMenuItem newMenuItem = new JMenuItem(
-				date + "--> (Deleted Tag) " + this.photo.getRenamingHistory().get(date).getName());
+		PhotoView view = catalog.getPhoto(this.photo.getPhotoId());
+		if (view == null) {
+			return;
+		}
+		String date = view.getLastModifiedDate();
+		String latest = view.getHistory().get(date);
+		if (latest == null) {
+			return;
+		}
+		JMenuItem newMenuItem = new JMenuItem(date + "--> (Deleted Tag) " + latest);
 		revertOptions.add(newMenuItem);
 		ActionListener revertBackToDate = new RevertListener(photo, date, revertOptions, thisListModel,
 								allListModel, thisList, allList, photoFrame, imageNameIndicator);
@@ -144,6 +161,6 @@ public class DeleteTagButtonListener implements ActionListener {
 		// Updates JFrame to add the new revert options and the photo's name on Photo Editing window.
 		photoFrame.getContentPane().validate();
 		photoFrame.getContentPane().repaint();
-		imageNameIndicator.setText(TEXT_SEPARATOR + this.photo.getName() + TEXT_SEPARATOR);
+		imageNameIndicator.setText(TEXT_SEPARATOR + view.getName() + TEXT_SEPARATOR);
 	}
 }
@@ -72,7 +72,9 @@ public class FileChooserButtonListener implements ActionListener {
 
 				// Make the root.
 				FileNode fileTree = new FileNode(file.getName(), null, FileType.DIRECTORY);
+				long start = System.nanoTime();
 				FileChooserButtonListener.buildTree(file, fileTree);
+				Metrics.record(Metrics.SCAN_BUILD_TREE, start);
 
 				// Build the string representation and put it into the text
 				// area.
@@ -103,19 +105,51 @@ public class FileChooserButtonListener implements ActionListener {
 				curr.addChild(child.getName(), childNode);
 				// Recursively build the tree when we have an nested structure.
 				buildTree(child, childNode);
-			} else {
-				String name = child.getName();
-				if (name.length() >= 4){
-					String suffix = name.substring(name.length() - 4);
-					if (suffix.equals(".jpg") || suffix.equals(".png") || suffix.equals("jpeg") || suffix.equals(".gif")) {
-						FileNode childNode = new FileNode(child.getName(), curr, FileType.PHOTO);
-						curr.addChild(child.getName(), childNode);
-					}	
-				}
+			} else if (isPhoto(child.getName())) {
+				FileNode childNode = new FileNode(child.getName(), curr, FileType.PHOTO);
+				curr.addChild(child.getName(), childNode);
 			}
 		}
 	}
 
+	/**
+	 * Adds nodes for the photos directly inside file to curr, without
+	 * descending into subdirectories. Precondition: file represents a
+	 * directory.
+	 * 
+	 * @param file
+	 *            the directory whose photos are added
+	 * @param curr
+	 *            the node representing file
+	 */
+	protected static void buildLevel(File file, FileNode curr) {
+		File[] allChildren = file.listFiles();
+		if (allChildren == null) {
+			return;
+		}
+		for (File child : allChildren) {
+			if (!child.isDirectory() && isPhoto(child.getName())) {
+				curr.addChild(child.getName(), new FileNode(child.getName(), curr, FileType.PHOTO));
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the file name has one of the photo suffixes shown by
+	 * this program.
+	 * 
+	 * @param name
+	 *            the name of the file
+	 * @return whether the file is a photo
+	 */
+	protected static boolean isPhoto(String name) {
+		if (name.length() < 4) {
+			return false;
+		}
+		String suffix = name.substring(name.length() - 4);
+		return suffix.equals(".jpg") || suffix.equals(".png") || suffix.equals("jpeg") || suffix.equals(".gif");
+	}
+
 	/**
 	 * Build a string buffer representation of the contents of the tree rooted
 	 * at n, prepending each file name with prefix, and adding and additional
@@ -0,0 +1,73 @@
+package photo_renamer;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Applies the HistoryRetention of the system properties to the whole catalog in the
+ * background, every history.compactMinutes minutes, 60 by default, on one low priority
+ * thread. Nothing is started if the policy keeps every change.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class HistoryCompactor {
+	private static final Logger logger = Logger.getLogger(HistoryCompactor.class.getName());
+	private static ScheduledExecutorService compactor;
+
+	private HistoryCompactor() {
+	}
+
+	/**
+	 * Starts compacting the catalog in the background with the policy of the
+	 * system properties, the first time after one period. Starting it again
+	 * does nothing.
+	 */
+	public static synchronized void start() {
+		final HistoryRetention retention = HistoryRetention.fromProperties();
+		if (compactor != null || retention.keepsAll()) {
+			return;
+		}
+		long period = Math.max(1, Integer.getInteger("history.compactMinutes", 60));
+		compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "history-compactor");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		// With a fixed delay, a slow pass over a large catalog is never
+		// followed at once by the next.
+		compactor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					PhotoManager.compactHistory(retention);
+				} catch (IOException ex) {
+					logger.log(Level.SEVERE, "Cannot compact the renaming history.", ex);
+				} catch (RuntimeException ex) {
+					// Thrown on, it would cancel the later passes.
+					logger.log(Level.SEVERE, "Cannot compact the renaming history.", ex);
+				}
+			}
+		}, period, period, TimeUnit.MINUTES);
+		logger.log(Level.INFO, "Compacting the renaming history every " + period + " minutes (" + retention + ").");
+	}
+
+	/**
+	 * Stops compacting the catalog, after the pass running, if any.
+	 */
+	public static synchronized void stop() {
+		if (compactor != null) {
+			compactor.shutdown();
+			compactor = null;
+		}
+	}
+}
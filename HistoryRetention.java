@@ -0,0 +1,109 @@
+package photo_renamer;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * How much of a photo's renaming history is kept: the last changes, every change of the
+ * last days, and of older changes the last of each day, as a daily checkpoint. The change
+ * the photo is at is always kept, so is every date a photo can still be reverted to within
+ * the window. With the default policy everything is kept.
+ * <p>
+ * The policy of the program is set with the system properties history.keepLast, the
+ * number of last changes kept, and history.keepDays, the number of days whose changes are
+ * all kept; setting either of them starts thinning the older changes. HistoryCompactor
+ * applies it to the catalog in the background.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class HistoryRetention {
+	/** The policy that keeps every change. */
+	public static final HistoryRetention KEEP_ALL = new HistoryRetention(Integer.MAX_VALUE, Integer.MAX_VALUE);
+	private static final long DAY = 24L * 60 * 60 * 1000;
+	/** The length of the day, yyyy/MM/dd, at the start of a date of the history. */
+	private static final int DAY_LENGTH = 10;
+
+	private final int keepLast;
+	private final int keepDays;
+
+	/**
+	 * Constructor for a policy.
+	 *
+	 * @param keepLast
+	 *            the number of last changes kept
+	 * @param keepDays
+	 *            the number of days before now whose changes are all kept
+	 */
+	public HistoryRetention(int keepLast, int keepDays) {
+		if (keepLast < 0 || keepDays < 0) {
+			throw new IllegalArgumentException("A retention cannot keep less than nothing");
+		}
+		this.keepLast = keepLast;
+		this.keepDays = keepDays;
+	}
+
+	/**
+	 * Returns the policy of the history.keepLast and history.keepDays system
+	 * properties, or KEEP_ALL if neither is set.
+	 *
+	 * @return the policy
+	 */
+	public static HistoryRetention fromProperties() {
+		Integer keepLast = Integer.getInteger("history.keepLast");
+		Integer keepDays = Integer.getInteger("history.keepDays");
+		if (keepLast == null && keepDays == null) {
+			return KEEP_ALL;
+		}
+		return new HistoryRetention((keepLast != null) ? keepLast : 0, (keepDays != null) ? keepDays : 0);
+	}
+
+	/**
+	 * @return whether this policy keeps every change
+	 */
+	public boolean keepsAll() {
+		return keepLast == Integer.MAX_VALUE || keepDays == Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the dates of the designated history that this policy lets go.
+	 *
+	 * @param dates
+	 *            the dates of a renaming history, yyyy/MM/dd HH:mm:ss
+	 * @param current
+	 *            the date of the change the photo is at, which is kept
+	 * @param now
+	 *            the time the days are counted back from, in milliseconds
+	 * @return the dates let go, maybe none
+	 */
+	public List<String> expired(Collection<String> dates, String current, long now) {
+		if (keepsAll() || dates.size() <= keepLast) {
+			return Collections.emptyList();
+		}
+		List<String> sorted = new ArrayList<String>(dates);
+		// The dates are formatted so that their order as text is their order
+		// in time.
+		Collections.sort(sorted);
+		String cutoff = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(now - keepDays * DAY);
+		List<String> expired = new ArrayList<String>();
+		for (int i = 0; i < sorted.size() - keepLast; i++) {
+			String date = sorted.get(i);
+			if (date.compareTo(cutoff) >= 0) {
+				break;
+			}
+			boolean checkpoint = i + 1 == sorted.size() || !sorted.get(i + 1).regionMatches(0, date, 0, DAY_LENGTH);
+			if (!checkpoint && !date.equals(current)) {
+				expired.add(date);
+			}
+		}
+		return expired;
+	}
+
+	@Override
+	public String toString() {
+		return keepsAll() ? "keep all" : "keep last " + keepLast + ", all of " + keepDays + " days, then daily";
+	}
+}
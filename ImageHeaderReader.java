@@ -0,0 +1,292 @@
+package photo_renamer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/*
+ * Reads the PhotoMetadata of JPEG, PNG and GIF files from their headers only. JPEG files
+ * are walked marker by marker up to the start of frame, parsing the EXIF block on the
+ * way; PNG and GIF keep their dimensions in the first bytes of the file. Reads go
+ * through a small window over the file, so a typical photo costs one or two reads of a
+ * few kilobytes and no pixel is ever decoded.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class ImageHeaderReader {
+	private static final int WINDOW_SIZE = 8192;
+	private static final String EXIF_DATE_FORMAT = "yyyy:MM:dd HH:mm:ss";
+
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TAG_DATE_TIME = 0x0132;
+	private static final int TAG_EXIF_IFD = 0x8769;
+	private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+	private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+	private final RandomAccessFile file;
+	private final byte[] window = new byte[WINDOW_SIZE];
+	private long windowStart;
+	private int windowLength;
+
+	private int width = PhotoMetadata.UNKNOWN;
+	private int height = PhotoMetadata.UNKNOWN;
+	private int orientation = 1;
+	private String captureDate;
+	private long thumbnailOffset = PhotoMetadata.UNKNOWN;
+	private int thumbnailLength;
+
+	/**
+	 * Constructor for this reader.
+	 *
+	 * @param file
+	 *            the opened photo file
+	 */
+	private ImageHeaderReader(RandomAccessFile file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the metadata of the photo, read from its header. Fields that the
+	 * header does not carry are PhotoMetadata.UNKNOWN.
+	 *
+	 * @param photo
+	 *            the photo file
+	 * @return the metadata of the photo
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static PhotoMetadata read(File photo) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(photo, "r");
+		try {
+			ImageHeaderReader reader = new ImageHeaderReader(file);
+			reader.parse();
+			return reader.toMetadata();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Parses the header according to the signature of the file. Truncated or
+	 * malformed headers leave the remaining fields unknown.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private void parse() throws IOException {
+		try {
+			if (u8(0) == 0xFF && u8(1) == 0xD8) {
+				parseJpeg();
+			} else if (u32(0, false) == 0x89504E47L && u32(12, false) == 0x49484452L) {
+				// The PNG signature followed by the IHDR chunk.
+				width = (int) u32(16, false);
+				height = (int) u32(20, false);
+			} else if (u8(0) == 'G' && u8(1) == 'I' && u8(2) == 'F') {
+				width = u16(6, true);
+				height = u16(8, true);
+			}
+		} catch (EOFException e) {
+			// Truncated header: keeps what was found so far.
+		}
+	}
+
+	/**
+	 * Walks the JPEG markers up to the first start of frame, parsing the EXIF
+	 * APP1 segment when one is found.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private void parseJpeg() throws IOException {
+		long position = 2;
+		while (true) {
+			if (u8(position) != 0xFF) {
+				return;
+			}
+			int marker = u8(position + 1);
+			if (marker == 0xFF) {
+				// Fill byte before the marker.
+				position++;
+				continue;
+			}
+			if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+				position += 2;
+				continue;
+			}
+			if (marker == 0xD9 || marker == 0xDA) {
+				// End of image or start of scan: no frame header follows.
+				return;
+			}
+			int length = u16(position + 2, false);
+			long segment = position + 4;
+			if (marker == 0xE1 && isExif(segment)) {
+				parseTiff(segment + 6, position + 2 + length);
+			} else if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+				height = u16(segment + 1, false);
+				width = u16(segment + 3, false);
+				return;
+			}
+			position += 2 + length;
+		}
+	}
+
+	/**
+	 * @param segment
+	 *            the start of an APP1 segment's payload
+	 * @return whether the segment holds EXIF data
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private boolean isExif(long segment) throws IOException {
+		return u32(segment, false) == 0x45786966L && u16(segment + 4, false) == 0;
+	}
+
+	/**
+	 * Parses the TIFF structure of an EXIF block: orientation and date from
+	 * IFD0, the original capture date from the EXIF IFD and the thumbnail
+	 * location from IFD1. Offsets inside the block are relative to its TIFF
+	 * header.
+	 *
+	 * @param tiff
+	 *            the position of the TIFF header in the file
+	 * @param end
+	 *            the end of the APP1 segment holding the block
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private void parseTiff(long tiff, long end) throws IOException {
+		boolean little = u16(tiff, false) == 0x4949;
+		if (u16(tiff + 2, little) != 42) {
+			return;
+		}
+		long ifd0 = tiff + u32(tiff + 4, little);
+		long exifIfd = PhotoMetadata.UNKNOWN;
+		int entries = u16(ifd0, little);
+		for (int i = 0; i < entries; i++) {
+			long entry = ifd0 + 2 + 12L * i;
+			int tag = u16(entry, little);
+			if (tag == TAG_ORIENTATION) {
+				orientation = u16(entry + 8, little);
+			} else if (tag == TAG_DATE_TIME && captureDate == null) {
+				captureDate = ascii(tiff, entry, little);
+			} else if (tag == TAG_EXIF_IFD) {
+				exifIfd = tiff + u32(entry + 8, little);
+			}
+		}
+		if (exifIfd != PhotoMetadata.UNKNOWN) {
+			int exifEntries = u16(exifIfd, little);
+			for (int i = 0; i < exifEntries; i++) {
+				long entry = exifIfd + 2 + 12L * i;
+				if (u16(entry, little) == TAG_DATE_TIME_ORIGINAL) {
+					captureDate = ascii(tiff, entry, little);
+				}
+			}
+		}
+		long next = u32(ifd0 + 2 + 12L * entries, little);
+		if (next != 0) {
+			long ifd1 = tiff + next;
+			long offset = PhotoMetadata.UNKNOWN;
+			long length = 0;
+			int thumbnailEntries = u16(ifd1, little);
+			for (int i = 0; i < thumbnailEntries; i++) {
+				long entry = ifd1 + 2 + 12L * i;
+				int tag = u16(entry, little);
+				if (tag == TAG_THUMBNAIL_OFFSET) {
+					offset = tiff + u32(entry + 8, little);
+				} else if (tag == TAG_THUMBNAIL_LENGTH) {
+					length = u32(entry + 8, little);
+				}
+			}
+			// Both values are untrusted: a thumbnail that does not lie inside
+			// its segment and the file is ignored rather than allocated.
+			if (offset >= tiff && length > 0 && offset + length <= Math.min(end, file.length())) {
+				thumbnailOffset = offset;
+				thumbnailLength = (int) length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the ASCII value of an IFD entry, which is stored in the entry
+	 * itself when it fits in four bytes and at an offset otherwise.
+	 *
+	 * @param tiff
+	 *            the position of the TIFF header
+	 * @param entry
+	 *            the position of the IFD entry
+	 * @param little
+	 *            whether the block is little endian
+	 * @return the value without its terminating zero
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private String ascii(long tiff, long entry, boolean little) throws IOException {
+		int count = (int) Math.min(u32(entry + 4, little), 64);
+		long value = (count <= 4) ? entry + 8 : tiff + u32(entry + 8, little);
+		byte[] bytes = new byte[count];
+		int length = 0;
+		while (length < count && u8(value + length) != 0) {
+			bytes[length] = (byte) u8(value + length);
+			length++;
+		}
+		return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return the metadata collected while parsing
+	 */
+	private PhotoMetadata toMetadata() {
+		long captureTime = PhotoMetadata.UNKNOWN;
+		if (captureDate != null) {
+			try {
+				captureTime = new SimpleDateFormat(EXIF_DATE_FORMAT).parse(captureDate).getTime();
+			} catch (ParseException e) {
+				// Cameras without a clock write blanks or zeros here.
+			}
+		}
+		if (thumbnailLength <= 0) {
+			thumbnailOffset = PhotoMetadata.UNKNOWN;
+		}
+		return new PhotoMetadata(width, height, orientation, captureTime, thumbnailOffset, thumbnailLength);
+	}
+
+	/**
+	 * Returns the unsigned byte at the position, moving the window over the
+	 * file when the position falls outside of it.
+	 *
+	 * @param position
+	 *            the position in the file
+	 * @return the byte at the position
+	 * @throws IOException
+	 *             if the file cannot be read or ends before the position
+	 */
+	private int u8(long position) throws IOException {
+		if (position < windowStart || position >= windowStart + windowLength) {
+			file.seek(position);
+			windowStart = position;
+			windowLength = Math.max(0, file.read(window, 0, WINDOW_SIZE));
+			if (windowLength == 0) {
+				throw new EOFException();
+			}
+		}
+		return window[(int) (position - windowStart)] & 0xFF;
+	}
+
+	private int u16(long position, boolean little) throws IOException {
+		int a = u8(position);
+		int b = u8(position + 1);
+		return little ? (b << 8) | a : (a << 8) | b;
+	}
+
+	private long u32(long position, boolean little) throws IOException {
+		long a = u16(position, little);
+		long b = u16(position + 2, little);
+		return little ? (b << 16) | a : (a << 16) | b;
+	}
+}
@@ -0,0 +1,372 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+
+/*
+ * Decodes photos for the editing window away from the event dispatch thread.
+ * Embedded thumbnails are shown first when the photo has one, and large photos
+ * are decoded with source subsampling so that the full resolution image is
+ * never materialized just to be shrunk to the size of the window.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class ImageLoader {
+	private static final Logger logger = Logger.getLogger(ImageLoader.class.getName());
+
+	/** The maximum width of a photo displayed in the editing window. */
+	public static final int DISPLAY_WIDTH = 1136;
+	/** The maximum height of a photo displayed in the editing window. */
+	public static final int DISPLAY_HEIGHT = 639;
+
+	/** The single background thread decoding photos, so decodes never pile up. */
+	private static final ExecutorService decoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "photo-decoder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** The low priority background thread decoding neighbouring photos ahead of time. */
+	private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "photo-prefetcher");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+	/**
+	 * Decodes the photo in the background and hands the display-size image to
+	 * onLoaded on the event dispatch thread. When the photo is not cached but
+	 * carries an embedded thumbnail too small for the window, onLoaded is
+	 * called twice: first with the thumbnail stretched to the display size,
+	 * then with the proper preview. If the photo cannot be decoded, onLoaded
+	 * finally receives null.
+	 *
+	 * @param file
+	 *            the photo file to decode
+	 * @param onLoaded
+	 *            the callback receiving the images on the event dispatch thread
+	 * @return the future of the background decoding task
+	 */
+	public static Future<?> loadForDisplay(final File file, final Consumer<BufferedImage> onLoaded) {
+		return decoder.submit(new Runnable() {
+			@Override
+			public void run() {
+				BufferedImage image = null;
+				try {
+					image = cachedPreview(file);
+					if (image == null) {
+						try {
+							image = embeddedPreview(file, onLoaded);
+						} catch (IOException | RuntimeException e) {
+							logger.log(Level.FINE, "Cannot read the embedded thumbnail of " + file, e);
+						}
+					}
+					if (image == null) {
+						image = decodeForDisplay(file);
+						store(file, image);
+					}
+				} catch (IOException | RuntimeException e) {
+					logger.log(Level.WARNING, "Cannot decode " + file, e);
+				}
+				deliver(image, onLoaded);
+			}
+		});
+	}
+
+	/**
+	 * Serves the photo from its embedded thumbnail. A thumbnail at least as
+	 * large as the display size with the photo's aspect ratio is scaled down
+	 * and returned as the final preview. A smaller one is stretched to the
+	 * display size and delivered to onLoaded right away, and null is returned
+	 * so that the caller decodes the photo itself.
+	 *
+	 * @param file
+	 *            the photo file
+	 * @param onLoaded
+	 *            the callback receiving a stretched thumbnail
+	 * @return the final preview, or null if the photo must still be decoded
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	static BufferedImage embeddedPreview(File file, Consumer<BufferedImage> onLoaded) throws IOException {
+		PhotoMetadata metadata = ImageHeaderReader.read(file);
+		if (metadata.getWidth() == PhotoMetadata.UNKNOWN) {
+			return null;
+		}
+		long start = System.nanoTime();
+		BufferedImage thumbnail = readEmbeddedThumbnail(file, metadata);
+		if (thumbnail == null) {
+			return null;
+		}
+		Metrics.record(Metrics.DECODE_THUMBNAIL, start);
+		int[] fitted = ImageScaler.fitSize(metadata.getWidth(), metadata.getHeight(), DISPLAY_WIDTH, DISPLAY_HEIGHT);
+		double photoAspect = (double) metadata.getWidth() / metadata.getHeight();
+		double thumbnailAspect = (double) thumbnail.getWidth() / thumbnail.getHeight();
+		boolean sameAspect = Math.abs(photoAspect - thumbnailAspect) <= 0.02 * photoAspect;
+		if (sameAspect && thumbnail.getWidth() >= fitted[0] && thumbnail.getHeight() >= fitted[1]) {
+			BufferedImage image = ImageScaler.scale(thumbnail, fitted[0], fitted[1]);
+			store(file, image);
+			return image;
+		}
+		deliver(ImageScaler.scale(thumbnail, fitted[0], fitted[1]), onLoaded);
+		return null;
+	}
+
+	/**
+	 * Returns the thumbnail embedded in the photo, looking first at the
+	 * thumbnails the image reader exposes (such as JFIF thumbnails) and then
+	 * at the EXIF thumbnail located by the header.
+	 *
+	 * @param file
+	 *            the photo file
+	 * @param metadata
+	 *            the header of the photo
+	 * @return the decoded thumbnail, or null if the photo has none
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	static BufferedImage readEmbeddedThumbnail(File file, PhotoMetadata metadata) throws IOException {
+		ImageInputStream input = ImageIO.createImageInputStream(file);
+		if (input != null) {
+			try {
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+				if (readers.hasNext()) {
+					ImageReader reader = readers.next();
+					try {
+						reader.setInput(input, true, false);
+						if (reader.readerSupportsThumbnails() && reader.hasThumbnails(0)) {
+							return reader.readThumbnail(0, 0);
+						}
+					} catch (IIOException e) {
+						// Headers the reader rejects may still carry an EXIF thumbnail.
+						logger.log(Level.FINE, "Cannot read the thumbnails of " + file, e);
+					} finally {
+						reader.dispose();
+					}
+				}
+			} finally {
+				input.close();
+			}
+		}
+		byte[] exifThumbnail = metadata.readThumbnail(file);
+		if (exifThumbnail == null) {
+			return null;
+		}
+		return ImageIO.read(new ByteArrayInputStream(exifThumbnail));
+	}
+
+	/**
+	 * Hands the image to the callback on the event dispatch thread.
+	 *
+	 * @param image
+	 *            the image to hand over
+	 * @param onLoaded
+	 *            the callback
+	 */
+	private static void deliver(final BufferedImage image, final Consumer<BufferedImage> onLoaded) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				onLoaded.accept(image);
+			}
+		});
+	}
+
+	/**
+	 * Decodes the previous and next photos of the same directory in the
+	 * background so that stepping through a folder is served from the
+	 * PreviewCache. The directory is listed on the prefetching thread.
+	 *
+	 * @param file
+	 *            the photo currently displayed
+	 */
+	public static void prefetchNeighbours(final File file) {
+		prefetcher.submit(new Runnable() {
+			@Override
+			public void run() {
+				File directory = file.getParentFile();
+				if (directory == null) {
+					return;
+				}
+				FileNode directoryNode = new FileNode(directory.getName(), null, FileType.DIRECTORY);
+				FileChooserButtonListener.buildLevel(directory, directoryNode);
+				List<String> names = new ArrayList<String>();
+				for (FileNode child : directoryNode.getChildren()) {
+					names.add(child.getName());
+				}
+				Collections.sort(names);
+				int index = names.indexOf(file.getName());
+				if (index == -1) {
+					return;
+				}
+				for (int neighbour : new int[] { index + 1, index - 1 }) {
+					if (neighbour >= 0 && neighbour < names.size()) {
+						try {
+							preview(new File(directory, names.get(neighbour)));
+						} catch (IOException | RuntimeException e) {
+							logger.log(Level.FINE, "Cannot prefetch " + names.get(neighbour), e);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the display-size preview of the photo, served from the
+	 * PreviewCache in memory or the ThumbnailCache on disk when possible.
+	 * Freshly decoded previews are added to both caches.
+	 *
+	 * @param file
+	 *            the photo file
+	 * @return the display-size image, or null if the format is unsupported
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static BufferedImage preview(File file) throws IOException {
+		BufferedImage image = cachedPreview(file);
+		if (image == null) {
+			image = decodeForDisplay(file);
+			store(file, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Returns the preview of the photo from the PreviewCache in memory or,
+	 * failing that, from the ThumbnailCache on disk.
+	 *
+	 * @param file
+	 *            the photo file
+	 * @return the cached display-size image, or null
+	 */
+	private static BufferedImage cachedPreview(File file) {
+		String key = ThumbnailCache.keyFor(file);
+		BufferedImage image = (key == null) ? null : PreviewCache.get(key);
+		if (image != null) {
+			Metrics.increment(Metrics.PREVIEW_MEMORY_HITS);
+			return image;
+		}
+		image = ThumbnailCache.get(file);
+		if (image == null) {
+			Metrics.increment(Metrics.PREVIEW_MISSES);
+			return null;
+		}
+		Metrics.increment(Metrics.PREVIEW_DISK_HITS);
+		if (key != null) {
+			PreviewCache.put(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Adds a freshly computed preview of the photo to both caches.
+	 *
+	 * @param file
+	 *            the photo file
+	 * @param image
+	 *            the display-size preview, ignored if null
+	 */
+	private static void store(File file, BufferedImage image) {
+		if (image == null) {
+			return;
+		}
+		ThumbnailCache.put(file, image);
+		String key = ThumbnailCache.keyFor(file);
+		if (key != null) {
+			PreviewCache.put(key, image);
+		}
+	}
+
+	/**
+	 * Decodes the photo subsampled close to the display size and resizes it to
+	 * fit the editing window. Returns null if no reader supports the file.
+	 *
+	 * @param file
+	 *            the photo file to decode
+	 * @return the display-size image, or null if the format is unsupported
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static BufferedImage decodeForDisplay(File file) throws IOException {
+		ImageInputStream input = ImageIO.createImageInputStream(file);
+		if (input == null) {
+			return null;
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				// The dimensions come from the header only, no pixels are decoded yet.
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				ImageReadParam param = reader.getDefaultReadParam();
+				int step = subsampling(width, height, DISPLAY_WIDTH, DISPLAY_HEIGHT);
+				if (step > 1) {
+					param.setSourceSubsampling(step, step, 0, 0);
+				}
+				long start = System.nanoTime();
+				BufferedImage image = SelectButtonListener.resize(reader.read(0, param));
+				Metrics.record(Metrics.DECODE_FULL, start);
+				return image;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Returns the subsampling step used to decode an image of the given size
+	 * for a box of maxWidth * maxHeight. The step keeps about twice the display
+	 * resolution so that the final resize still has neighbouring pixels to
+	 * average instead of showing the aliasing of plain subsampling.
+	 *
+	 * @param width
+	 *            the width of the source image
+	 * @param height
+	 *            the height of the source image
+	 * @param maxWidth
+	 *            the width of the display box
+	 * @param maxHeight
+	 *            the height of the display box
+	 * @return the subsampling step, at least 1
+	 */
+	static int subsampling(int width, int height, int maxWidth, int maxHeight) {
+		double shrink = Math.max((double) width / maxWidth, (double) height / maxHeight);
+		return Math.max(1, (int) (shrink / 2));
+	}
+}
@@ -0,0 +1,209 @@
+package photo_renamer;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/*
+ * Scales photos down to the size they are displayed at. Large reductions are done by
+ * repeatedly halving the image, averaging every source pixel, before one final bilinear
+ * step. A single bilinear pass over a large reduction skips most of the source pixels
+ * and shows heavy aliasing. The result is created in the layout of the screen so that
+ * painting it is a plain copy.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class ImageScaler {
+	private static GraphicsConfiguration configuration;
+
+	/**
+	 * Returns the image scaled down to fit inside maxWidth * maxHeight while
+	 * keeping its aspect ratio. Images that already fit are copied at their
+	 * own size.
+	 *
+	 * @param image
+	 *            the image to scale
+	 * @param maxWidth
+	 *            the maximum width of the result
+	 * @param maxHeight
+	 *            the maximum height of the result
+	 * @return the scaled image
+	 */
+	public static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+		int[] size = fitSize(image.getWidth(), image.getHeight(), maxWidth, maxHeight);
+		return scale(image, size[0], size[1]);
+	}
+
+	/**
+	 * Returns the largest size with the aspect ratio of width * height that
+	 * fits inside maxWidth * maxHeight without enlarging.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param maxWidth
+	 *            the maximum width
+	 * @param maxHeight
+	 *            the maximum height
+	 * @return the fitted width and height, each at least 1
+	 */
+	public static int[] fitSize(int width, int height, int maxWidth, int maxHeight) {
+		double ratio = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+		int newWidth = Math.max(1, (int) Math.round(width * ratio));
+		int newHeight = Math.max(1, (int) Math.round(height * ratio));
+		return new int[] { Math.min(newWidth, maxWidth), Math.min(newHeight, maxHeight) };
+	}
+
+	/**
+	 * Returns the image scaled to exactly width * height. Reductions by more
+	 * than half are done in successive halving steps before the final
+	 * bilinear step.
+	 *
+	 * @param image
+	 *            the image to scale
+	 * @param width
+	 *            the width of the result
+	 * @param height
+	 *            the height of the result
+	 * @return the scaled image in a screen compatible layout
+	 */
+	public static BufferedImage scale(BufferedImage image, int width, int height) {
+		boolean alpha = image.getColorModel().hasAlpha();
+		int intermediateType = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage current = image;
+		int currentWidth = image.getWidth();
+		int currentHeight = image.getHeight();
+		while (currentWidth / 2 >= width && currentHeight / 2 >= height) {
+			currentWidth /= 2;
+			currentHeight /= 2;
+			BufferedImage half = alpha ? null : halve(current, currentWidth, currentHeight);
+			if (half == null) {
+				half = new BufferedImage(currentWidth, currentHeight, intermediateType);
+				draw(current, half, currentWidth, currentHeight);
+			}
+			current = half;
+		}
+		BufferedImage result = createCompatibleImage(width, height, alpha);
+		draw(current, result, width, height);
+		return result;
+	}
+
+	/**
+	 * Returns a new image in the layout of the default screen, or a plain RGB
+	 * image when there is no screen.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param alpha
+	 *            whether the image needs an alpha channel
+	 * @return the new image
+	 */
+	public static BufferedImage createCompatibleImage(int width, int height, boolean alpha) {
+		GraphicsConfiguration gc = graphicsConfiguration();
+		if (gc == null) {
+			return new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		}
+		return gc.createCompatibleImage(width, height, alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE);
+	}
+
+	/**
+	 * Returns the opaque image halved to width * height by averaging each 2 * 2
+	 * block of pixels, which is what bilinear sampling at exactly half size
+	 * computes, read straight from the pixel arrays of the two layouts image
+	 * readers produce. Returns null for other layouts.
+	 *
+	 * @param source
+	 *            the image to halve
+	 * @param width
+	 *            half the width of source, rounded down
+	 * @param height
+	 *            half the height of source, rounded down
+	 * @return the halved TYPE_INT_RGB image, or null
+	 */
+	private static BufferedImage halve(BufferedImage source, int width, int height) {
+		WritableRaster raster = source.getRaster();
+		if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+				|| raster.getDataBuffer().getNumBanks() != 1) {
+			return null;
+		}
+		BufferedImage half = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] out = ((DataBufferInt) half.getRaster().getDataBuffer()).getData();
+		if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+			int[] in = ((DataBufferInt) raster.getDataBuffer()).getData();
+			int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			for (int y = 0; y < height; y++) {
+				int row = 2 * y * stride;
+				for (int x = 0; x < width; x++) {
+					int i = row + 2 * x;
+					int a = in[i], b = in[i + 1], c = in[i + stride], d = in[i + stride + 1];
+					int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+					int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+					int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+					out[y * width + x] = (red << 16) | (green << 8) | blue;
+				}
+			}
+			return half;
+		}
+		if (source.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+			byte[] in = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+			for (int y = 0; y < height; y++) {
+				int row = 2 * y * stride;
+				for (int x = 0; x < width; x++) {
+					int i = row + 6 * x;
+					int j = i + stride;
+					int blue = ((in[i] & 0xFF) + (in[i + 3] & 0xFF) + (in[j] & 0xFF) + (in[j + 3] & 0xFF) + 2) >> 2;
+					int green = ((in[i + 1] & 0xFF) + (in[i + 4] & 0xFF) + (in[j + 1] & 0xFF) + (in[j + 4] & 0xFF) + 2) >> 2;
+					int red = ((in[i + 2] & 0xFF) + (in[i + 5] & 0xFF) + (in[j + 2] & 0xFF) + (in[j + 5] & 0xFF) + 2) >> 2;
+					out[y * width + x] = (red << 16) | (green << 8) | blue;
+				}
+			}
+			return half;
+		}
+		return null;
+	}
+
+	/**
+	 * Draws source scaled to width * height into destination with bilinear
+	 * interpolation.
+	 *
+	 * @param source
+	 *            the image to draw
+	 * @param destination
+	 *            the image drawn into
+	 * @param width
+	 *            the width to draw at
+	 * @param height
+	 *            the height to draw at
+	 */
+	private static void draw(BufferedImage source, BufferedImage destination, int width, int height) {
+		Graphics2D g2d = destination.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g2d.drawImage(source, 0, 0, width, height, null);
+		g2d.dispose();
+	}
+
+	/**
+	 * @return the configuration of the default screen, or null when headless
+	 */
+	private static synchronized GraphicsConfiguration graphicsConfiguration() {
+		if (configuration == null && !GraphicsEnvironment.isHeadless()) {
+			configuration = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+					.getDefaultConfiguration();
+		}
+		return configuration;
+	}
+}
@@ -0,0 +1,376 @@
+package photo_renamer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * The catalog in an embedded database, reached through JDBC, such as an H2 or SQLite file:
+ * -Dcatalog.store=jdbc:h2:./catalog or -Dcatalog.store=jdbc:sqlite:catalog.db, with the
+ * driver on the class path. The tables are made when the store is first opened.
+ * <p>
+ * A photo is a row of its id, its directory and the PhotoNode serialized, with a row per
+ * tag in photo_tags and a row per entry of its renaming history in history, all indexed,
+ * so a directory, a photo, a tag and a time are each found without reading the rest of
+ * the catalog. The photos of a tag are those whose rows list it; the tags table holds
+ * the names of the tags, so that tags without photos are kept too.
+ * <p>
+ * Writes run in a transaction each. The connection is shared, so its use is synchronized;
+ * the photos read are decoded after, so directories read in parallel are decoded in
+ * parallel.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+final class JdbcCatalogStore implements CatalogStore {
+	private static final String[] SCHEMA = {
+			"CREATE TABLE IF NOT EXISTS photos (id VARCHAR(1024) PRIMARY KEY, directory VARCHAR(4096) NOT NULL,"
+					+ " serialized BLOB NOT NULL)",
+			"CREATE INDEX IF NOT EXISTS photos_directory ON photos (directory)",
+			"CREATE TABLE IF NOT EXISTS photo_tags (photo_id VARCHAR(1024) NOT NULL, tag VARCHAR(1024) NOT NULL)",
+			"CREATE INDEX IF NOT EXISTS photo_tags_photo ON photo_tags (photo_id)",
+			"CREATE INDEX IF NOT EXISTS photo_tags_tag ON photo_tags (tag)",
+			"CREATE TABLE IF NOT EXISTS history (photo_id VARCHAR(1024) NOT NULL, changed VARCHAR(32) NOT NULL)",
+			"CREATE INDEX IF NOT EXISTS history_photo ON history (photo_id)",
+			"CREATE INDEX IF NOT EXISTS history_changed ON history (changed)",
+			"CREATE TABLE IF NOT EXISTS tags (name VARCHAR(1024) PRIMARY KEY)" };
+	private static final String IN_DIRECTORY = " WHERE photo_id IN (SELECT id FROM photos WHERE directory = ?)";
+
+	private final Connection connection;
+
+	/**
+	 * Opens the store at the designated JDBC URL, making its tables if they
+	 * do not exist.
+	 *
+	 * @param url
+	 *            the JDBC URL of the database
+	 * @throws IOException
+	 *             if the database cannot be opened
+	 */
+	JdbcCatalogStore(String url) throws IOException {
+		try {
+			this.connection = DriverManager.getConnection(url);
+			Statement statement = connection.createStatement();
+			try {
+				for (String sql : SCHEMA) {
+					statement.execute(sql);
+				}
+			} finally {
+				statement.close();
+			}
+			connection.setAutoCommit(false);
+			connection.commit();
+		} catch (SQLException e) {
+			throw new IOException("Cannot open the catalog at " + url, e);
+		}
+	}
+
+	@Override
+	public Map<String, PhotoNode> readDirectory(File directory) throws IOException {
+		return readPhotos("SELECT id, serialized FROM photos WHERE directory = ?", keyOf(directory));
+	}
+
+	@Override
+	public synchronized Collection<File> directories() throws IOException {
+		List<File> directories = new ArrayList<File>();
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet rows = statement.executeQuery("SELECT DISTINCT directory FROM photos");
+				while (rows.next()) {
+					directories.add(new File(rows.getString(1)));
+				}
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			throw new IOException("Cannot read the directories", e);
+		}
+		return directories;
+	}
+
+	@Override
+	public Collection<PhotoNode> readAll() throws IOException {
+		return readPhotos("SELECT id, serialized FROM photos", null).values();
+	}
+
+	@Override
+	public synchronized void writeDirectory(File directory, Collection<PhotoNode> photos) throws IOException {
+		String key = keyOf(directory);
+		try {
+			try {
+				for (String table : new String[] { "photo_tags", "history" }) {
+					update("DELETE FROM " + table + IN_DIRECTORY, key);
+				}
+				update("DELETE FROM photos WHERE directory = ?", key);
+				// A photo moved from another directory is dropped from there
+				// too, whether or not that directory is written yet.
+				PreparedStatement photoTags = connection.prepareStatement("DELETE FROM photo_tags WHERE photo_id = ?");
+				PreparedStatement history = connection.prepareStatement("DELETE FROM history WHERE photo_id = ?");
+				PreparedStatement moved = connection.prepareStatement("DELETE FROM photos WHERE id = ?");
+				try {
+					for (PhotoNode photo : photos) {
+						for (PreparedStatement delete : new PreparedStatement[] { photoTags, history, moved }) {
+							delete.setString(1, photo.getPhotoId());
+							delete.addBatch();
+						}
+					}
+					photoTags.executeBatch();
+					history.executeBatch();
+					moved.executeBatch();
+				} finally {
+					photoTags.close();
+					history.close();
+					moved.close();
+				}
+				insert(key, photos);
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new IOException("Cannot write the photos of " + directory, e);
+		}
+	}
+
+	private void insert(String key, Collection<PhotoNode> photos) throws SQLException, IOException {
+		PreparedStatement photoRows = connection.prepareStatement(
+				"INSERT INTO photos (id, directory, serialized) VALUES (?, ?, ?)");
+		PreparedStatement tagRows = connection.prepareStatement("INSERT INTO photo_tags (photo_id, tag) VALUES (?, ?)");
+		PreparedStatement historyRows = connection.prepareStatement(
+				"INSERT INTO history (photo_id, changed) VALUES (?, ?)");
+		try {
+			for (PhotoNode photo : photos) {
+				String id = photo.getPhotoId();
+				photoRows.setString(1, id);
+				photoRows.setString(2, key);
+				photoRows.setBytes(3, serialize(photo));
+				photoRows.addBatch();
+				for (String tagName : photo.getTags().keySet()) {
+					tagRows.setString(1, id);
+					tagRows.setString(2, tagName);
+					tagRows.addBatch();
+				}
+				for (String date : photo.getRenamingHistory().keySet()) {
+					historyRows.setString(1, id);
+					historyRows.setString(2, date);
+					historyRows.addBatch();
+				}
+			}
+			photoRows.executeBatch();
+			tagRows.executeBatch();
+			historyRows.executeBatch();
+		} finally {
+			photoRows.close();
+			tagRows.close();
+			historyRows.close();
+		}
+	}
+
+	@Override
+	public synchronized Map<String, Tag> readTags() throws IOException {
+		Map<String, Tag> tags = new HashMap<String, Tag>();
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet names = statement.executeQuery("SELECT name FROM tags");
+				while (names.next()) {
+					tags.put(names.getString(1), new Tag(names.getString(1)));
+				}
+				ResultSet tagged = statement.executeQuery("SELECT tag, photo_id FROM photo_tags");
+				while (tagged.next()) {
+					Tag tag = tags.get(tagged.getString(1));
+					if (tag == null) {
+						tag = new Tag(tagged.getString(1));
+						tags.put(tag.getName(), tag);
+					}
+					tag.getPhotoIds().add(tagged.getString(2));
+				}
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			throw new IOException("Cannot read the tags", e);
+		}
+		return tags;
+	}
+
+	@Override
+	public synchronized void writeTags(Map<String, Tag> tags) throws IOException {
+		try {
+			try {
+				update("DELETE FROM tags", null);
+				PreparedStatement insert = connection.prepareStatement("INSERT INTO tags (name) VALUES (?)");
+				try {
+					for (String name : tags.keySet()) {
+						insert.setString(1, name);
+						insert.addBatch();
+					}
+					insert.executeBatch();
+				} finally {
+					insert.close();
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new IOException("Cannot write the tags", e);
+		}
+	}
+
+	@Override
+	public PhotoNode readPhoto(String photoId) throws IOException {
+		return readPhotos("SELECT id, serialized FROM photos WHERE id = ?", photoId).get(photoId);
+	}
+
+	@Override
+	public synchronized Set<String> findTagged(String tagName) throws IOException {
+		return readIds("SELECT photo_id FROM photo_tags WHERE tag = ?", tagName, null);
+	}
+
+	@Override
+	public synchronized Set<String> findChanged(String from, String to) throws IOException {
+		return readIds("SELECT photo_id FROM history WHERE changed >= ? AND changed < ?", from, to);
+	}
+
+	@Override
+	public synchronized boolean isEmpty() throws IOException {
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				statement.setMaxRows(1);
+				boolean empty = !statement.executeQuery("SELECT id FROM photos").next();
+				connection.commit();
+				return empty;
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			throw new IOException("Cannot read the photos", e);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			throw new IOException("Cannot close the catalog", e);
+		}
+	}
+
+	/**
+	 * @return the key of the designated directory in the photos table
+	 */
+	private static String keyOf(File directory) {
+		return directory.getAbsolutePath();
+	}
+
+	private Map<String, PhotoNode> readPhotos(String sql, String parameter) throws IOException {
+		Map<String, PhotoNode> photos = new HashMap<String, PhotoNode>();
+		for (Map.Entry<String, byte[]> row : readRows(sql, parameter).entrySet()) {
+			photos.put(row.getKey(), deserialize(row.getValue()));
+		}
+		return photos;
+	}
+
+	/**
+	 * @return the serialized photos the query selects, by id
+	 */
+	private synchronized Map<String, byte[]> readRows(String sql, String parameter) throws IOException {
+		Map<String, byte[]> photos = new HashMap<String, byte[]>();
+		try {
+			PreparedStatement query = connection.prepareStatement(sql);
+			try {
+				if (parameter != null) {
+					query.setString(1, parameter);
+				}
+				ResultSet rows = query.executeQuery();
+				while (rows.next()) {
+					photos.put(rows.getString(1), rows.getBytes(2));
+				}
+			} finally {
+				query.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			throw new IOException("Cannot read the photos", e);
+		}
+		return photos;
+	}
+
+	private Set<String> readIds(String sql, String first, String second) throws IOException {
+		Set<String> ids = new HashSet<String>();
+		try {
+			PreparedStatement query = connection.prepareStatement(sql);
+			try {
+				query.setString(1, first);
+				if (second != null) {
+					query.setString(2, second);
+				}
+				ResultSet rows = query.executeQuery();
+				while (rows.next()) {
+					ids.add(rows.getString(1));
+				}
+			} finally {
+				query.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			throw new IOException("Cannot read the catalog", e);
+		}
+		return ids;
+	}
+
+	private void update(String sql, String parameter) throws SQLException {
+		PreparedStatement update = connection.prepareStatement(sql);
+		try {
+			if (parameter != null) {
+				update.setString(1, parameter);
+			}
+			update.executeUpdate();
+		} finally {
+			update.close();
+		}
+	}
+
+	private static byte[] serialize(PhotoNode photo) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream output = new ObjectOutputStream(bytes);
+		output.writeObject(photo);
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	private static PhotoNode deserialize(byte[] bytes) throws IOException {
+		ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return (PhotoNode) input.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Cannot read a photo", e);
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package photo_renamer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A fixed-size, lock-free histogram of latencies in nanoseconds, in the style of
+ * HdrHistogram: every power of two is split into 32 linear sub-buckets, so any recorded
+ * value is reported within about 3% of its true value, from nanoseconds to hours, in a
+ * constant 15 KB. Recording is a few arithmetic operations and one atomic increment.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos
+	 *            the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucketOf(value));
+		total.incrementAndGet();
+		sum.addAndGet(value);
+		long previous;
+		while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+			// Retries until the maximum is at least value.
+		}
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		return total.get();
+	}
+
+	/**
+	 * @return the largest recorded latency in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean recorded latency in nanoseconds, or 0 if empty
+	 */
+	public double getMean() {
+		long count = total.get();
+		return count == 0 ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * Returns the latency below or at which the designated percentage of the
+	 * recorded latencies fall.
+	 *
+	 * @param percentile
+	 *            the percentile, from 0 to 100
+	 * @return the latency in nanoseconds, or 0 if empty
+	 */
+	public long getPercentile(double percentile) {
+		long count = total.get();
+		if (count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets all recorded latencies.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @param value
+	 *            a non-negative latency
+	 * @return the index of the bucket counting value
+	 */
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param bucket
+	 *            the index of a bucket
+	 * @return the highest value counted by the bucket
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,265 @@
+package photo_renamer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/*
+ * Generates a synthetic photo library at production scale: N photo files spread over a
+ * directory tree of configurable depth and fan-out, and the matching catalog in the
+ * CatalogStore of the catalog.store system property, as if every photo had been tagged
+ * through this program. Tags are Zipf-distributed over a fixed vocabulary and every photo
+ * gets a renaming history of up to library.history entries, so LoadTestDriver and the
+ * benchmarks can run against realistic data.
+ * <p>
+ * Usage, from the directory that should hold the catalog:
+ * java photo_renamer.LibraryGenerator root
+ * with the system properties library.photos (default 10000), library.depth (2),
+ * library.fanout (10), library.tags (500), library.zipf (1.1), library.maxTags (5),
+ * library.history (10), library.format (jpeg, png or sparse) and library.seed.
+ * Sparse placeholders are empty files of library.sparseBytes bytes that take no disk
+ * space on most file systems; they cannot be displayed.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class LibraryGenerator {
+	/** Serializing the catalog recurses through photos and tags, deeper the larger it is. */
+	static final long STACK_SIZE = 1L << 30;
+
+	private final File root;
+	private final int photoCount;
+	private final int depth;
+	private final int fanout;
+	private final int maxTags;
+	private final int maxHistory;
+	private final String format;
+	private final long sparseBytes;
+	private final ZipfDistribution tagDistribution;
+	private final Random random;
+	private byte[] content;
+
+	private final Map<String, PhotoNode> photos = new HashMap<String, PhotoNode>();
+	private final Map<String, Tag> tags = new HashMap<String, Tag>();
+
+	/**
+	 * Constructor for the generator, configured from the system properties.
+	 *
+	 * @param root
+	 *            the directory to create the library in
+	 */
+	public LibraryGenerator(File root) {
+		this.root = root;
+		this.photoCount = Integer.getInteger("library.photos", 10000);
+		this.depth = Integer.getInteger("library.depth", 2);
+		this.fanout = Integer.getInteger("library.fanout", 10);
+		this.maxTags = Integer.getInteger("library.maxTags", 5);
+		this.maxHistory = Integer.getInteger("library.history", 10);
+		this.format = System.getProperty("library.format", "jpeg");
+		this.sparseBytes = Long.getLong("library.sparseBytes", 4L << 20);
+		this.tagDistribution = new ZipfDistribution(Integer.getInteger("library.tags", 500),
+				Double.parseDouble(System.getProperty("library.zipf", "1.1")));
+		this.random = new Random(Long.getLong("library.seed", 42L));
+	}
+
+	/**
+	 * Generates the library under the designated root directory.
+	 *
+	 * @param args
+	 *            the root directory of the library
+	 * @throws Exception
+	 *             if the library cannot be written
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: java photo_renamer.LibraryGenerator <root directory>");
+			System.exit(2);
+		}
+		if (!PhotoManager.store().isEmpty() || new File(CatalogStores.TAG_FILE).length() > 0) {
+			System.err.println("The working directory has a catalog already; run from an empty directory.");
+			System.exit(1);
+		}
+		final LibraryGenerator generator = new LibraryGenerator(new File(args[0]));
+		final Exception[] failure = new Exception[1];
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					generator.generate();
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "library-generator", STACK_SIZE);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Creates the directory tree and the photo files, then writes the
+	 * catalog.
+	 *
+	 * @throws IOException
+	 *             if a file cannot be written
+	 */
+	public void generate() throws IOException {
+		long start = System.nanoTime();
+		List<File> directories = new ArrayList<File>();
+		leafDirectories(root, depth, directories);
+		long historyEntries = 0;
+		for (int i = 0; i < photoCount; i++) {
+			File directory = directories.get(i % directories.size());
+			PhotoNode photo = generatePhoto(directory, i);
+			historyEntries += photo.getRenamingHistory().size();
+			if ((i + 1) % 10000 == 0) {
+				System.out.println((i + 1) + " photos");
+			}
+		}
+		writeCatalog();
+		System.out.println(String.format("Generated %d photos in %d directories with %d tags and %d history entries in %.1f s",
+				photoCount, directories.size(), tags.size(), historyEntries, (System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Collects the directories at the designated depth below directory,
+	 * creating them with fanout subdirectories per level.
+	 */
+	private void leafDirectories(File directory, int levels, List<File> leaves) {
+		if (levels == 0) {
+			directory.mkdirs();
+			leaves.add(directory);
+			return;
+		}
+		for (int i = 0; i < fanout; i++) {
+			leafDirectories(new File(directory, "dir" + i), levels - 1, leaves);
+		}
+	}
+
+	/**
+	 * Creates one photo file and its PhotoNode: a history of tag sets, each
+	 * drawn from the Zipf distribution, the last of which is the current one
+	 * and gives the file its name.
+	 */
+	private PhotoNode generatePhoto(File directory, int index) throws IOException {
+		String initialName = String.format("IMG_%07d.%s", index, "png".equals(format) ? "png" : "jpg");
+		PhotoNode photo = new PhotoNode(initialName, null, new File(directory, initialName));
+
+		SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+		int entries = 1 + random.nextInt(Math.max(1, maxHistory));
+		// Histories end before now, one change a few hours apart.
+		long time = System.currentTimeMillis() - entries * 4 * 3600 * 1000L;
+		Map<String, Tag> current = new LinkedHashMap<String, Tag>();
+		String date = null;
+		for (int e = 0; e < entries; e++) {
+			if (e > 0) {
+				current = drawTags();
+			}
+			date = dateFormatter.format(time + e * 4 * 3600 * 1000L + random.nextInt(3600) * 1000L);
+			photo.getRenamingHistory().put(date, PhotoName.of(TagNameCodec.encode(initialName, current.keySet())));
+		}
+		photo.setName(TagNameCodec.encode(initialName, current.keySet()));
+		photo.setLastModifiedDate(date);
+		photo.getTags().putAll(current);
+		writePhoto(new File(directory, photo.getName()));
+		// The photo is known by its file's id, which exists only now.
+		photo.identify(PhotoId.of(photo.getCurrentFile(), initialName), null);
+		for (Tag tag : current.values()) {
+			tag.addPhoto(photo);
+		}
+		photos.put(photo.getPhotoId(), photo);
+		return photo;
+	}
+
+	/**
+	 * @return between zero and maxTags distinct tags, drawn from the Zipf
+	 *         distribution
+	 */
+	private Map<String, Tag> drawTags() {
+		Map<String, Tag> drawn = new LinkedHashMap<String, Tag>();
+		int count = random.nextInt(maxTags + 1);
+		for (int i = 0; i < count; i++) {
+			String name = "tag" + tagDistribution.sample(random);
+			Tag tag = tags.get(name);
+			if (tag == null) {
+				tag = new Tag(name);
+				tags.put(name, tag);
+			}
+			drawn.put(name, tag);
+		}
+		return drawn;
+	}
+
+	/**
+	 * Writes the photo file in the configured format.
+	 */
+	private void writePhoto(File file) throws IOException {
+		if ("sparse".equals(format)) {
+			RandomAccessFile placeholder = new RandomAccessFile(file, "rw");
+			try {
+				placeholder.setLength(sparseBytes);
+			} finally {
+				placeholder.close();
+			}
+			return;
+		}
+		OutputStream output = new FileOutputStream(file);
+		try {
+			output.write(content());
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * @return the bytes of a tiny valid image in the configured format,
+	 *         encoded once and shared by all photos
+	 * @throws IOException
+	 *             if the image cannot be encoded
+	 */
+	private byte[] content() throws IOException {
+		if (content == null) {
+			BufferedImage image = new BufferedImage(16, 12, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g2d = image.createGraphics();
+			g2d.setColor(new Color(70, 130, 180));
+			g2d.fillRect(0, 0, 16, 12);
+			g2d.setColor(Color.WHITE);
+			g2d.fillOval(4, 2, 8, 8);
+			g2d.dispose();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ImageIO.write(image, "png".equals(format) ? "png" : "jpeg", bytes);
+			content = bytes.toByteArray();
+		}
+		return content;
+	}
+
+	/**
+	 * Writes the photos and tags to the store of PhotoManager and TagManager.
+	 *
+	 * @throws IOException
+	 *             if the catalog cannot be written
+	 */
+	private void writeCatalog() throws IOException {
+		CatalogStore store = PhotoManager.store();
+		CatalogStores.writeAll(store, photos.values());
+		store.writeTags(tags);
+		store.close();
+	}
+}
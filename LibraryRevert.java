@@ -0,0 +1,417 @@
+package photo_renamer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * A revert of the whole library to a point in time: every photo changed at or after the
+ * time is reverted to its last change before it, as if each were reverted by hand from
+ * the menu of its window. Photos with no change before the time are left as they are.
+ * <p>
+ * plan finds the photos changed in PhotoManager's Timeline, or in the store if the
+ * timeline does not cover the catalog yet, and works out the move of each: its date to
+ * revert to, its file now and its file after. execute first writes the moves to the
+ * journal, ./revert.journal, then runs them through PhotoService in batches: photos in
+ * parallel, the catalog saved once per batch, and each batch noted done in the journal
+ * once saved. The journal is deleted at the end.
+ * <p>
+ * A revert stopped midway, for instance by a crash, leaves its journal. recover resumes
+ * it, running the moves not noted done again; a move already made is made again
+ * harmlessly, as the file has its name already.
+ * <p>
+ * Usage: java -Djava.awt.headless=true photo_renamer.LibraryRevert [--dry-run] [--threads n]
+ * [--batch-size n] "yyyy/MM/dd HH:mm:ss". An unfinished revert is resumed first.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class LibraryRevert {
+	public static final String JOURNAL = "./revert.journal";
+	private static final String DATE_FORMAT = "yyyy/MM/dd HH:mm:ss";
+	/** After every date of a history, as text. */
+	private static final String END_OF_TIME = "~";
+	private static final String PLAN = "PLAN";
+	private static final String MOVE = "MOVE";
+	private static final String DONE = "DONE";
+
+	private final String before;
+	private final List<Move> moves;
+	private final int skipped;
+
+	private LibraryRevert(String before, List<Move> moves, int skipped) {
+		this.before = before;
+		this.moves = Collections.unmodifiableList(moves);
+		this.skipped = skipped;
+	}
+
+	/**
+	 * Works out the moves reverting the library to the designated time,
+	 * loading the photos changed since. Nothing is renamed yet.
+	 *
+	 * @param before
+	 *            the time, yyyy/MM/dd HH:mm:ss; the changes at it and after
+	 *            are undone
+	 * @return the revert
+	 * @throws IOException
+	 *             if the catalog cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the time is not a date of the format
+	 */
+	public static LibraryRevert plan(String before) throws IOException {
+		try {
+			new SimpleDateFormat(DATE_FORMAT).parse(before);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Expected a date as " + DATE_FORMAT + ": " + before);
+		}
+		List<Move> moves = new ArrayList<Move>();
+		int skipped = 0;
+		for (PhotoNode photo : PhotoManager.findChanged(before, END_OF_TIME)) {
+			ReentrantLock lock = PhotoLocks.lockFor(photo);
+			lock.lock();
+			try {
+				Map.Entry<String, PhotoName> target = new TreeMap<String, PhotoName>(photo.getRenamingHistory())
+						.lowerEntry(before);
+				if (target == null || photo.getDirectory() == null) {
+					skipped++;
+					continue;
+				}
+				moves.add(new Move(photo.getPhotoId(), target.getKey(), photo.getCurrentFile(),
+						new File(photo.getDirectory(), target.getValue().toString())));
+			} finally {
+				lock.unlock();
+			}
+		}
+		Collections.sort(moves, new Comparator<Move>() {
+			@Override
+			public int compare(Move a, Move b) {
+				return a.from.compareTo(b.from);
+			}
+		});
+		return new LibraryRevert(before, moves, skipped);
+	}
+
+	/**
+	 * Returns the revert left unfinished in the journal, with the moves not
+	 * noted done, or null if there is none.
+	 *
+	 * @return the unfinished revert, or null
+	 * @throws IOException
+	 *             if the journal cannot be read
+	 */
+	public static LibraryRevert unfinished() throws IOException {
+		File journal = new File(JOURNAL);
+		if (!journal.exists()) {
+			return null;
+		}
+		String before = null;
+		Map<String, Move> moves = new LinkedHashMap<String, Move>();
+		Set<String> done = new HashSet<String>();
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields[0].equals(PLAN) && fields.length == 2) {
+					before = unescape(fields[1]);
+				} else if (fields[0].equals(MOVE) && fields.length == 5) {
+					Move move = new Move(unescape(fields[1]), unescape(fields[2]), new File(unescape(fields[3])),
+							new File(unescape(fields[4])));
+					moves.put(move.photoId, move);
+				} else if (fields[0].equals(DONE) && fields.length == 2) {
+					done.add(unescape(fields[1]));
+				}
+				// Anything else is a line cut short by the crash.
+			}
+		} finally {
+			reader.close();
+		}
+		if (before == null) {
+			return null;
+		}
+		moves.keySet().removeAll(done);
+		return new LibraryRevert(before, new ArrayList<Move>(moves.values()), 0);
+	}
+
+	/**
+	 * Makes the moves of this revert: journals them, then reverts the photos
+	 * in batches of the designated size, on the designated number of threads.
+	 * A failed move does not stop the others.
+	 *
+	 * @param threads
+	 *            the number of photos reverted in parallel
+	 * @param batchSize
+	 *            the number of photos per save of the catalog
+	 * @return the failed moves with their cause
+	 * @throws IOException
+	 *             if the journal or the catalog cannot be written; the
+	 *             journal is left for recover
+	 */
+	public Map<Move, Throwable> execute(int threads, int batchSize) throws IOException {
+		Map<Move, Throwable> failures = new LinkedHashMap<Move, Throwable>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		PhotoService service = new PhotoService(executor);
+		FileOutputStream journal = startJournal();
+		try {
+			for (int start = 0; start < moves.size(); start += batchSize) {
+				List<Move> batch = moves.subList(start, Math.min(moves.size(), start + batchSize));
+				Map<PhotoService.Operation, Move> operations = new LinkedHashMap<PhotoService.Operation, Move>();
+				for (Move move : batch) {
+					// The file is named as the move left it, if it was made before a crash.
+					File file = (move.from.exists() || !move.to.exists()) ? move.from : move.to;
+					operations.put(new PhotoService.Operation(PhotoService.Operation.REVERT, file, move.date), move);
+				}
+				Map<PhotoService.Operation, Throwable> failed;
+				try {
+					failed = service.batch(new ArrayList<PhotoService.Operation>(operations.keySet())).join();
+				} catch (CompletionException e) {
+					throw new IOException("Cannot save the catalog: " + PhotoService.messageOf(e), e.getCause());
+				}
+				for (Map.Entry<PhotoService.Operation, Throwable> failure : failed.entrySet()) {
+					failures.put(operations.get(failure.getKey()), failure.getValue());
+				}
+				StringBuilder done = new StringBuilder();
+				for (Move move : batch) {
+					done.append(DONE).append('\t').append(escape(move.photoId)).append('\n');
+				}
+				append(journal, done);
+			}
+		} finally {
+			journal.close();
+			executor.shutdown();
+		}
+		Files.delete(new File(JOURNAL).toPath());
+		return failures;
+	}
+
+	/**
+	 * Resumes the revert left unfinished in the journal, if any.
+	 *
+	 * @param threads
+	 *            the number of photos reverted in parallel
+	 * @param batchSize
+	 *            the number of photos per save of the catalog
+	 * @return the failed moves with their cause, or null if there was no
+	 *         unfinished revert
+	 * @throws IOException
+	 *             if the journal or the catalog cannot be read or written
+	 */
+	public static Map<Move, Throwable> recover(int threads, int batchSize) throws IOException {
+		LibraryRevert revert = unfinished();
+		if (revert == null) {
+			Files.deleteIfExists(new File(JOURNAL).toPath());
+			return null;
+		}
+		return revert.execute(threads, batchSize);
+	}
+
+	/**
+	 * Writes the plan to a new journal and returns the journal open for
+	 * noting the moves done.
+	 */
+	private FileOutputStream startJournal() throws IOException {
+		FileOutputStream journal = new FileOutputStream(JOURNAL);
+		StringBuilder plan = new StringBuilder();
+		plan.append(PLAN).append('\t').append(escape(before)).append('\n');
+		for (Move move : moves) {
+			plan.append(MOVE).append('\t').append(escape(move.photoId)).append('\t').append(escape(move.date))
+					.append('\t').append(escape(move.from.getPath())).append('\t').append(escape(move.to.getPath()))
+					.append('\n');
+		}
+		try {
+			append(journal, plan);
+		} catch (IOException e) {
+			journal.close();
+			throw e;
+		}
+		return journal;
+	}
+
+	/**
+	 * Appends the designated lines to the journal and waits until they are on
+	 * the disk, so that they outlast a crash.
+	 */
+	private static void append(FileOutputStream journal, CharSequence lines) throws IOException {
+		journal.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+		journal.getFD().sync();
+	}
+
+	/**
+	 * @return the time this revert goes back to
+	 */
+	public String getBefore() {
+		return before;
+	}
+
+	/**
+	 * @return the moves of this revert, by file
+	 */
+	public List<Move> getMoves() {
+		return moves;
+	}
+
+	/**
+	 * @return the number of photos changed since the time with no change
+	 *         before it, left as they are
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Reverts the library to the time of the arguments, after resuming an
+	 * unfinished revert.
+	 *
+	 * @param args
+	 *            the options and the time
+	 * @throws Exception
+	 *             if the catalog cannot be read or written
+	 */
+	public static void main(String[] args) throws Exception {
+		boolean dryRun = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int batchSize = 500;
+		String before = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--dry-run")) {
+				dryRun = true;
+			} else if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--batch-size") && i + 1 < args.length) {
+				batchSize = Integer.parseInt(args[++i]);
+			} else if (!args[i].startsWith("--") && before == null) {
+				before = args[i];
+			} else {
+				before = null;
+				break;
+			}
+		}
+		if (before == null) {
+			System.err.println("Usage: java photo_renamer.LibraryRevert [--dry-run] [--threads n] [--batch-size n]"
+					+ " \"" + DATE_FORMAT + "\"");
+			System.exit(2);
+		}
+		new PhotoManager();
+		new TagManager();
+		batchSize = Math.max(1, batchSize);
+		LibraryRevert unfinished = unfinished();
+		if (unfinished != null) {
+			System.err.println("Resuming the revert to " + unfinished.before + ": " + unfinished.moves.size()
+					+ " photos left.");
+			if (report(unfinished.execute(threads, batchSize)) > 0) {
+				System.exit(1);
+			}
+		}
+		PhotoManager.indexAll();
+		LibraryRevert revert = plan(before);
+		System.err.println("Reverting " + revert.moves.size() + " photos to before " + before + "; "
+				+ revert.skipped + " changed only since are left as they are.");
+		if (dryRun) {
+			for (Move move : revert.moves) {
+				System.out.println(move);
+			}
+			return;
+		}
+		long start = System.nanoTime();
+		int failed = report(revert.execute(threads, batchSize));
+		System.err.println(String.format("%d photos reverted, %d failed, in %.1f s", revert.moves.size() - failed,
+				failed, (System.nanoTime() - start) / 1e9));
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	private static int report(Map<Move, Throwable> failures) {
+		for (Map.Entry<Move, Throwable> failure : failures.entrySet()) {
+			System.err.println(failure.getKey().from + ": " + PhotoService.messageOf(failure.getValue()));
+		}
+		return failures.size();
+	}
+
+	private static String escape(String field) {
+		return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String field) {
+		StringBuilder result = new StringBuilder(field.length());
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == '\\' && i + 1 < field.length()) {
+				c = field.charAt(++i);
+				c = (c == 'n') ? '\n' : (c == 't') ? '\t' : c;
+			}
+			result.append(c);
+		}
+		return result.toString();
+	}
+
+	/*
+	 * The revert of one photo: the date of its history it goes back to, and
+	 * its file before and after.
+	 */
+	public static final class Move {
+		private final String photoId;
+		private final String date;
+		private final File from;
+		private final File to;
+
+		private Move(String photoId, String date, File from, File to) {
+			this.photoId = photoId;
+			this.date = date;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * @return the id of the photo
+		 */
+		public String getPhotoId() {
+			return photoId;
+		}
+
+		/**
+		 * @return the date of the photo's history it is reverted to
+		 */
+		public String getDate() {
+			return date;
+		}
+
+		/**
+		 * @return the file of the photo before the revert
+		 */
+		public File getFrom() {
+			return from;
+		}
+
+		/**
+		 * @return the file of the photo after the revert
+		 */
+		public File getTo() {
+			return to;
+		}
+
+		@Override
+		public String toString() {
+			return from + "\t" + date + "\t" + to.getName();
+		}
+	}
+}
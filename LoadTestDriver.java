@@ -0,0 +1,252 @@
+package photo_renamer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Replays a tag, untag and revert workload against the catalog in the working
+ * directory, typically one made by LibraryGenerator, without any window. Photos are
+ * picked uniformly and tags by popularity from a Zipf distribution, as users do. Every
+ * operation goes through PhotoService exactly as the listeners call it, renaming the
+ * files and saving the catalog, and is timed in a LatencyHistogram per kind.
+ * <p>
+ * Usage: java -Djava.awt.headless=true photo_renamer.LoadTestDriver
+ * with the system properties load.operations (default 1000), load.mix (the relative
+ * weights, default tag=60,untag=30,revert=10), load.zipf (1.1), load.seed and
+ * load.threads (1), the number of threads sharing the operations. The report
+ * gives the throughput and latency per kind and the Metrics breakdown of where the time
+ * went.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class LoadTestDriver {
+	private static final String TAG = "tag";
+	private static final String UNTAG = "untag";
+	private static final String REVERT = "revert";
+
+	private final int operations;
+	private final int threads;
+	private final long seed;
+	private final Map<String, Integer> mix;
+	private final List<PhotoNode> photos;
+	private final List<String> tagNames;
+	private final ZipfDistribution tagDistribution;
+	private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+	private final Map<String, AtomicInteger> failures = new LinkedHashMap<String, AtomicInteger>();
+	/** Runs the operations on the calling threads, so that each is timed alone. */
+	private final PhotoService service = new PhotoService(new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	});
+
+	/**
+	 * Constructor for the driver, configured from the system properties. The
+	 * catalog must be loaded already.
+	 */
+	public LoadTestDriver() {
+		this.operations = Integer.getInteger("load.operations", 1000);
+		this.mix = parseMix(System.getProperty("load.mix", "tag=60,untag=30,revert=10"));
+		this.threads = Math.max(1, Integer.getInteger("load.threads", 1));
+		this.seed = Long.getLong("load.seed", 7L);
+		this.photos = new ArrayList<PhotoNode>(PhotoManager.getPhotos());
+		// Ranks the existing tags by popularity, so that rank 0 is the most used.
+		final CatalogSnapshot catalog = PhotoManager.snapshot();
+		this.tagNames = new ArrayList<String>(TagManager.getTags().keySet());
+		Collections.sort(tagNames, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return catalog.getPhotosTagged(b).size() - catalog.getPhotosTagged(a).size();
+			}
+		});
+		if (tagNames.isEmpty()) {
+			tagNames.add("load");
+		}
+		this.tagDistribution = new ZipfDistribution(tagNames.size(),
+				Double.parseDouble(System.getProperty("load.zipf", "1.1")));
+		for (String kind : mix.keySet()) {
+			latencies.put(kind, new LatencyHistogram());
+			failures.put(kind, new AtomicInteger());
+		}
+	}
+
+	/**
+	 * Loads the catalog of the working directory and runs the workload.
+	 *
+	 * @param args
+	 *            unused
+	 * @throws Exception
+	 *             if the catalog cannot be loaded
+	 */
+	public static void main(String[] args) throws Exception {
+		final Exception[] failure = new Exception[1];
+		// Every operation saves the catalog, which recurses as deep as
+		// LibraryGenerator's writer does.
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new PhotoManager();
+					PhotoManager.loadAll();
+					new TagManager();
+					LoadTestDriver driver = new LoadTestDriver();
+					if (driver.photos.isEmpty()) {
+						System.err.println("The catalog is empty; run LibraryGenerator first.");
+						return;
+					}
+					driver.run();
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "load-test", LibraryGenerator.STACK_SIZE);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	/**
+	 * Runs the configured number of operations, shared by the configured
+	 * number of threads, and prints the report.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public void run() throws InterruptedException {
+		System.out.println("Replaying " + operations + " operations on " + photos.size() + " photos and "
+				+ TagManager.getTags().size() + " tags with " + threads + " threads");
+		final AtomicInteger completed = new AtomicInteger();
+		List<Thread> workers = new ArrayList<Thread>();
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			final int share = operations / threads + (t < operations % threads ? 1 : 0);
+			final Random random = new Random(seed + t);
+			// Saves recurse as deep on every thread as on the main one.
+			Thread worker = new Thread(null, new Runnable() {
+				@Override
+				public void run() {
+					runShare(share, random, completed);
+				}
+			}, "load-test-" + t, LibraryGenerator.STACK_SIZE);
+			worker.start();
+			workers.add(worker);
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		report(System.nanoTime() - start);
+	}
+
+	/**
+	 * Runs share operations drawn from random, counting them in completed.
+	 */
+	private void runShare(int share, Random random, AtomicInteger completed) {
+		int totalWeight = 0;
+		for (int weight : mix.values()) {
+			totalWeight += weight;
+		}
+		for (int i = 0; i < share; i++) {
+			int draw = random.nextInt(totalWeight);
+			String kind = null;
+			for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+				kind = entry.getKey();
+				draw -= entry.getValue();
+				if (draw < 0) {
+					break;
+				}
+			}
+			PhotoNode photo = photos.get(random.nextInt(photos.size()));
+			long operationStart = System.nanoTime();
+			try {
+				execute(kind, photo, random);
+				latencies.get(kind).record(System.nanoTime() - operationStart);
+			} catch (CompletionException e) {
+				failures.get(kind).incrementAndGet();
+			}
+			int count = completed.incrementAndGet();
+			if (count % Math.max(1, operations / 10) == 0) {
+				System.out.println(count + " operations");
+			}
+		}
+	}
+
+	/**
+	 * Runs one operation of the designated kind on photo through
+	 * PhotoService, as the windows do.
+	 */
+	private void execute(String kind, PhotoNode photo, Random random) {
+		if (kind.equals(TAG)) {
+			String name = tagNames.get(tagDistribution.sample(random));
+			service.addTags(photo, Collections.singletonList(name)).join();
+		} else if (kind.equals(UNTAG)) {
+			List<String> current = new ArrayList<String>(photo.getTags().keySet());
+			if (current.isEmpty()) {
+				return;
+			}
+			String name = current.get(random.nextInt(current.size()));
+			service.deleteTags(photo, Collections.singletonList(name)).join();
+		} else if (kind.equals(REVERT)) {
+			List<String> dates = new ArrayList<String>(photo.getRenamingHistory().keySet());
+			if (dates.isEmpty()) {
+				return;
+			}
+			service.revert(photo, dates.get(random.nextInt(dates.size()))).join();
+		}
+	}
+
+	/**
+	 * Prints the throughput and latency per kind of operation, followed by
+	 * the metrics of the hot paths.
+	 */
+	private void report(long elapsed) {
+		System.out.println();
+		System.out.println(String.format("%-8s %8s %8s %10s %12s %12s %12s", "kind", "count", "failed", "ops/s",
+				"p50 ms", "p99 ms", "max ms"));
+		for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			System.out.println(String.format("%-8s %8d %8d %10.1f %12.3f %12.3f %12.3f", entry.getKey(),
+					histogram.getCount(), failures.get(entry.getKey()).get(), histogram.getCount() / (elapsed / 1e9),
+					histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+		}
+		System.out.println(String.format("%d operations in %.1f s, %.1f ops/s", operations, elapsed / 1e9,
+				operations / (elapsed / 1e9)));
+		System.out.println();
+		System.out.print(Metrics.report());
+	}
+
+	/**
+	 * @param mix
+	 *            the weights as "kind=weight,kind=weight"
+	 * @return the weight of each known kind of operation
+	 */
+	private static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+		for (String part : mix.split(",")) {
+			String[] pair = part.split("=");
+			String kind = pair[0].trim();
+			if (!kind.equals(TAG) && !kind.equals(UNTAG) && !kind.equals(REVERT)) {
+				throw new IllegalArgumentException("Unknown operation in load.mix: " + kind);
+			}
+			int weight = Integer.parseInt(pair[1].trim());
+			if (weight > 0) {
+				weights.put(kind, weight);
+			}
+		}
+		if (weights.isEmpty()) {
+			throw new IllegalArgumentException("load.mix has no operation with a positive weight.");
+		}
+		return weights;
+	}
+}
@@ -0,0 +1,265 @@
+package photo_renamer;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * A registry of counters and latency timers for the hot paths of this program: renames,
+ * persistence, directory scans and image decoding. Timers are LatencyHistograms, so
+ * recording is lock-free and constant time.
+ * <p>
+ * Typical use around an operation:
+ * <pre>
+ * long start = System.nanoTime();
+ * Files.move(source, target);
+ * Metrics.record(Metrics.RENAME_MOVE, start);
+ * </pre>
+ * The metrics are exposed over JMX once registerMBean is called and can be written to
+ * ./metrics.txt with dump, which also happens on shutdown.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class Metrics {
+	private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+	private static final String dumpPath = "./metrics.txt";
+	private static final String OBJECT_NAME = "photo_renamer:type=Metrics";
+
+	public final static String RENAME_MOVE = "rename.move";
+	public final static String RENAME_COALESCED = "rename.coalesced";
+	public final static String RENAME_FAILED = "rename.failed";
+	public final static String PHOTOS_SAVE = "photos.save";
+	public final static String TAGS_SAVE = "tags.save";
+	public final static String SCAN_BUILD_TREE = "scan.buildTree";
+	public final static String DECODE_FULL = "decode.full";
+	public final static String DECODE_THUMBNAIL = "decode.thumbnail";
+	public final static String PREVIEW_MEMORY_HITS = "preview.memoryHits";
+	public final static String PREVIEW_DISK_HITS = "preview.diskHits";
+	public final static String PREVIEW_MISSES = "preview.misses";
+	public final static String HISTORY_COMPACT = "history.compact";
+	public final static String HISTORY_COMPACTED = "history.compacted";
+
+	private static final ConcurrentMap<String, LatencyHistogram> timers = new ConcurrentHashMap<String, LatencyHistogram>();
+	private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private static boolean registered;
+
+	/**
+	 * Records the time elapsed since start in the timer with the designated
+	 * name.
+	 *
+	 * @param name
+	 *            the name of the timer
+	 * @param start
+	 *            the System.nanoTime() at the start of the operation
+	 */
+	public static void record(String name, long start) {
+		timer(name).record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Increments the counter with the designated name.
+	 *
+	 * @param name
+	 *            the name of the counter
+	 */
+	public static void increment(String name) {
+		counter(name).incrementAndGet();
+	}
+
+	/**
+	 * Returns the timer with the designated name, creating it on first use.
+	 *
+	 * @param name
+	 *            the name of the timer
+	 * @return the timer
+	 */
+	public static LatencyHistogram timer(String name) {
+		LatencyHistogram timer = timers.get(name);
+		if (timer == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			timer = timers.putIfAbsent(name, created);
+			if (timer == null) {
+				timer = created;
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * Returns the counter with the designated name, creating it on first use.
+	 *
+	 * @param name
+	 *            the name of the counter
+	 * @return the counter
+	 */
+	public static AtomicLong counter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server and dumps them to
+	 * ./metrics.txt on shutdown. Does nothing if already registered.
+	 */
+	public static synchronized void registerMBean() {
+		if (registered) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			logger.log(Level.WARNING, "Cannot register the metrics MBean", e);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dump();
+			}
+		}));
+		registered = true;
+	}
+
+	/**
+	 * Writes the report of all metrics to ./metrics.txt.
+	 */
+	public static void dump() {
+		try {
+			dump(dumpPath);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot write " + dumpPath, e);
+		}
+	}
+
+	/**
+	 * Writes the report of all metrics to the designated file.
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void dump(String path) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8);
+		try {
+			writer.write(report());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Returns a reader-friendly report with one line per counter and per
+	 * timer, timers showing their count, p50, p99 and maximum.
+	 *
+	 * @return the report
+	 */
+	public static String report() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+			report.append(String.format("%-24s %10d%n", counter.getKey(), counter.getValue().get()));
+		}
+		for (Map.Entry<String, LatencyHistogram> timer : new TreeMap<String, LatencyHistogram>(timers).entrySet()) {
+			LatencyHistogram histogram = timer.getValue();
+			report.append(String.format("%-24s %10d  p50 %10.3f ms  p99 %10.3f ms  max %10.3f ms%n", timer.getKey(),
+					histogram.getCount(), histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6,
+					histogram.getMax() / 1e6));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Resets all counters and timers.
+	 */
+	public static void reset() {
+		for (AtomicLong counter : counters.values()) {
+			counter.set(0);
+		}
+		for (LatencyHistogram timer : timers.values()) {
+			timer.reset();
+		}
+	}
+
+	/*
+	 * The JMX view of the registry.
+	 */
+	private static class MetricsBean implements MetricsMXBean {
+
+		@Override
+		public Map<String, Long> getCounters() {
+			Map<String, Long> values = new TreeMap<String, Long>();
+			for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+				values.put(counter.getKey(), counter.getValue().get());
+			}
+			return values;
+		}
+
+		@Override
+		public Map<String, Long> getTimerCounts() {
+			Map<String, Long> values = new TreeMap<String, Long>();
+			for (Map.Entry<String, LatencyHistogram> timer : timers.entrySet()) {
+				values.put(timer.getKey(), timer.getValue().getCount());
+			}
+			return values;
+		}
+
+		@Override
+		public Map<String, Long> getP50Micros() {
+			return percentiles(50);
+		}
+
+		@Override
+		public Map<String, Long> getP99Micros() {
+			return percentiles(99);
+		}
+
+		@Override
+		public Map<String, Long> getMaxMicros() {
+			Map<String, Long> values = new TreeMap<String, Long>();
+			for (Map.Entry<String, LatencyHistogram> timer : timers.entrySet()) {
+				values.put(timer.getKey(), timer.getValue().getMax() / 1000);
+			}
+			return values;
+		}
+
+		@Override
+		public String getReport() {
+			return report();
+		}
+
+		@Override
+		public void reset() {
+			Metrics.reset();
+		}
+
+		private Map<String, Long> percentiles(double percentile) {
+			Map<String, Long> values = new TreeMap<String, Long>();
+			for (Map.Entry<String, LatencyHistogram> timer : timers.entrySet()) {
+				values.put(timer.getKey(), timer.getValue().getPercentile(percentile) / 1000);
+			}
+			return values;
+		}
+	}
+}
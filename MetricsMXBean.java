@@ -0,0 +1,50 @@
+package photo_renamer;
+
+import java.util.Map;
+
+/*
+ * The management interface of Metrics, registered with the platform MBean server as
+ * photo_renamer:type=Metrics so that JConsole or any JMX client can watch the counters
+ * and latency percentiles of a running program.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * @return the value of every counter, by name
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * @return the number of recorded latencies of every timer, by name
+	 */
+	Map<String, Long> getTimerCounts();
+
+	/**
+	 * @return the median latency of every timer in microseconds, by name
+	 */
+	Map<String, Long> getP50Micros();
+
+	/**
+	 * @return the 99th percentile latency of every timer in microseconds, by
+	 *         name
+	 */
+	Map<String, Long> getP99Micros();
+
+	/**
+	 * @return the maximum latency of every timer in microseconds, by name
+	 */
+	Map<String, Long> getMaxMicros();
+
+	/**
+	 * @return a reader-friendly report of all metrics
+	 */
+	String getReport();
+
+	/**
+	 * Resets all counters and timers.
+	 */
+	void reset();
+}
@@ -0,0 +1,80 @@
+package photo_renamer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The table of the parts of photo names, the bases, tags and extensions, each stored once
+ * and known by an int id. PhotoName keeps ids instead of strings, so the thousands of
+ * names of a photo's history and of a library share one copy of each base and tag.
+ * <p>
+ * Ids are given in order of first use and are only valid in this run; names are written
+ * to the catalog as strings. Parts are never removed: the table grows with the number of
+ * distinct bases and tags, not with the number of names.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+final class NameTable {
+	private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private static volatile String[] parts = new String[1024];
+	private static int size;
+
+	private NameTable() {
+	}
+
+	/**
+	 * Returns the id of the designated part, adding the part if it is new.
+	 *
+	 * @param part
+	 *            a base, tag or extension
+	 * @return the id of the part
+	 */
+	static int id(String part) {
+		Integer id = ids.get(part);
+		return (id != null) ? id : add(part);
+	}
+
+	/**
+	 * Returns the id of the designated part without adding it.
+	 *
+	 * @param part
+	 *            a base, tag or extension
+	 * @return the id of the part, or -1 if it is not in the table
+	 */
+	static int find(String part) {
+		Integer id = ids.get(part);
+		return (id != null) ? id : -1;
+	}
+
+	/**
+	 * @param id
+	 *            the id of a part
+	 * @return the part with that id
+	 */
+	static String part(int id) {
+		return parts[id];
+	}
+
+	/**
+	 * @return the number of distinct parts
+	 */
+	static synchronized int size() {
+		return size;
+	}
+
+	private static synchronized int add(String part) {
+		Integer id = ids.get(part);
+		if (id != null) {
+			return id;
+		}
+		if (size == parts.length) {
+			parts = Arrays.copyOf(parts, size * 2);
+		}
+		// The part is stored before its id is given out, so whoever gets the
+		// id can read the part.
+		parts[size] = part;
+		ids.put(part, size);
+		return size++;
+	}
+}
@@ -0,0 +1,601 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * A record of every photo PhotoManager has seen, its id, directory, name and tags, kept in
+ * a few large ByteBuffers instead of objects, so that a library of millions of photos is
+ * looked up without millions of objects on the heap for the collector to trace.
+ * <p>
+ * Records are appended to an arena of blocks; a photo recorded again gets a new record and
+ * its old one is reclaimed when the arena is compacted, once more than half of it is
+ * reclaimable. The records are found by an open-addressing table of their addresses, with
+ * linear probing, in another buffer. Directories and tags are kept as ints: directories in
+ * a table of this catalog, which grows with the number of directories, and tags by their
+ * NameTable id, which grows with the number of distinct tags.
+ * <p>
+ * The catalog.offHeap system property chooses where the buffers are: direct for direct
+ * buffers, out of the heap, mapped for an arena mapped from a temporary file, which the
+ * system pages out when memory is short, and on the heap otherwise. Direct and mapped
+ * buffers are freed when they are collected, as Java 8 gives no way to free them earlier.
+ * <p>
+ * PhotoRecord reads a record in place. Readers share a lock, and writers take it alone.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+final class OffHeapCatalog {
+	static final String PROPERTY = "catalog.offHeap";
+	/** The largest block of the arena; the first ones are smaller, for small catalogs. */
+	private static final int BLOCK_SIZE = 1 << 26;
+	private static final int FIRST_BLOCK_SIZE = 1 << 16;
+	private static final int FIRST_CAPACITY = 1 << 10;
+	/** A slot of the table that never held a record. */
+	private static final long EMPTY = 0;
+	/** A slot of the table whose record was removed, so probing goes on past it. */
+	private static final long REMOVED = -1;
+	private static final int NO_DIRECTORY = -1;
+
+	private final Mode mode;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+	private final List<PathTrie.Directory> directories = new ArrayList<PathTrie.Directory>();
+	private final Map<PathTrie.Directory, Integer> directoryIds = new HashMap<PathTrie.Directory, Integer>();
+	private RandomAccessFile mappedFile;
+	private long mappedLength;
+	private ByteBuffer table;
+	private int capacity;
+	/** The records, and the slots that are either records or removed. */
+	private int size;
+	private int used;
+	private long liveBytes;
+	private long reclaimableBytes;
+	/** Counts the changes, so that a PhotoRecord finds its record again after one. */
+	private volatile long version;
+
+	/*
+	 * Where the buffers of a catalog are allocated.
+	 */
+	enum Mode {
+		HEAP, DIRECT, MAPPED
+	}
+
+	/**
+	 * Constructor for an empty catalog.
+	 *
+	 * @param mode
+	 *            where its buffers are allocated
+	 */
+	OffHeapCatalog(Mode mode) {
+		this.mode = mode;
+		this.capacity = FIRST_CAPACITY;
+		this.table = allocateTable(capacity);
+	}
+
+	/**
+	 * Returns an empty catalog with its buffers where the catalog.offHeap
+	 * system property says.
+	 *
+	 * @return the catalog
+	 */
+	static OffHeapCatalog open() {
+		String property = System.getProperty(PROPERTY, "");
+		if (property.equalsIgnoreCase("mapped")) {
+			return new OffHeapCatalog(Mode.MAPPED);
+		}
+		if (property.equalsIgnoreCase("direct") || property.equalsIgnoreCase("true")) {
+			return new OffHeapCatalog(Mode.DIRECT);
+		}
+		return new OffHeapCatalog(Mode.HEAP);
+	}
+
+	/**
+	 * Records the designated photo as it is now, replacing its record if it
+	 * has one. The caller holds the photo's lock, or is the only thread
+	 * changing the photo.
+	 *
+	 * @param photo
+	 *            the photo
+	 */
+	void put(PhotoNode photo) {
+		put(photo, true);
+	}
+
+	/**
+	 * Records the designated photo if it has no record yet.
+	 *
+	 * @param photo
+	 *            the photo
+	 * @return whether the photo was recorded
+	 */
+	boolean putIfAbsent(PhotoNode photo) {
+		return put(photo, false);
+	}
+
+	private boolean put(PhotoNode photo, boolean replace) {
+		String photoId = photo.getPhotoId();
+		byte[] id = photoId.getBytes(StandardCharsets.UTF_8);
+		byte[] name = photo.getName().getBytes(StandardCharsets.UTF_8);
+		int[] tags = tagIds(photo.getTags().keySet());
+		int hash = hash(photoId);
+		lock.writeLock().lock();
+		try {
+			int slot = find(hash, id);
+			if (slot >= 0 && !replace) {
+				return false;
+			}
+			int length = recordLength(id, name, tags);
+			long address = append(length);
+			ByteBuffer block = blocks.get(blockOf(address));
+			int offset = offsetOf(address);
+			block.putInt(offset, hash);
+			block.putInt(offset + 4, directoryId(photo.directoryNode()));
+			offset = putBytes(block, offset + 8, id);
+			offset = putBytes(block, offset, name);
+			block.putShort(offset, (short) tags.length);
+			for (int i = 0; i < tags.length; i++) {
+				block.putInt(offset + 2 + i * 4, tags[i]);
+			}
+			liveBytes += length;
+			if (slot >= 0) {
+				reclaimableBytes += recordLength(table.getLong(slot * 8) - 1);
+				liveBytes -= recordLength(table.getLong(slot * 8) - 1);
+				table.putLong(slot * 8, address + 1);
+			} else {
+				insert(hash, address);
+			}
+			version++;
+			compactIfWasteful();
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the record of the photo with the designated id, if any.
+	 *
+	 * @param photoId
+	 *            the id of a photo
+	 */
+	void remove(String photoId) {
+		byte[] id = photoId.getBytes(StandardCharsets.UTF_8);
+		int hash = hash(photoId);
+		lock.writeLock().lock();
+		try {
+			int slot = find(hash, id);
+			if (slot >= 0) {
+				long address = table.getLong(slot * 8) - 1;
+				reclaimableBytes += recordLength(address);
+				liveBytes -= recordLength(address);
+				table.putLong(slot * 8, REMOVED);
+				size--;
+				version++;
+				compactIfWasteful();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Points the designated record at the photo with the designated id.
+	 *
+	 * @param photoId
+	 *            the id of a photo
+	 * @param record
+	 *            the record to point at it
+	 * @return whether the catalog has a record of the photo; if not, the
+	 *         record is left as it was
+	 */
+	boolean find(String photoId, PhotoRecord record) {
+		lock.readLock().lock();
+		try {
+			long address = addressOf(photoId);
+			if (address < 0) {
+				return false;
+			}
+			record.bind(this, photoId, address, version);
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of photos recorded
+	 */
+	int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the bytes of the arena taken by records, live or reclaimable
+	 */
+	long arenaBytes() {
+		lock.readLock().lock();
+		try {
+			return liveBytes + reclaimableBytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Releases the temporary file of a mapped catalog. The catalog is not
+	 * used afterwards.
+	 */
+	void close() {
+		lock.writeLock().lock();
+		try {
+			closeMappedFile();
+			blocks.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	String name(PhotoRecord record) {
+		lock.readLock().lock();
+		try {
+			long address = resolve(record);
+			ByteBuffer block = blocks.get(blockOf(address));
+			int offset = offsetOf(address) + 8;
+			return getString(block, offset + 2 + unsignedShort(block, offset));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	File directory(PhotoRecord record) {
+		lock.readLock().lock();
+		try {
+			long address = resolve(record);
+			int directory = blocks.get(blockOf(address)).getInt(offsetOf(address) + 4);
+			return (directory != NO_DIRECTORY) ? directories.get(directory).getFile() : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	List<String> tagNames(PhotoRecord record) {
+		lock.readLock().lock();
+		try {
+			long address = resolve(record);
+			ByteBuffer block = blocks.get(blockOf(address));
+			int offset = tagsOffset(block, offsetOf(address));
+			int count = block.getShort(offset);
+			List<String> names = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				names.add(NameTable.part(block.getInt(offset + 2 + i * 4)));
+			}
+			Collections.sort(names);
+			return Collections.unmodifiableList(names);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	boolean hasTag(PhotoRecord record, String tagName) {
+		int tag = NameTable.find(tagName);
+		if (tag < 0) {
+			return false;
+		}
+		lock.readLock().lock();
+		try {
+			long address = resolve(record);
+			ByteBuffer block = blocks.get(blockOf(address));
+			int offset = tagsOffset(block, offsetOf(address));
+			int count = block.getShort(offset);
+			for (int i = 0; i < count; i++) {
+				if (block.getInt(offset + 2 + i * 4) == tag) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	boolean exists(PhotoRecord record) {
+		lock.readLock().lock();
+		try {
+			return record.version() == version || addressOf(record.getPhotoId()) >= 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the address of the record the designated PhotoRecord points at,
+	 * finding it again if the catalog changed since. The caller holds the
+	 * read lock.
+	 */
+	private long resolve(PhotoRecord record) {
+		if (record.version() == version) {
+			return record.address();
+		}
+		long address = addressOf(record.getPhotoId());
+		if (address < 0) {
+			throw new IllegalStateException("Photo " + record.getPhotoId() + " is no longer in the catalog");
+		}
+		record.bind(this, record.getPhotoId(), address, version);
+		return address;
+	}
+
+	private long addressOf(String photoId) {
+		int slot = find(hash(photoId), photoId.getBytes(StandardCharsets.UTF_8));
+		return (slot >= 0) ? table.getLong(slot * 8) - 1 : -1;
+	}
+
+	/**
+	 * Returns the slot of the record with the designated id, or -1 if there
+	 * is none.
+	 */
+	private int find(int hash, byte[] id) {
+		int mask = capacity - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			long entry = table.getLong(slot * 8);
+			if (entry == EMPTY) {
+				return -1;
+			}
+			if (entry != REMOVED && matches(entry - 1, hash, id)) {
+				return slot;
+			}
+		}
+	}
+
+	private boolean matches(long address, int hash, byte[] id) {
+		ByteBuffer block = blocks.get(blockOf(address));
+		int offset = offsetOf(address);
+		if (block.getInt(offset) != hash || unsignedShort(block, offset + 8) != id.length) {
+			return false;
+		}
+		for (int i = 0; i < id.length; i++) {
+			if (block.get(offset + 10 + i) != id[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the address of a new record to the table, growing the table first
+	 * if more than half of it would be taken.
+	 */
+	private void insert(int hash, long address) {
+		if ((used + 1) * 2 > capacity) {
+			rehash((size + 1) * 4 > capacity ? capacity * 2 : capacity);
+		}
+		int mask = capacity - 1;
+		int slot = hash & mask;
+		while (table.getLong(slot * 8) != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		table.putLong(slot * 8, address + 1);
+		size++;
+		used++;
+	}
+
+	/**
+	 * Builds the table again with the designated capacity, leaving out the
+	 * removed slots.
+	 */
+	private void rehash(int newCapacity) {
+		if (newCapacity > (Integer.MAX_VALUE / 8) + 1) {
+			throw new IllegalStateException("The catalog cannot hold more than " + (capacity / 2) + " photos");
+		}
+		ByteBuffer former = table;
+		int formerCapacity = capacity;
+		table = allocateTable(newCapacity);
+		capacity = newCapacity;
+		int mask = newCapacity - 1;
+		for (int i = 0; i < formerCapacity; i++) {
+			long entry = former.getLong(i * 8);
+			if (entry != EMPTY && entry != REMOVED) {
+				long address = entry - 1;
+				int slot = blocks.get(blockOf(address)).getInt(offsetOf(address)) & mask;
+				while (table.getLong(slot * 8) != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				table.putLong(slot * 8, entry);
+			}
+		}
+		used = size;
+	}
+
+	/**
+	 * Copies the live records into a new arena once more than half of the
+	 * arena is reclaimable, so that a library changed often does not grow it
+	 * without bound.
+	 */
+	private void compactIfWasteful() {
+		if (reclaimableBytes < FIRST_BLOCK_SIZE || reclaimableBytes < liveBytes) {
+			return;
+		}
+		List<ByteBuffer> former = new ArrayList<ByteBuffer>(blocks);
+		blocks.clear();
+		closeMappedFile();
+		for (int slot = 0; slot < capacity; slot++) {
+			long entry = table.getLong(slot * 8);
+			if (entry != EMPTY && entry != REMOVED) {
+				long address = entry - 1;
+				ByteBuffer from = former.get(blockOf(address));
+				int length = recordLength(from, offsetOf(address));
+				long moved = append(length);
+				ByteBuffer source = from.duplicate();
+				source.limit(offsetOf(address) + length).position(offsetOf(address));
+				ByteBuffer target = blocks.get(blockOf(moved)).duplicate();
+				target.position(offsetOf(moved));
+				target.put(source);
+				table.putLong(slot * 8, moved + 1);
+			}
+		}
+		reclaimableBytes = 0;
+		version++;
+	}
+
+	/**
+	 * Reserves the designated number of bytes at the end of the arena,
+	 * starting a new block if the last one has no room.
+	 *
+	 * @return the address of the bytes
+	 */
+	private long append(int length) {
+		ByteBuffer last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+		if (last == null || last.remaining() < length) {
+			int blockSize = blocks.isEmpty() ? FIRST_BLOCK_SIZE : Math.min(BLOCK_SIZE, last.capacity() * 2);
+			last = allocateBlock(Math.max(blockSize, length));
+			blocks.add(last);
+		}
+		int offset = last.position();
+		last.position(offset + length);
+		return ((long) (blocks.size() - 1) << 32) | offset;
+	}
+
+	private ByteBuffer allocateBlock(int size) {
+		switch (mode) {
+		case DIRECT:
+			return ByteBuffer.allocateDirect(size);
+		case MAPPED:
+			try {
+				if (mappedFile == null) {
+					File file = File.createTempFile("catalog", ".arena");
+					file.deleteOnExit();
+					mappedFile = new RandomAccessFile(file, "rw");
+					mappedLength = 0;
+				}
+				ByteBuffer block = mappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, mappedLength, size);
+				mappedLength += size;
+				return block;
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot map the arena of the catalog", e);
+			}
+		default:
+			return ByteBuffer.allocate(size);
+		}
+	}
+
+	private ByteBuffer allocateTable(int slots) {
+		return (mode == Mode.HEAP) ? ByteBuffer.allocate(slots * 8) : ByteBuffer.allocateDirect(slots * 8);
+	}
+
+	/**
+	 * Closes the temporary file of a mapped arena. Its blocks stay readable
+	 * until they are collected; the next block maps a new file.
+	 */
+	private void closeMappedFile() {
+		if (mappedFile != null) {
+			try {
+				mappedFile.close();
+			} catch (IOException e) {
+				// The file is deleted on exit anyway.
+			}
+			mappedFile = null;
+		}
+	}
+
+	private int directoryId(PathTrie.Directory directory) {
+		if (directory == null) {
+			return NO_DIRECTORY;
+		}
+		Integer id = directoryIds.get(directory);
+		if (id == null) {
+			id = directories.size();
+			directories.add(directory);
+			directoryIds.put(directory, id);
+		}
+		return id;
+	}
+
+	private static int[] tagIds(Iterable<String> tagNames) {
+		int[] ids = new int[8];
+		int count = 0;
+		for (String tagName : tagNames) {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+			}
+			ids[count++] = NameTable.id(tagName);
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	/*
+	 * A record is the hash of the id, the directory, the id and the name, each
+	 * as its length and its UTF-8 bytes, and the tags, as their number and
+	 * their ids.
+	 */
+
+	private static int recordLength(byte[] id, byte[] name, int[] tags) {
+		if (id.length > 0xffff || name.length > 0xffff || tags.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("The photo " + new String(id, StandardCharsets.UTF_8)
+					+ " is too large to be recorded");
+		}
+		return 8 + 2 + id.length + 2 + name.length + 2 + tags.length * 4;
+	}
+
+	private int recordLength(long address) {
+		return recordLength(blocks.get(blockOf(address)), offsetOf(address));
+	}
+
+	private static int recordLength(ByteBuffer block, int offset) {
+		int tags = tagsOffset(block, offset);
+		return tags + 2 + block.getShort(tags) * 4 - offset;
+	}
+
+	private static int tagsOffset(ByteBuffer block, int offset) {
+		int name = offset + 10 + unsignedShort(block, offset + 8);
+		return name + 2 + unsignedShort(block, name);
+	}
+
+	private static int putBytes(ByteBuffer block, int offset, byte[] bytes) {
+		block.putShort(offset, (short) bytes.length);
+		for (int i = 0; i < bytes.length; i++) {
+			block.put(offset + 2 + i, bytes[i]);
+		}
+		return offset + 2 + bytes.length;
+	}
+
+	private static String getString(ByteBuffer block, int offset) {
+		byte[] bytes = new byte[unsignedShort(block, offset)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = block.get(offset + 2 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int unsignedShort(ByteBuffer block, int offset) {
+		return block.getShort(offset) & 0xffff;
+	}
+
+	private static int hash(String photoId) {
+		int h = photoId.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static int blockOf(long address) {
+		return (int) (address >>> 32);
+	}
+
+	private static int offsetOf(long address) {
+		return (int) address;
+	}
+}
@@ -0,0 +1,224 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/*
+ * This class provides unit tests for the OffHeapCatalog class, in each mode that keeps
+ * its buffers in memory. Photos are put, replaced and removed at random from a fixed
+ * seed, enough times for the table to be rehashed, to grow and to fill with removed
+ * slots, and for the arena to be compacted, and every record is checked against the
+ * photos after each round.
+ *
+ * @author Zhi Lin
+ */
+@RunWith(Parameterized.class)
+public class OffHeapCatalogTest {
+	/** The number of photos; the table starts with 1024 slots and grows past half. */
+	private static final int PHOTOS = 3000;
+	private static final int ROUNDS = 6;
+	private static final File ROOT = new File(System.getProperty("java.io.tmpdir"), "offHeapCatalogTest")
+			.getAbsoluteFile();
+
+	private final OffHeapCatalog.Mode mode;
+	private OffHeapCatalog catalog;
+	private Random random;
+
+	/**
+	 * @return the modes the tests are run in
+	 */
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> modes() {
+		return Arrays.asList(new Object[][] { { OffHeapCatalog.Mode.HEAP }, { OffHeapCatalog.Mode.DIRECT } });
+	}
+
+	/**
+	 * Constructor for the tests in the designated mode.
+	 *
+	 * @param mode
+	 *            where the catalog allocates its buffers
+	 */
+	public OffHeapCatalogTest(OffHeapCatalog.Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Creates an empty catalog and a random generator with a fixed seed.
+	 */
+	@Before
+	public void setUp() {
+		catalog = new OffHeapCatalog(mode);
+		random = new Random(20161105L);
+	}
+
+	/**
+	 * Tests that a recorded photo is found with its name, directory and tags,
+	 * and that putIfAbsent keeps the record it has.
+	 */
+	@Test
+	public void testPutAndFind() {
+		PhotoNode photo = photo(0);
+		photo.getTags().put("sea", new Tag("sea"));
+		catalog.put(photo);
+		PhotoRecord record = new PhotoRecord();
+		assertTrue(catalog.find(photo.getPhotoId(), record));
+		assertRecords(photo, record);
+		assertTrue(record.hasTag("sea"));
+		assertFalse(record.hasTag("beach"));
+
+		photo.setName("renamed.jpg");
+		assertFalse(catalog.putIfAbsent(photo));
+		assertEquals("IMG_0.jpg", record.getName());
+		assertFalse(catalog.find("path:missing", new PhotoRecord()));
+		assertEquals(1, catalog.size());
+	}
+
+	/**
+	 * Tests put, replace and remove through rehashes and compactions: each
+	 * round replaces the records of most photos with longer names and other
+	 * tags, removes some and puts back others. Records bound before the
+	 * first compaction must still read their photos.
+	 */
+	@Test
+	public void testChangesThroughRehashAndCompaction() {
+		List<PhotoNode> photos = new ArrayList<PhotoNode>();
+		Map<String, PhotoNode> recorded = new HashMap<String, PhotoNode>();
+		for (int i = 0; i < PHOTOS; i++) {
+			PhotoNode photo = photo(i);
+			photos.add(photo);
+			catalog.put(photo);
+			recorded.put(photo.getPhotoId(), photo);
+		}
+		assertEquals(PHOTOS, catalog.size());
+		PhotoRecord[] bound = new PhotoRecord[PHOTOS];
+		for (int i = 0; i < PHOTOS; i++) {
+			bound[i] = new PhotoRecord();
+			assertTrue(catalog.find(photos.get(i).getPhotoId(), bound[i]));
+		}
+
+		int compactions = 0;
+		long arenaBytes = catalog.arenaBytes();
+		for (int round = 1; round <= ROUNDS; round++) {
+			for (int i = 0; i < PHOTOS; i++) {
+				PhotoNode photo = photos.get(i);
+				int change = random.nextInt(10);
+				if (change < 2) {
+					catalog.remove(photo.getPhotoId());
+					recorded.remove(photo.getPhotoId());
+				} else {
+					photo.setName("IMG_" + i + "@round" + round + "_" + random.nextInt(1000) + ".jpg");
+					photo.getTags().clear();
+					for (int t = random.nextInt(4); t > 0; t--) {
+						String tagName = "tag" + random.nextInt(20);
+						photo.getTags().put(tagName, new Tag(tagName));
+					}
+					catalog.put(photo);
+					recorded.put(photo.getPhotoId(), photo);
+				}
+				// Only a compaction gives bytes of the arena back.
+				if (catalog.arenaBytes() < arenaBytes) {
+					compactions++;
+				}
+				arenaBytes = catalog.arenaBytes();
+			}
+			assertCatalog(photos, recorded);
+		}
+		assertTrue("The arena was never compacted", compactions > 0);
+
+		for (int i = 0; i < PHOTOS; i++) {
+			PhotoNode photo = photos.get(i);
+			if (recorded.containsKey(photo.getPhotoId())) {
+				assertTrue(bound[i].exists());
+				assertRecords(photo, bound[i]);
+			} else {
+				assertFalse(bound[i].exists());
+				try {
+					bound[i].getName();
+					fail("The record of a removed photo was read");
+				} catch (IllegalStateException e) {
+					// The photo is no longer in the catalog.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that removing every photo and putting new ones in their place,
+	 * which fills the table with removed slots, finds every new photo and
+	 * none of the removed ones.
+	 */
+	@Test
+	public void testRemovedSlotsAreReused() {
+		Map<String, PhotoNode> recorded = new HashMap<String, PhotoNode>();
+		List<PhotoNode> photos = new ArrayList<PhotoNode>();
+		for (int generation = 0; generation < 4; generation++) {
+			for (PhotoNode photo : photos) {
+				catalog.remove(photo.getPhotoId());
+				recorded.remove(photo.getPhotoId());
+			}
+			assertEquals(0, catalog.size());
+			List<PhotoNode> removed = photos;
+			photos = new ArrayList<PhotoNode>();
+			for (int i = 0; i < 400; i++) {
+				PhotoNode photo = photo(generation * 1000 + i);
+				photos.add(photo);
+				catalog.put(photo);
+				recorded.put(photo.getPhotoId(), photo);
+			}
+			List<PhotoNode> all = new ArrayList<PhotoNode>(photos);
+			all.addAll(removed);
+			assertCatalog(all, recorded);
+		}
+	}
+
+	/**
+	 * Asserts that the catalog has a record of exactly the recorded photos,
+	 * reading as they are.
+	 */
+	private void assertCatalog(List<PhotoNode> photos, Map<String, PhotoNode> recorded) {
+		assertEquals(recorded.size(), catalog.size());
+		for (PhotoNode photo : photos) {
+			PhotoRecord record = new PhotoRecord();
+			boolean found = catalog.find(photo.getPhotoId(), record);
+			assertEquals(photo.getPhotoId(), recorded.containsKey(photo.getPhotoId()), found);
+			if (found) {
+				assertRecords(photo, record);
+			}
+		}
+	}
+
+	/**
+	 * Asserts that the record reads the photo's id, name, directory and tags.
+	 */
+	private static void assertRecords(PhotoNode photo, PhotoRecord record) {
+		assertEquals(photo.getPhotoId(), record.getPhotoId());
+		assertEquals(photo.getName(), record.getName());
+		assertEquals(photo.getDirectory(), record.getDirectory());
+		List<String> tagNames = new ArrayList<String>(photo.getTags().keySet());
+		Collections.sort(tagNames);
+		assertEquals(tagNames, record.getTagNames());
+	}
+
+	/**
+	 * Returns a photo of a file that is not on disk, in one of ten directories.
+	 */
+	private static PhotoNode photo(int i) {
+		String name = "IMG_" + i + ".jpg";
+		return new PhotoNode(name, null, new File(new File(ROOT, "d" + (i % 10)), name));
+	}
+}
@@ -0,0 +1,140 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * The directories of the photos in the catalog, as one tree of FileNodes shared by all
+ * photos. Each directory is a node holding its name and its parent, interned so that there
+ * is one node per directory however many photos it holds. A photo points at the node of
+ * its directory instead of keeping a File, and the path of the node is built once, when
+ * the node is made.
+ * <p>
+ * The node of a directory also holds the photos of the catalog in that directory, by id:
+ * they are the shard PhotoManager saves for the directory. A node is written to a stream
+ * as its path and read back as the interned node of that path, so a shard does not carry
+ * the tree, nor the photos of other directories, with it.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class PathTrie {
+	/** The parent of the roots of the file systems, which is not a directory itself. */
+	private static final FileNode ROOTS = new FileNode("", null, FileType.DIRECTORY);
+
+	private PathTrie() {
+	}
+
+	/**
+	 * Returns the node of the designated directory, adding it and the
+	 * directories above it to the tree if they are new.
+	 *
+	 * @param directory
+	 *            a directory, relative to the working directory or absolute
+	 * @return the node of the directory
+	 */
+	public static synchronized Directory directory(File directory) {
+		Path path = directory.getAbsoluteFile().toPath().normalize();
+		Path root = path.getRoot();
+		Directory node = child(ROOTS, null, (root != null) ? root.toString() : "");
+		for (Path name : path) {
+			node = child(node, node, name.toString());
+		}
+		return node;
+	}
+
+	private static Directory child(FileNode node, Directory parent, String name) {
+		Directory child = (Directory) node.children.get(name);
+		if (child == null) {
+			child = new Directory(name, parent);
+			node.addChild(name, child);
+		}
+		return child;
+	}
+
+	/*
+	 * The node of a directory and the photos of the catalog in it.
+	 */
+	public static final class Directory extends FileNode {
+		private static final long serialVersionUID = 1L;
+		private final transient File file;
+		private final transient ConcurrentMap<String, PhotoNode> photos = new ConcurrentHashMap<String, PhotoNode>();
+
+		private Directory(String name, Directory parent) {
+			super(name, parent, FileType.DIRECTORY);
+			this.file = (parent != null) ? new File(parent.file, name) : new File(name);
+		}
+
+		/**
+		 * @return the directory
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the photos of the catalog in this directory, by id
+		 */
+		public Collection<PhotoNode> getPhotos() {
+			return photos.values();
+		}
+
+		/**
+		 * Adds the designated photo to this directory, under its id.
+		 *
+		 * @param photo
+		 *            a photo in this directory
+		 */
+		void addPhoto(PhotoNode photo) {
+			photos.put(photo.getPhotoId(), photo);
+		}
+
+		/**
+		 * Removes the photo with the designated id from this directory, if it
+		 * is the designated photo.
+		 *
+		 * @param photoId
+		 *            the id the photo is held under
+		 * @param photo
+		 *            the photo
+		 */
+		void removePhoto(String photoId, PhotoNode photo) {
+			photos.remove(photoId, photo);
+		}
+
+		/**
+		 * Forgets the photos of this directory, so that they are read again
+		 * from its shard.
+		 */
+		void clearPhotos() {
+			photos.clear();
+		}
+
+		/**
+		 * Writes this node as its path.
+		 */
+		private Object writeReplace() {
+			return new SerializedDirectory(file.getPath());
+		}
+	}
+
+	/*
+	 * The serialized form of a Directory.
+	 */
+	private static final class SerializedDirectory implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final String path;
+
+		SerializedDirectory(String path) {
+			this.path = path;
+		}
+
+		private Object readResolve() {
+			return directory(new File(path));
+		}
+	}
+}
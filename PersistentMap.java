@@ -0,0 +1,420 @@
+package photo_renamer;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*
+ * An immutable map whose changes return a new map sharing all but the changed path with
+ * this one: a hash array mapped trie. Each level takes 5 bits of the key's hash and keeps
+ * only the children present, under a 32-bit bitmap, so plus and minus copy at most 7
+ * small arrays whatever the size of the map. Keys whose whole hashes collide share a
+ * collision node at the bottom.
+ * <p>
+ * Being immutable, a map can be read by any number of threads without locks while
+ * writers build the next one, which is how CatalogSnapshot is published. The Map methods
+ * that change the map throw UnsupportedOperationException.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	/** Levels of bitmap nodes for 32 bits of hash, and one of collision nodes. */
+	private static final int MAX_DEPTH = 8;
+
+	@SuppressWarnings("rawtypes")
+	private static final PersistentMap EMPTY = new PersistentMap<Object, Object>(
+			new BitmapNode<Object, Object>(0, new Object[0]), 0);
+
+	private final Node<K, V> root;
+	private final int size;
+	private Set<Entry<K, V>> entrySet;
+
+	private PersistentMap(Node<K, V> root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the empty map.
+	 *
+	 * @return the empty map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentMap<K, V> empty() {
+		return (PersistentMap<K, V>) EMPTY;
+	}
+
+	/**
+	 * Returns a map with the designated mapping added to, or replacing the one
+	 * of the same key in, this map.
+	 *
+	 * @param key
+	 *            the key, not null
+	 * @param value
+	 *            the value
+	 * @return the new map, or this map if it already has the mapping
+	 */
+	public PersistentMap<K, V> plus(K key, V value) {
+		int[] added = new int[1];
+		Node<K, V> newRoot = root.plus(new Leaf<K, V>(key, value, hash(key)), 0, added);
+		return (newRoot == root) ? this : new PersistentMap<K, V>(newRoot, size + added[0]);
+	}
+
+	/**
+	 * Returns a map without the mapping of the designated key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the new map, or this map if it has no such key
+	 */
+	public PersistentMap<K, V> minus(Object key) {
+		Node<K, V> newRoot = root.minus(key, hash(key), 0);
+		if (newRoot == root) {
+			return this;
+		}
+		return (newRoot == null) ? PersistentMap.<K, V> empty() : new PersistentMap<K, V>(newRoot, size - 1);
+	}
+
+	@Override
+	public V get(Object key) {
+		Leaf<K, V> leaf = root.find(key, hash(key), 0);
+		return (leaf == null) ? null : leaf.getValue();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return root.find(key, hash(key), 0) != null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Entry<K, V>>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return new EntryIterator<K, V>(root);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private static int hash(Object key) {
+		int hash = key.hashCode();
+		// Spreads the high bits, which the last levels alone would see.
+		return hash ^ (hash >>> 16);
+	}
+
+	/*
+	 * A node of the trie. Its slots hold leaves and child nodes.
+	 */
+	private abstract static class Node<K, V> {
+		final Object[] slots;
+
+		Node(Object[] slots) {
+			this.slots = slots;
+		}
+
+		abstract Leaf<K, V> find(Object key, int hash, int shift);
+
+		/**
+		 * @return the node with leaf, or this node if it has it already;
+		 *         added[0] is set to 1 if the key is new
+		 */
+		abstract Node<K, V> plus(Leaf<K, V> leaf, int shift, int[] added);
+
+		/**
+		 * @return the node without the key, this node if it has no such key,
+		 *         or null if it is left empty
+		 */
+		abstract Node<K, V> minus(Object key, int hash, int shift);
+
+		/**
+		 * @return the only slot of this node if it is a leaf, so that the
+		 *         parent can hold the leaf itself
+		 */
+		@SuppressWarnings("unchecked")
+		Leaf<K, V> singleLeaf() {
+			return (slots.length == 1 && slots[0] instanceof Leaf) ? (Leaf<K, V>) slots[0] : null;
+		}
+	}
+
+	/*
+	 * A node holding the slots whose bits are set in its bitmap, in bit order.
+	 */
+	private static final class BitmapNode<K, V> extends Node<K, V> {
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] slots) {
+			super(slots);
+			this.bitmap = bitmap;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Leaf<K, V> find(Object key, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			Object slot = slots[index(bit)];
+			if (slot instanceof Leaf) {
+				Leaf<K, V> leaf = (Leaf<K, V>) slot;
+				return leaf.matches(key, hash) ? leaf : null;
+			}
+			return ((Node<K, V>) slot).find(key, hash, shift + BITS);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Node<K, V> plus(Leaf<K, V> leaf, int shift, int[] added) {
+			int bit = 1 << ((leaf.hash >>> shift) & MASK);
+			int index = index(bit);
+			if ((bitmap & bit) == 0) {
+				Object[] newSlots = new Object[slots.length + 1];
+				System.arraycopy(slots, 0, newSlots, 0, index);
+				newSlots[index] = leaf;
+				System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+				added[0] = 1;
+				return new BitmapNode<K, V>(bitmap | bit, newSlots);
+			}
+			Object slot = slots[index];
+			Object replacement;
+			if (slot instanceof Leaf) {
+				Leaf<K, V> existing = (Leaf<K, V>) slot;
+				if (existing.matches(leaf.getKey(), leaf.hash)) {
+					if (existing.getValue() == leaf.getValue()) {
+						return this;
+					}
+					replacement = leaf;
+				} else {
+					replacement = split(existing, leaf, shift + BITS);
+					added[0] = 1;
+				}
+			} else {
+				Node<K, V> child = (Node<K, V>) slot;
+				Node<K, V> newChild = child.plus(leaf, shift + BITS, added);
+				if (newChild == child) {
+					return this;
+				}
+				replacement = newChild;
+			}
+			Object[] newSlots = slots.clone();
+			newSlots[index] = replacement;
+			return new BitmapNode<K, V>(bitmap, newSlots);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Node<K, V> minus(Object key, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int index = index(bit);
+			Object slot = slots[index];
+			if (slot instanceof Leaf) {
+				if (!((Leaf<K, V>) slot).matches(key, hash)) {
+					return this;
+				}
+				return without(bit, index);
+			}
+			Node<K, V> child = (Node<K, V>) slot;
+			Node<K, V> newChild = child.minus(key, hash, shift + BITS);
+			if (newChild == child) {
+				return this;
+			}
+			if (newChild == null) {
+				return without(bit, index);
+			}
+			Object[] newSlots = slots.clone();
+			Leaf<K, V> single = newChild.singleLeaf();
+			newSlots[index] = (single != null) ? single : newChild;
+			return new BitmapNode<K, V>(bitmap, newSlots);
+		}
+
+		private Node<K, V> without(int bit, int index) {
+			if (bitmap == bit) {
+				return null;
+			}
+			Object[] newSlots = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+			return new BitmapNode<K, V>(bitmap ^ bit, newSlots);
+		}
+
+		/**
+		 * @return the smallest node holding both leaves, of different keys,
+		 *         from the level of shift down
+		 */
+		private static <K, V> Node<K, V> split(Leaf<K, V> a, Leaf<K, V> b, int shift) {
+			if (a.hash == b.hash) {
+				return new CollisionNode<K, V>(a.hash, new Object[] { a, b });
+			}
+			int indexA = (a.hash >>> shift) & MASK;
+			int indexB = (b.hash >>> shift) & MASK;
+			if (indexA == indexB) {
+				return new BitmapNode<K, V>(1 << indexA, new Object[] { split(a, b, shift + BITS) });
+			}
+			Object[] slots = (indexA < indexB) ? new Object[] { a, b } : new Object[] { b, a };
+			return new BitmapNode<K, V>((1 << indexA) | (1 << indexB), slots);
+		}
+	}
+
+	/*
+	 * A node holding the leaves of keys with the same hash.
+	 */
+	private static final class CollisionNode<K, V> extends Node<K, V> {
+		final int hash;
+
+		CollisionNode(int hash, Object[] leaves) {
+			super(leaves);
+			this.hash = hash;
+		}
+
+		@SuppressWarnings("unchecked")
+		private int indexOf(Object key) {
+			for (int i = 0; i < slots.length; i++) {
+				if (((Leaf<K, V>) slots[i]).getKey().equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Leaf<K, V> find(Object key, int hash, int shift) {
+			if (hash != this.hash) {
+				return null;
+			}
+			int index = indexOf(key);
+			return (index == -1) ? null : (Leaf<K, V>) slots[index];
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		Node<K, V> plus(Leaf<K, V> leaf, int shift, int[] added) {
+			if (leaf.hash != hash) {
+				// Nests this node under a bitmap node of its level.
+				Node<K, V> parent = new BitmapNode<K, V>(1 << ((hash >>> shift) & MASK), new Object[] { this });
+				return parent.plus(leaf, shift, added);
+			}
+			int index = indexOf(leaf.getKey());
+			Object[] newSlots;
+			if (index == -1) {
+				newSlots = new Object[slots.length + 1];
+				System.arraycopy(slots, 0, newSlots, 0, slots.length);
+				newSlots[slots.length] = leaf;
+				added[0] = 1;
+			} else {
+				if (((Leaf<K, V>) slots[index]).getValue() == leaf.getValue()) {
+					return this;
+				}
+				newSlots = slots.clone();
+				newSlots[index] = leaf;
+			}
+			return new CollisionNode<K, V>(hash, newSlots);
+		}
+
+		@Override
+		Node<K, V> minus(Object key, int hash, int shift) {
+			int index = (hash == this.hash) ? indexOf(key) : -1;
+			if (index == -1) {
+				return this;
+			}
+			if (slots.length == 1) {
+				return null;
+			}
+			Object[] newSlots = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+			return new CollisionNode<K, V>(hash, newSlots);
+		}
+	}
+
+	/*
+	 * A mapping of the trie, with the spread hash of its key.
+	 */
+	private static final class Leaf<K, V> extends SimpleImmutableEntry<K, V> {
+		private static final long serialVersionUID = 1L;
+		final int hash;
+
+		Leaf(K key, V value, int hash) {
+			super(key, value);
+			this.hash = hash;
+		}
+
+		boolean matches(Object key, int hash) {
+			return this.hash == hash && getKey().equals(key);
+		}
+	}
+
+	/*
+	 * Walks the trie depth first, keeping the path from the root on a stack.
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+		private final Object[][] stack = new Object[MAX_DEPTH][];
+		private final int[] positions = new int[MAX_DEPTH];
+		private int depth;
+		private Leaf<K, V> next;
+
+		EntryIterator(Node<K, V> root) {
+			stack[0] = root.slots;
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			while (depth >= 0) {
+				if (positions[depth] < stack[depth].length) {
+					Object slot = stack[depth][positions[depth]++];
+					if (slot instanceof Leaf) {
+						next = (Leaf<K, V>) slot;
+						return;
+					}
+					depth++;
+					stack[depth] = ((Node<K, V>) slot).slots;
+					positions[depth] = 0;
+				} else {
+					depth--;
+				}
+			}
+			next = null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Entry<K, V> entry = next;
+			advance();
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * This class provides unit tests for the PersistentMap class. Besides examples, random
+ * sequences of plus and minus from a fixed seed are checked against a HashMap, on keys
+ * whose hash codes share long prefixes or collide whole, so that the maps go through
+ * deep bitmap nodes and collision nodes.
+ *
+ * @author Zhi Lin
+ */
+public class PersistentMapTest {
+	/** The number of random changes each property is checked on. */
+	private static final int RUNS = 20000;
+
+	private Random random;
+
+	/**
+	 * Creates a random generator with a fixed seed.
+	 */
+	@Before
+	public void setUp() {
+		random = new Random(20161102L);
+	}
+
+	/**
+	 * Tests that a map finds the mappings added and not the ones removed.
+	 */
+	@Test
+	public void testPlusAndMinus() {
+		PersistentMap<String, Integer> map = PersistentMap.<String, Integer> empty().plus("a", 1).plus("b", 2);
+		assertEquals(2, map.size());
+		assertEquals(Integer.valueOf(1), map.get("a"));
+		assertEquals(Integer.valueOf(3), map.plus("a", 3).get("a"));
+		assertEquals(2, map.plus("a", 3).size());
+		assertNull(map.minus("a").get("a"));
+		assertEquals(1, map.minus("a").size());
+		assertSame(map, map.plus("a", 1));
+		assertSame(map, map.minus("c"));
+	}
+
+	/**
+	 * Tests keys whose hash codes are all equal: each is found, replaced and
+	 * removed on its own.
+	 */
+	@Test
+	public void testCollidingKeys() {
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		for (int i = 0; i < 10; i++) {
+			map = map.plus(new Key(i, 42), i);
+		}
+		map = map.plus(new Key(10, 43), 10);
+		assertEquals(11, map.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(i), map.get(new Key(i, 42)));
+		}
+		assertNull(map.get(new Key(11, 42)));
+		map = map.plus(new Key(3, 42), 30);
+		assertEquals(11, map.size());
+		assertEquals(Integer.valueOf(30), map.get(new Key(3, 42)));
+		for (int i = 0; i < 10; i++) {
+			map = map.minus(new Key(i, 42));
+			assertEquals(10 - i, map.size());
+			assertFalse(map.containsKey(new Key(i, 42)));
+			assertEquals(Integer.valueOf(10), map.get(new Key(10, 43)));
+		}
+		assertEquals(1, map.entrySet().size());
+	}
+
+	/**
+	 * Tests that removing every key in random order leaves the empty map,
+	 * with nothing left to iterate.
+	 */
+	@Test
+	public void testMinusToEmpty() {
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		List<Key> keys = new ArrayList<Key>();
+		for (int i = 0; i < 2000; i++) {
+			Key key = randomKey(100000);
+			keys.add(key);
+			map = map.plus(key, i);
+		}
+		while (!keys.isEmpty()) {
+			map = map.minus(keys.remove(random.nextInt(keys.size())));
+		}
+		assertEquals(0, map.size());
+		assertTrue(map.isEmpty());
+		assertFalse(map.entrySet().iterator().hasNext());
+		assertEquals(PersistentMap.<Key, Integer> empty(), map);
+	}
+
+	/**
+	 * Tests random plus and minus against a HashMap, comparing the whole
+	 * map, its size and iteration every hundred changes.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		Map<Key, Integer> expected = new HashMap<Key, Integer>();
+		for (int i = 0; i < RUNS; i++) {
+			Key key = randomKey(3000);
+			if (random.nextInt(3) == 0) {
+				map = map.minus(key);
+				expected.remove(key);
+			} else {
+				map = map.plus(key, i);
+				expected.put(key, i);
+			}
+			assertEquals(expected.get(key), map.get(key));
+			if (i % 100 == 0) {
+				assertEquals(expected.size(), map.size());
+				assertEquals(expected, map);
+				assertEquals(expected, new HashMap<Key, Integer>(map));
+			}
+		}
+	}
+
+	/**
+	 * Tests that the maps plus and minus were called on keep their mappings
+	 * after later changes.
+	 */
+	@Test
+	public void testOldVersionsUnchanged() {
+		List<PersistentMap<Key, Integer>> versions = new ArrayList<PersistentMap<Key, Integer>>();
+		List<Map<Key, Integer>> expected = new ArrayList<Map<Key, Integer>>();
+		PersistentMap<Key, Integer> map = PersistentMap.empty();
+		Map<Key, Integer> current = new HashMap<Key, Integer>();
+		for (int i = 0; i < 2000; i++) {
+			Key key = randomKey(500);
+			if (random.nextInt(3) == 0) {
+				map = map.minus(key);
+				current.remove(key);
+			} else {
+				map = map.plus(key, i);
+				current.put(key, i);
+			}
+			if (i % 20 == 0) {
+				versions.add(map);
+				expected.add(new HashMap<Key, Integer>(current));
+			}
+		}
+		for (int i = 0; i < versions.size(); i++) {
+			assertEquals(expected.get(i).size(), versions.get(i).size());
+			assertEquals(expected.get(i), versions.get(i));
+		}
+	}
+
+	/**
+	 * Returns a key below bound whose hash code is drawn so that keys share
+	 * all but the last bits of their hash, share it whole, or have the hash of
+	 * the key itself.
+	 */
+	private Key randomKey(int bound) {
+		int value = random.nextInt(bound);
+		switch (value % 3) {
+		case 0:
+			return new Key(value, value & 0x3F);
+		case 1:
+			return new Key(value, 7);
+		default:
+			return new Key(value, value * 0x9E3779B9);
+		}
+	}
+
+	/*
+	 * A key with a chosen hash code, equal to the keys of the same value.
+	 */
+	private static final class Key {
+		private final int value;
+		private final int hash;
+
+		Key(int value, int hash) {
+			this.value = value;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && ((Key) other).value == value;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return value + "#" + hash;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+
+/*
+ * The identity of a photo file, which is the key of the photo in PhotoManager and in the
+ * tags. Names do not identify photos: two folders may each hold an IMG_0001.jpg, and a
+ * photo renamed outside this program keeps its tags only if it is still found.
+ * <p>
+ * The id is the file key of the file system, its device and inode on most systems, which
+ * stays the same when the file is renamed or moved on the same device. Where the file
+ * system has no file keys, the id is the photo's fingerprint instead: its size and the
+ * checksums of its first and last FINGERPRINT_BYTES bytes, read without reading the rest
+ * of the file. A photo whose file cannot be read is known by its path, as before.
+ * <p>
+ * Fingerprints are also kept for photos with file keys, so that a photo copied back from
+ * a backup, which has a new file key, is found by its content.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class PhotoId {
+	/** The number of bytes read from each end of a file for its fingerprint. */
+	public static final int FINGERPRINT_BYTES = 16 * 1024;
+	private static final String FILE_KEY = "key:";
+	private static final String FINGERPRINT = "fp:";
+	private static final String PATH = "path:";
+
+	private PhotoId() {
+	}
+
+	/**
+	 * Returns the id of the designated photo file.
+	 *
+	 * @param file
+	 *            the photo file, or null for a photo without one
+	 * @param initialName
+	 *            the initial name of the photo, for photos known by path
+	 * @return the id of the photo
+	 */
+	public static String of(File file, String initialName) {
+		if (file != null) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+				Object key = attributes.fileKey();
+				if (key != null) {
+					return FILE_KEY + key;
+				}
+				return FINGERPRINT + fingerprint(file, attributes.size());
+			} catch (IOException e) {
+				// Not readable: the photo is known by its path.
+			}
+		}
+		return byPath(file, initialName);
+	}
+
+	/**
+	 * Returns the id of a photo that is known by its path, whose file cannot
+	 * be read.
+	 *
+	 * @param file
+	 *            the photo file, or null for a photo without one
+	 * @param initialName
+	 *            the initial name of the photo
+	 * @return the id of the photo
+	 */
+	public static String byPath(File file, String initialName) {
+		if (file == null || file.getParentFile() == null) {
+			return PATH + initialName;
+		}
+		return PATH + new File(file.getParentFile(), initialName).getPath();
+	}
+
+	/**
+	 * Returns whether the designated id is a fingerprint, which byte for byte
+	 * copies of a photo share.
+	 *
+	 * @param id
+	 *            the id of a photo
+	 * @return whether the id is a fingerprint
+	 */
+	public static boolean isFingerprint(String id) {
+		return id.startsWith(FINGERPRINT);
+	}
+
+	/**
+	 * Returns the fingerprint of the designated file.
+	 *
+	 * @param file
+	 *            the photo file
+	 * @return the fingerprint, or null if the file cannot be read
+	 */
+	public static String fingerprint(File file) {
+		try {
+			return fingerprint(file, Files.size(file.toPath()));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the size and the checksums of the first and last
+	 * FINGERPRINT_BYTES bytes of the file, in hexadecimal. Files no longer than
+	 * twice that are read whole.
+	 */
+	private static String fingerprint(File file, long size) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(FINGERPRINT_BYTES);
+			long head = checksum(channel, buffer, 0, Math.min(size, FINGERPRINT_BYTES));
+			long tailStart = Math.max(FINGERPRINT_BYTES, size - FINGERPRINT_BYTES);
+			long tail = checksum(channel, buffer, tailStart, size - tailStart);
+			return Long.toHexString(size) + ":" + Long.toHexString(head) + ":" + Long.toHexString(tail);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the CRC-32 of the designated bytes of the channel
+	 */
+	private static long checksum(FileChannel channel, ByteBuffer buffer, long position, long length)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		buffer.clear();
+		buffer.limit((int) Math.max(0, length));
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		crc.update(buffer.array(), 0, buffer.position());
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,73 @@
+package photo_renamer;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Striped locks for the operations on a photo that take several steps, such as tagging,
+ * which renames the file, records the history and updates both managers, or reverting,
+ * which does all of that for several tags. Photos are mapped to a fixed set of locks by
+ * their id, so operations on the same photo run one at a time while most
+ * operations on different photos run in parallel, without a lock object per photo.
+ * The locks are reentrant, so a revert may add tags under the lock it already holds.
+ * <p>
+ * Operations naming a photo by its file lock the path first, with lockForPath, to look
+ * the photo up and create it once. The paths have locks of their own: a path lock is
+ * taken before the photo's lock and never while holding one, so the two kinds cannot
+ * wait on each other, as two stripes of one set taken in either order could.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class PhotoLocks {
+	private static final int STRIPES = 64;
+	private static final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+	private static final ReentrantLock[] pathLocks = new ReentrantLock[STRIPES];
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+			pathLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Returns the lock guarding the photo with the designated id.
+	 *
+	 * @param photoId
+	 *            the id of the photo
+	 * @return the lock of the photo
+	 */
+	public static ReentrantLock lockFor(String photoId) {
+		return locks[stripe(photoId)];
+	}
+
+	/**
+	 * Returns the lock guarding the lookup of the photo of the designated
+	 * path. It is taken before the photo's lock, never while holding one.
+	 *
+	 * @param path
+	 *            the path of a photo file
+	 * @return the lock of the path
+	 */
+	public static ReentrantLock lockForPath(String path) {
+		return pathLocks[stripe(path)];
+	}
+
+	/**
+	 * Returns the lock guarding the designated photo.
+	 *
+	 * @param photo
+	 *            the photo
+	 * @return the lock of the photo
+	 */
+	public static ReentrantLock lockFor(PhotoNode photo) {
+		return lockFor(photo.getPhotoId());
+	}
+
+	private static int stripe(String key) {
+		int hash = key.hashCode();
+		// Spreads the high bits, as HashMap does, before taking the stripe.
+		hash ^= (hash >>> 16);
+		return hash & (STRIPES - 1);
+	}
+}
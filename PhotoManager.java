@@ -1,19 +1,32 @@
 package photo_renamer;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.ConsoleHandler;
@@ -21,7 +34,44 @@ import java.util.logging.Logger;
 
 /*
  * A photo manager that keeps track of all the selected photo so far. It keeps updating the
- * serializable file every time a new photo is viewed and operated.
+ * serializable files every time a new photo is viewed and operated.
+ * 
+ * The catalog is kept in a CatalogStore, by default the serialized CatalogShards, one file
+ * per directory, and a directory is only read when a photo in it is first looked up or
+ * changed; loadAll() reads all of them, a directory per thread. Each photo hangs under the node of its directory
+ * in PathTrie, and a save writes only the directories changed since the last one.
+ * Catalogs of earlier versions, in one ./photos.bin, and serialized catalogs opened with
+ * another store are copied into the store when first read.
+ * 
+ * The loaded photos are kept in a ConcurrentHashMap, so they can be looked up and changed
+ * from any thread. Constructing the manager starts again from the store, and saves are
+ * serialized with each other. findTagged and findChanged look photos up in the store,
+ * loading only the directories of the photos found.
+ * 
+ * Photos are keyed by their PhotoId, so photos of the same name in different folders are
+ * different photos. Two indexes find the id of a photo without it: by the path of its
+ * file under its initial name, for photos named by a file that does not exist, and by
+ * the fingerprint of its content, for photos whose file got a new id, for instance by
+ * being copied back from a backup. Finding a photo again after a scan is a file system
+ * stat and a hash lookup; only a photo missed by both reads the ends of its file. The
+ * indexes cover the loaded directories.
+ * 
+ * Readers that need a consistent view of several photos, such as the tag lists of the
+ * windows, use snapshot() instead: the CatalogSnapshot published after the latest change,
+ * read without locks.
+ * 
+ * Every photo seen is also recorded, its id, directory, name and tags, in an OffHeapCatalog
+ * that findPhoto reads through PhotoRecord flyweights. With the catalog.offHeap system
+ * property its buffers are out of the heap, and indexAll() records the whole library
+ * without loading it, so looking up any photo of a large library keeps neither PhotoNodes
+ * nor an object per photo on the heap.
+ * 
+ * The dates of the renaming histories of the same photos are indexed by time in a
+ * Timeline. Once loadAll or indexAll has gone through the catalog, findChanged reads it
+ * instead of the store, and LibraryRevert finds there the photos to revert.
+ * 
+ * compactHistory applies a HistoryRetention to every photo of the catalog, loaded or not;
+ * HistoryCompactor runs it in the background.
  * 
  * @author Zhi Lin
  * @author Zhiyu Liang
@@ -29,107 +79,814 @@ import java.util.logging.Logger;
 public class PhotoManager {
 	private static final Logger logger = Logger.getLogger(PhotoManager.class.getName());
     private static final Handler consoleHandler = new ConsoleHandler();
-    private static final String filePath = "./photos.bin";
-	private static Map<String, PhotoNode> photos;
+    private static final String legacyFilePath = "./photos.bin";
+	private static volatile ConcurrentMap<String, PhotoNode> photos = new ConcurrentHashMap<String, PhotoNode>();
+	private static final ConcurrentMap<String, String> idsByPath = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentMap<String, String> idsByFingerprint = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentMap<PathTrie.Directory, Boolean> loaded = new ConcurrentHashMap<PathTrie.Directory, Boolean>();
+	private static final Set<PathTrie.Directory> changed = ConcurrentHashMap.newKeySet();
+	private static final Object saveLock = new Object();
+	private static CatalogStore store;
+	private static volatile OffHeapCatalog records = OffHeapCatalog.open();
+	private static volatile Timeline timeline = new Timeline();
+	/** Whether the timeline has the changes of every photo of the catalog. */
+	private static volatile boolean timelineComplete;
+	private static final AtomicReference<CatalogSnapshot> snapshot = new AtomicReference<CatalogSnapshot>(
+			CatalogSnapshot.empty());
+	private static int batchDepth;
+	private static boolean savePending;
+
+	static {
+		// Associates the handler with the logger once. Adding it per instance wrote
+		// every record once for each PhotoManager ever constructed.
+		consoleHandler.setLevel(Level.ALL);
+		logger.addHandler(consoleHandler);
+		logger.setUseParentHandlers(false);
+	}
 	
 	/**
-	 * Constructor for the PhotoManager object. It checks if the serializable file has already
-	 * been created. If so, reads the stored photos HashMap. Else, creates a new serializable
-	 * file to store the photos HashMap.
+	 * Constructor for the PhotoManager object. It forgets the photos loaded so far, so that
+	 * each directory is read again from the store when it is next used. A catalog in the
+	 * single file of earlier versions, or in serialized files while another store is used,
+	 * is first copied into the store if the store has no photos. The renames queued for the
+	 * photos forgotten are written first, so that the photos read again find their files.
 	 * 
-	 * @param photos 					the HashMap to store all viewed photos so far
-	 * @param file						the serializable file storing the history of this program
 	 * @throws ClassNotFoundException
 	 * @throws IOException
 	 */
     public PhotoManager() throws ClassNotFoundException, IOException {
-    	photos = new HashMap<String, PhotoNode>();
-        
-        // Associate the handler with the logger.
-        logger.setLevel(Level.ALL);
-        consoleHandler.setLevel(Level.ALL);
-        logger.addHandler(consoleHandler);
-        
-        // Reads serializable objects from file.
-        // Populates the record list using stored data, if it exists.
-        File file = new File(filePath);
-        if (file.exists() && file.length() != 0) {
-            readFromFile(filePath);
-        } else if (!file.exists()){
-            file.createNewFile();
-        }
-    }
-    
-    /**
-     * This is a helper function to read from the serializable file at the 
-     * designated path.
+        RenameQueue.flushQuietly();
+        CatalogStore current = store();
+        if (current.isEmpty()) {
+            File file = new File(legacyFilePath);
+            if (file.length() != 0) {
+                migrate(file);
+            } else if (!(current instanceof SerializedCatalogStore) && !CatalogShards.shards().isEmpty()) {
+                copy(CatalogStores.serialized().readAll(), CatalogShards.DIRECTORY);
+            }
+        }
+    	photos = new ConcurrentHashMap<String, PhotoNode>();
+        for (PathTrie.Directory directory : loaded.keySet()) {
+            directory.clearPhotos();
+        }
+        loaded.clear();
+        changed.clear();
+        idsByPath.clear();
+        idsByFingerprint.clear();
+        records.close();
+        records = OffHeapCatalog.open();
+        timeline = new Timeline();
+        timelineComplete = false;
+        snapshot.set(CatalogSnapshot.empty());
+    }
+    
+    /**
+     * Returns the store of the catalog, opening the one of the catalog.store
+     * system property first if none is open.
      * 
-     * @param path						the path of the serializable file
+     * @return the store
+     * @throws IOException				if the store cannot be opened
+     */
+    static synchronized CatalogStore store() throws IOException {
+        if (store == null) {
+            store = CatalogStores.open();
+        }
+        return store;
+    }
+    
+    /**
+     * Closes the store in use and uses the designated one from now on. The
+     * photos loaded stay until the next PhotoManager is constructed.
+     * 
+     * @param next						the store to use
+     * @throws IOException				if the store in use cannot be closed
+     */
+    static synchronized void useStore(CatalogStore next) throws IOException {
+        if (store != null && store != next) {
+            store.close();
+        }
+        store = next;
+    }
+    
+    /**
+     * Reads the single catalog file of earlier versions, copies it into the store and
+     * renames it, so it is read only once.
+     * 
+     * @param file						the catalog file of an earlier version
      * @throws ClassNotFoundException
+     * @throws IOException				if the store cannot be written
      */
-    private static void readFromFile(String path) throws ClassNotFoundException {
+    @SuppressWarnings("unchecked")
+    private static void migrate(File file) throws ClassNotFoundException, IOException {
+        Map<String, PhotoNode> legacy;
         try {
-            InputStream file = new FileInputStream(path);
-            InputStream buffer = new BufferedInputStream(file);
-            ObjectInput input = new ObjectInputStream(buffer);
-
-            //deserialize the Map
-            photos = (Map<String,PhotoNode>) input.readObject();
-            input.close();
+            InputStream input = new BufferedInputStream(new FileInputStream(file));
+            ObjectInput objects = new ObjectInputStream(input);
+            legacy = (Map<String, PhotoNode>) objects.readObject();
+            objects.close();
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Cannot read from input.", ex);
-        }    
+            return;
+        }
+        copy(legacy.values(), file);
+        file.renameTo(new File(file.getPath() + ".old"));
     }
     
     /**
-     * Saves the current data to the serializable file. 
-     * This function also can be used to update file content .
+     * Writes the designated photos into the store by directory, with the tags of the
+     * serialized files. The photos are read again from the store when used, with the
+     * tags of TagManager.
      * 
-     * @throws IOException
+     * @param read						the photos of another catalog
+     * @param source					where they were read from, for the log
+     * @throws IOException				if the store cannot be written
+     */
+    private static void copy(Collection<PhotoNode> read, File source) throws IOException {
+        CatalogStore current = store();
+        int written;
+        synchronized (saveLock) {
+            written = CatalogStores.writeAll(current, read);
+            // Written again even to the same file, as tags of earlier versions
+            // held their photos and are read with them.
+            File tagFile = new File(CatalogStores.TAG_FILE);
+            if (tagFile.length() != 0) {
+                current.writeTags(SerializedCatalogStore.readTags(tagFile));
+            }
+        }
+        logger.log(Level.INFO, "Copied " + written + " photos from " + source + " to the catalog; "
+                + (read.size() - written) + " without a file were left out.");
+    }
+    
+    /**
+     * Loads the photos of the designated directory, if it is not loaded yet.
+     * Threads looking up photos of the directory meanwhile wait for them.
+     * 
+     * @param directory					a directory of photos
+     */
+    public static void load(File directory) {
+        load(PathTrie.directory(directory));
+    }
+    
+    private static void load(PathTrie.Directory directory) {
+        loaded.computeIfAbsent(directory, new Function<PathTrie.Directory, Boolean>() {
+            @Override
+            public Boolean apply(PathTrie.Directory node) {
+                try {
+                    add(store().readDirectory(node.getFile()).values());
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "Cannot read the photos of " + node.getFile(), ex);
+                }
+                return Boolean.TRUE;
+            }
+        });
+    }
+    
+    /**
+     * Loads the photos of every directory of the catalog, for the tools that
+     * work on the whole library. The directories are read and decoded on
+     * catalog.loadThreads threads, by default one per processor.
+     */
+    public static void loadAll() {
+        timelineComplete = forEachDirectory(new Consumer<File>() {
+            @Override
+            public void accept(File directory) {
+                load(directory);
+            }
+        });
+    }
+    
+    /**
+     * Records every photo of the catalog for findPhoto, and its changes in
+     * the timeline, without loading them: the photos of the directories not
+     * loaded are read, recorded and let go.
+     * The directories are read on catalog.loadThreads threads, as by loadAll.
+     */
+    public static void indexAll() {
+        final OffHeapCatalog current = records;
+        final Timeline changes = timeline;
+        timelineComplete = forEachDirectory(new Consumer<File>() {
+            @Override
+            public void accept(File directory) {
+                if (loaded.containsKey(PathTrie.directory(directory))) {
+                    return;
+                }
+                try {
+                    for (PhotoNode photo : store().readDirectory(directory).values()) {
+                        // A photo loaded and changed meanwhile is recorded already.
+                        current.putIfAbsent(photo);
+                        changes.indexIfAbsent(photo);
+                    }
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "Cannot read the photos of " + directory, ex);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Runs the designated task on every directory of the catalog, on
+     * catalog.loadThreads threads, and waits for it to end.
+     * 
+     * @return whether the task ran on every directory
+     */
+    private static boolean forEachDirectory(final Consumer<File> task) {
+        Collection<File> directories;
+        try {
+            directories = store().directories();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Cannot read the directories of the catalog.", ex);
+            return false;
+        }
+        int threads = Math.min(directories.size(),
+                Integer.getInteger("catalog.loadThreads", Runtime.getRuntime().availableProcessors()));
+        if (threads <= 1) {
+            for (File directory : directories) {
+                task.accept(directory);
+            }
+            return true;
+        }
+        ExecutorService loaders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "catalog-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> pending = new ArrayList<Future<?>>(directories.size());
+            for (final File directory : directories) {
+                pending.add(loaders.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        task.accept(directory);
+                    }
+                }));
+            }
+            for (Future<?> directory : pending) {
+                directory.get();
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            logger.log(Level.SEVERE, "Cannot read the catalog.", ex.getCause());
+            return false;
+        } finally {
+            loaders.shutdownNow();
+        }
+    }
+    
+    /**
+     * Returns the photos with the designated tag, as last saved, loading
+     * their directories.
+     * 
+     * @param tagName					the name of a tag
+     * @return the photos with the tag
+     * @throws IOException				if the store cannot be read
+     */
+    public static List<PhotoNode> findTagged(String tagName) throws IOException {
+        return loadPhotos(store().findTagged(tagName));
+    }
+    
+    /**
+     * Returns the photos changed in the designated time, loading their
+     * directories: from the timeline once it covers the catalog, otherwise
+     * from the store, as last saved. Times are in the format of the renaming
+     * history.
+     * 
+     * @param from						the start of the time, included
+     * @param to						the end of the time, excluded
+     * @return the photos with an entry of their renaming history in the time
+     * @throws IOException				if the store cannot be read
+     */
+    public static List<PhotoNode> findChanged(String from, String to) throws IOException {
+        return loadPhotos(timelineComplete ? timeline.changed(from, to) : store().findChanged(from, to));
+    }
+    
+    /**
+     * Returns the photos with the designated ids, loading the directories of
+     * those that are not loaded yet.
+     */
+    private static List<PhotoNode> loadPhotos(Collection<String> ids) throws IOException {
+        List<PhotoNode> found = new ArrayList<PhotoNode>(ids.size());
+        for (String id : ids) {
+            PhotoNode photo = photos.get(id);
+            if (photo == null) {
+                PhotoNode stored = store().readPhoto(id);
+                if (stored != null && stored.directoryNode() != null) {
+                    load(stored.directoryNode());
+                    photo = photos.get(id);
+                }
+            }
+            if (photo != null) {
+                found.add(photo);
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * Adds photos read from the store, but those whose id is loaded, and
+     * publishes them at once.
+     */
+    private static void add(Collection<PhotoNode> read) {
+        final List<PhotoView> views = new ArrayList<PhotoView>(read.size());
+        for (PhotoNode photo : read) {
+            if (photos.putIfAbsent(photo.getPhotoId(), photo) == null) {
+                photo.directoryNode().addPhoto(photo);
+                index(photo);
+                records.put(photo);
+                timeline.index(photo);
+                views.add(PhotoView.of(photo));
+            }
+        }
+        snapshot.updateAndGet(new UnaryOperator<CatalogSnapshot>() {
+            @Override
+            public CatalogSnapshot apply(CatalogSnapshot current) {
+                for (PhotoView view : views) {
+                    // A photo changed since it was added is published already.
+                    if (current.getPhoto(view.getPhotoId()) == null) {
+                        current = current.with(view);
+                    }
+                }
+                return current;
+            }
+        });
+    }
+    
+    /**
+     * Lets go of the changes of every photo's renaming history that the
+     * designated policy does not keep, and saves the photos changed. A
+     * directory that is not loaded is read, compacted and written back
+     * without being loaded; a thread loading it meanwhile waits and reads it
+     * compacted.
+     * 
+     * @param retention					the policy of the history
+     * @return the number of changes let go
+     * @throws IOException				if the catalog cannot be read or written
+     */
+    public static int compactHistory(final HistoryRetention retention) throws IOException {
+        if (retention.keepsAll()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        for (File directory : store().directories()) {
+            PathTrie.Directory node = PathTrie.directory(directory);
+            final int[] stored = { -1 };
+            loaded.computeIfAbsent(node, new Function<PathTrie.Directory, Boolean>() {
+                @Override
+                public Boolean apply(PathTrie.Directory unloaded) {
+                    stored[0] = compactStored(unloaded, retention, now);
+                    // Left unloaded: no mapping is made for a null.
+                    return null;
+                }
+            });
+            removed += (stored[0] >= 0) ? stored[0] : compactLoaded(node, retention, now);
+        }
+        saveToFile();
+        Metrics.record(Metrics.HISTORY_COMPACT, start);
+        Metrics.counter(Metrics.HISTORY_COMPACTED).addAndGet(removed);
+        if (removed > 0) {
+            logger.log(Level.INFO, "Let go of " + removed + " changes of the renaming history (" + retention + ").");
+        }
+        return removed;
+    }
+    
+    /**
+     * Compacts the history of the photos of a directory that is not loaded,
+     * in the store.
+     */
+    private static int compactStored(PathTrie.Directory directory, HistoryRetention retention, long now) {
+        try {
+            Map<String, PhotoNode> read = store().readDirectory(directory.getFile());
+            int removed = 0;
+            for (PhotoNode photo : read.values()) {
+                int expired = photo.compactHistory(retention, now);
+                if (expired > 0) {
+                    removed += expired;
+                    timeline.index(photo);
+                }
+            }
+            if (removed > 0) {
+                synchronized (saveLock) {
+                    store().writeDirectory(directory.getFile(), read.values());
+                }
+            }
+            return removed;
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Cannot compact the photos of " + directory.getFile(), ex);
+            return 0;
+        }
+    }
+    
+    /**
+     * Compacts the history of the photos of a loaded directory, each under
+     * its lock, and publishes those changed.
+     */
+    private static int compactLoaded(PathTrie.Directory directory, HistoryRetention retention, long now) {
+        int removed = 0;
+        for (PhotoNode photo : directory.getPhotos()) {
+            ReentrantLock lock = PhotoLocks.lockFor(photo);
+            lock.lock();
+            try {
+                int expired = photo.compactHistory(retention, now);
+                if (expired > 0) {
+                    removed += expired;
+                    changed.add(directory);
+                    timeline.index(photo);
+                    publish(photo);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Saves the photos of the directories changed since the last save.
+     * 
+     * @throws IOException				if the photos cannot be written
      */
     public static void saveToFile() throws IOException {
-        OutputStream file = new FileOutputStream(filePath);
-        OutputStream buffer = new BufferedOutputStream(file);
-        ObjectOutput output = new ObjectOutputStream(buffer);
-
-        // serialize the Map
-        output.writeObject(photos);
-        output.close();
+        if (deferSave()) {
+            return;
+        }
+        synchronized (saveLock) {
+            long start = System.nanoTime();
+            CatalogStore current = store();
+            for (Iterator<PathTrie.Directory> pending = changed.iterator(); pending.hasNext();) {
+                PathTrie.Directory directory = pending.next();
+                // Removed first, so that a change made while the directory is
+                // written is saved the next time.
+                pending.remove();
+                try {
+                    current.writeDirectory(directory.getFile(), directory.getPhotos());
+                } catch (IOException ex) {
+                    changed.add(directory);
+                    throw ex;
+                }
+            }
+            Metrics.record(Metrics.PHOTOS_SAVE, start);
+        }
+    }
+    
+    /**
+     * Starts a batch of changes. Until the matching endBatch, saves are only noted
+     * and the files are written once at the end. Batches may be nested.
+     */
+    public static synchronized void beginBatch() {
+        batchDepth++;
     }
     
     /**
-     * Adds a new photo to this photos HashMap and updates the serializable file.
+     * Ends a batch of changes started by beginBatch and writes the files if they
+     * were saved during the batch and this was the outermost batch.
+     * 
+     * @throws IOException		if a file cannot be written
+     */
+    public static synchronized void endBatch() throws IOException {
+        batchDepth--;
+        if (batchDepth == 0 && savePending) {
+            savePending = false;
+            saveToFile();
+        }
+    }
+    
+    /**
+     * Notes a save if a batch is running.
+     * 
+     * @return	whether the save is deferred to the end of the batch
+     */
+    private static synchronized boolean deferSave() {
+        if (batchDepth > 0) {
+            savePending = true;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Adds a new photo to this photos HashMap and updates the shard of its
+     * directory.
      * 
      * @param photo			the PhotoNode to be added
      * @throws IOException
      */
 	public static void appendPhoto(PhotoNode photo) throws IOException {
-		photos.put(photo.getInitialName(), photo);
+		PathTrie.Directory directory = photo.directoryNode();
+		if (directory != null) {
+			// Loaded first, so that the shard written keeps its other photos.
+			load(directory);
+			directory.addPhoto(photo);
+			changed.add(directory);
+		}
+		photos.put(photo.getPhotoId(), photo);
+		index(photo);
+		records.put(photo);
+		timeline.index(photo);
 		saveToFile();
-        logger.log(Level.FINE, "Added a new photo in TagManager" + photo.getName());
-        logger.log(Level.FINE, "All photos: " + printAllPhotos());
+		// Guarded so that no message, and above all no listing of the whole
+		// catalog, is built unless it is actually logged.
+		if (logger.isLoggable(Level.FINE)) {
+			logger.log(Level.FINE, "Added a new photo in TagManager" + photo.getName());
+		}
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.log(Level.FINEST, "All photos: " + printAllPhotos());
+		}
 	}
 	
 	/**
-     * Deletes the photo from this photos HashMap and updates the serializable file.
+     * Deletes the photo from this photos HashMap and updates the shard of its
+     * directory.
      * 
      * @param photo			the PhotoNode to be removed
      * @throws IOException
      */
 	public static void removePhoto(PhotoNode photo) throws IOException {
-		photos.remove(photo.getInitialName());
+		photos.remove(photo.getPhotoId());
+		records.remove(photo.getPhotoId());
+		timeline.remove(photo.getPhotoId());
+		PathTrie.Directory directory = photo.directoryNode();
+		if (directory != null) {
+			directory.removePhoto(photo.getPhotoId(), photo);
+			changed.add(directory);
+		}
+		if (photo.getDirectory() != null) {
+			idsByPath.remove(pathOf(photo), photo.getPhotoId());
+		}
+		if (photo.getFingerprint() != null) {
+			idsByFingerprint.remove(photo.getFingerprint(), photo.getPhotoId());
+		}
 		saveToFile();
-        logger.log(Level.FINE, "Deleted photo " + photo.getName());
+		if (logger.isLoggable(Level.FINE)) {
+			logger.log(Level.FINE, "Deleted photo " + photo.getName());
+		}
+	}
+	
+	/**
+	 * Adds the designated photo to the indexes by path and by fingerprint.
+	 * 
+	 * @param	photo	the photo
+	 */
+	private static void index(PhotoNode photo) {
+		if (photo.getDirectory() != null) {
+			idsByPath.put(pathOf(photo), photo.getPhotoId());
+		}
+		if (photo.getFingerprint() != null) {
+			idsByFingerprint.put(photo.getFingerprint(), photo.getPhotoId());
+		}
+	}
+	
+	/**
+	 * Returns the record of the photo with the designated id, among the
+	 * photos loaded or indexed.
+	 * 
+	 * @param	photoId	the id of the photo being searched
+	 * @return 			a new PhotoRecord of the photo, or null if it has none
+	 */
+	public static PhotoRecord findPhoto(String photoId) {
+		PhotoRecord record = new PhotoRecord();
+		return findPhoto(photoId, record) ? record : null;
+	}
+	
+	/**
+	 * Points the designated PhotoRecord at the photo with the designated id,
+	 * so that photos are looked up one after another with one record.
+	 * 
+	 * @param	photoId	the id of the photo being searched
+	 * @param	record	the record to point at it
+	 * @return			whether the photo was found; if not, the record is
+	 * 					left as it was
+	 */
+	public static boolean findPhoto(String photoId, PhotoRecord record) {
+		return records.find(photoId, record);
+	}
+	
+	/**
+	 * Returns the latest published state of the catalog. It does not change,
+	 * so it can be read without locks while photos are being changed.
+	 * 
+	 * @return	the latest snapshot
+	 */
+	public static CatalogSnapshot snapshot() {
+		return snapshot.get();
+	}
+	
+	/**
+	 * Publishes the designated photo as it is now in a new snapshot. The
+	 * caller holds the photo's lock, so that the views of a photo are
+	 * published in the order of its changes.
+	 * 
+	 * @param	photo	the changed photo
+	 */
+	public static void publish(PhotoNode photo) {
+		publish(photo, null);
+	}
+	
+	/**
+	 * Publishes the designated photo as it is now, replacing it under its
+	 * former id, if any.
+	 */
+	private static void publish(PhotoNode photo, final String formerId) {
+		final PhotoView view = PhotoView.of(photo);
+		snapshot.updateAndGet(new UnaryOperator<CatalogSnapshot>() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot current) {
+				return ((formerId != null) ? current.without(formerId) : current).with(view);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the initial name of the designated photo file, that is its name
+	 * without the tags.
+	 * 
+	 * @param	file	the photo file, under its initial or current name
+	 * @return			the initial name of the photo
+	 */
+	public static String initialNameOf(File file) {
+		return TagNameCodec.local().parse(file.getName()).initialName();
+	}
+	
+	/**
+	 * Returns the path of the designated photo file under its initial name,
+	 * which is the same whether the file is named with or without its tags.
+	 * 
+	 * @param	file	the photo file, under its initial or current name
+	 * @return			the path of the file under its initial name
+	 */
+	public static String pathOf(File file) {
+		return new File(file.getParentFile(), initialNameOf(file)).getPath();
+	}
+	
+	private static String pathOf(PhotoNode photo) {
+		return new File(photo.getDirectory(), photo.getInitialName()).getPath();
+	}
+	
+	/**
+	 * Returns the PhotoNode of the designated photo file, or a new PhotoNode
+	 * for it if it has not been operated on yet. The photo is looked up by the
+	 * id of the file, then by its content if the file got a new id since; a
+	 * file that does not exist, such as a tagged photo named by its initial
+	 * name, is looked up by its path.
+	 * <p>
+	 * A photo found under another name or in another directory is pointed at
+	 * the file, unless the file only took over the inode of the photo's
+	 * deleted file and has other content. The change is saved with the
+	 * photo's next change.
+	 * 
+	 * @param	file	the photo file, under its initial or current name
+	 * @return			the corresponding PhotoNode
+	 */
+	public static PhotoNode findOrCreate(File file) {
+		load(file.getAbsoluteFile().getParentFile());
+		String initName = initialNameOf(file);
+		if (!file.exists()) {
+			String id = idsByPath.get(pathOf(file));
+			PhotoNode photo = (id != null) ? photos.get(id) : null;
+			return (photo != null) ? photo : newPhoto(initName, file, null);
+		}
+		String id = PhotoId.of(file, initName);
+		PhotoNode photo = photos.get(id);
+		if (photo != null && !isFileOf(photo, file) && RenameQueue.fileOf(photo).exists()) {
+			// Another file has the id: a copy of the photo on a file system
+			// without file keys, or a file given the number of a deleted one,
+			// in which case the photo moves to the id its file has now.
+			if (PhotoId.isFingerprint(id)) {
+				id = PhotoId.byPath(file, initName);
+			} else {
+				File current = RenameQueue.fileOf(photo);
+				String currentId = PhotoId.of(current, photo.getInitialName());
+				if (!currentId.equals(id)) {
+					reidentify(photo, current, currentId, photo.getFingerprint());
+				}
+			}
+			photo = photos.get(id);
+		}
+		String fingerprint = null;
+		if (photo != null && !isFileOf(photo, file) && !PhotoId.isFingerprint(id) && photo.getFingerprint() != null) {
+			// The file has the key of a photo whose file is gone: the photo
+			// moved, or the file took over the inode of a deleted one, in
+			// which case it does not have the photo's content and the photo
+			// keeps its path instead of the key.
+			fingerprint = PhotoId.fingerprint(file);
+			if (!photo.getFingerprint().equals(fingerprint)) {
+				File current = RenameQueue.fileOf(photo);
+				reidentify(photo, current, PhotoId.byPath(current, photo.getInitialName()), photo.getFingerprint());
+				photo = null;
+			}
+		}
+		if (photo != null && photo.getFingerprint() != null) {
+			fingerprint = photo.getFingerprint();
+		} else if (fingerprint == null) {
+			fingerprint = PhotoId.fingerprint(file);
+		}
+		if (photo == null && fingerprint != null) {
+			photo = candidate(idsByFingerprint.get(fingerprint), file);
+		}
+		if (photo == null) {
+			// A photo known by its path, as in catalogs of earlier versions
+			// whose files could not be read.
+			photo = candidate(idsByPath.get(pathOf(file)), file);
+		}
+		if (photo == null) {
+			return newPhoto(initName, file, fingerprint);
+		}
+		if (!isFileOf(photo, file) || !id.equals(photo.getPhotoId()) || photo.getFingerprint() == null) {
+			reidentify(photo, file, id, fingerprint);
+		}
+		return photo;
+	}
+	
+	/**
+	 * Returns the photo with the designated id if the designated file may be
+	 * its file: its own file is gone, or is that file. A photo whose file is
+	 * still there is another copy.
+	 */
+	private static PhotoNode candidate(String photoId, File file) {
+		PhotoNode photo = (photoId != null) ? photos.get(photoId) : null;
+		if (photo != null && (isFileOf(photo, file) || !RenameQueue.fileOf(photo).exists())) {
+			return photo;
+		}
+		return null;
+	}
+	
+	private static PhotoNode newPhoto(String initName, File file, String fingerprint) {
+		PhotoNode photo = new PhotoNode(initName, null, file);
+		photo.identify(photo.getPhotoId(), fingerprint);
+		return photo;
+	}
+	
+	/**
+	 * Returns whether the designated file is the photo's file, under its
+	 * current name or, while its rename is queued, on disk.
+	 */
+	private static boolean isFileOf(PhotoNode photo, File file) {
+		File absolute = file.getAbsoluteFile();
+		return photo.getCurrentFile().getAbsoluteFile().equals(absolute)
+				|| RenameQueue.fileOf(photo).getAbsoluteFile().equals(absolute);
+	}
+	
+	/**
+	 * Points the designated photo at its file, under the id and fingerprint
+	 * of the file, and moves it to that id in this manager, in its tags and
+	 * in the snapshot.
+	 */
+	private static void reidentify(PhotoNode photo, File file, String id, String fingerprint) {
+		ReentrantLock lock = PhotoLocks.lockFor(photo);
+		lock.lock();
+		try {
+			String formerId = photo.getPhotoId();
+			PathTrie.Directory formerDirectory = photo.directoryNode();
+			if (photo.getDirectory() != null) {
+				idsByPath.remove(pathOf(photo), formerId);
+			}
+			if (photo.getFingerprint() != null) {
+				idsByFingerprint.remove(photo.getFingerprint(), formerId);
+			}
+			if (!isFileOf(photo, file)) {
+				photo.relocate(file);
+			}
+			photo.identify(id, fingerprint);
+			if (photos.remove(formerId, photo)) {
+				photos.put(id, photo);
+				index(photo);
+				records.remove(formerId);
+				records.put(photo);
+				timeline.remove(formerId);
+				timeline.index(photo);
+				if (formerDirectory != null) {
+					formerDirectory.removePhoto(formerId, photo);
+					changed.add(formerDirectory);
+				}
+				PathTrie.Directory directory = photo.directoryNode();
+				load(directory);
+				directory.addPhoto(photo);
+				changed.add(directory);
+			}
+			if (!formerId.equals(id)) {
+				TagManager.reidentify(photo, formerId);
+				publish(photo, formerId);
+			} else {
+				publish(photo);
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 	
 	/**
-	 * Returns the PhotoNode value with the designated key name.
+	 * Returns all PhotoNodes stored in this PhotoManager.
 	 * 
-	 * @param	name	the name of the PhotoNode being searched
-	 * @return 			the corresponding PhotoNode
+	 * @return	an unmodifiable view of all photos
 	 */
-	public static PhotoNode findPhoto(String name) {
-		return photos.get(name);
+	public static Collection<PhotoNode> getPhotos() {
+		return Collections.unmodifiableCollection(photos.values());
 	}
 	
 	/**
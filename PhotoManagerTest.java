@@ -0,0 +1,151 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * This class provides unit tests for how PhotoManager finds the photo of a file that
+ * changed outside the program.
+ *
+ * @author Zhi Lin
+ */
+public class PhotoManagerTest {
+	/** The directory of the test photos, created for each test. */
+	private File directory;
+
+	/**
+	 * Creates the test directory and resets both managers.
+	 *
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@Before
+	public void setUp() throws IOException, ClassNotFoundException {
+		directory = Files.createTempDirectory("photoManagerTest").toFile();
+		new PhotoManager();
+		new TagManager();
+	}
+
+	/**
+	 * Test that a tagged photo moved to another name outside the program is
+	 * still the same photo, with its tags.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testMovedFileKeepsPhoto() throws IOException {
+		PhotoNode photo = taggedPhoto("moved");
+		File moved = new File(directory, "renamed.jpg");
+		Files.move(photo.getCurrentFile().toPath(), moved.toPath());
+		assumeTrue(hasFileKey(moved));
+
+		PhotoNode found = PhotoManager.findOrCreate(moved);
+		assertSame(photo, found);
+		assertEquals(moved.getAbsoluteFile(), found.getCurrentFile().getAbsoluteFile());
+		assertTrue(found.getTags().containsKey("x"));
+	}
+
+	/**
+	 * Test that a file with the inode of a deleted photo, but other content,
+	 * is a new photo and does not inherit the tags and history of the old one.
+	 * The file is the photo's file moved and rewritten in place, so that it
+	 * keeps the inode whatever the file system reuses.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testReusedInodeIsNewPhoto() throws IOException {
+		PhotoNode photo = taggedPhoto("reused");
+		String formerId = photo.getPhotoId();
+		File other = new File(directory, "other.jpg");
+		Files.move(photo.getCurrentFile().toPath(), other.toPath());
+		write(other, "other content");
+		assumeTrue(hasFileKey(other));
+		assertEquals(formerId, PhotoId.of(other, "other.jpg"));
+
+		PhotoNode found = PhotoManager.findOrCreate(other);
+		assertNotSame(photo, found);
+		assertEquals(formerId, found.getPhotoId());
+		assertTrue(found.getTags().isEmpty());
+		assertEquals("other.jpg", found.getName());
+		assertFalse(formerId.equals(photo.getPhotoId()));
+	}
+
+	/**
+	 * Deletes the test directory and the tags of the test photos.
+	 *
+	 * @throws FileNotFoundException
+	 */
+	@After
+	public void tearDown() throws FileNotFoundException {
+		RenameQueue.flushQuietly();
+		delete(directory);
+		TagManager.getTags().clear();
+		PrintWriter printWriter = new PrintWriter(TagManager.getFilepath());
+		printWriter.close();
+	}
+
+	/**
+	 * Returns the photo of a new file with the designated base name, tagged
+	 * x, with its rename written.
+	 */
+	private PhotoNode taggedPhoto(String name) throws IOException {
+		File file = new File(directory, name + ".jpg");
+		write(file, "the content of " + name);
+		PhotoNode photo = PhotoManager.findOrCreate(file);
+		photo.addTag(new Tag("x"));
+		RenameQueue.flush();
+		assertTrue(photo.getCurrentFile().exists());
+		return photo;
+	}
+
+	/**
+	 * Returns whether the file system identifies the file by a file key, as
+	 * the inode, which these tests are about.
+	 */
+	private static boolean hasFileKey(File file) {
+		String id = PhotoId.of(file, file.getName());
+		return !PhotoId.isFingerprint(id) && !id.equals(PhotoId.byPath(file, file.getName()));
+	}
+
+	/**
+	 * Writes the text to the file in place, keeping its inode.
+	 */
+	private static void write(File file, String text) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Delete file and its contents.
+	 *
+	 * @param file
+	 *            the file to delete.
+	 */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
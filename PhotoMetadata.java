@@ -0,0 +1,140 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+
+/*
+ * The header information of a photo: its dimensions, EXIF orientation, capture time and
+ * the location of the embedded EXIF thumbnail, if any. Instances are produced by
+ * ImageHeaderReader without decoding any pixels.
+ * <p>
+ * Only the location of the thumbnail is kept so that storing the metadata of a large
+ * library stays small; readThumbnail fetches the bytes when they are needed.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class PhotoMetadata implements Serializable {
+
+	private static final long serialVersionUID = 4126519304617398765L;
+
+	/** The value of fields that are not present in the header. */
+	public static final int UNKNOWN = -1;
+	/** The largest payload of a JPEG segment, which holds the EXIF thumbnail. */
+	static final int MAX_SEGMENT_LENGTH = 65535;
+
+	private final int width;
+	private final int height;
+	private final int orientation;
+	private final long captureTime;
+	private final long thumbnailOffset;
+	private final int thumbnailLength;
+
+	/**
+	 * Constructor for the PhotoMetadata object.
+	 *
+	 * @param width
+	 *            the width in pixels, or UNKNOWN
+	 * @param height
+	 *            the height in pixels, or UNKNOWN
+	 * @param orientation
+	 *            the EXIF orientation from 1 to 8, 1 being upright
+	 * @param captureTime
+	 *            the capture time in epoch milliseconds, or UNKNOWN
+	 * @param thumbnailOffset
+	 *            the offset of the embedded JPEG thumbnail in the file, or
+	 *            UNKNOWN
+	 * @param thumbnailLength
+	 *            the length of the embedded JPEG thumbnail, or 0
+	 */
+	public PhotoMetadata(int width, int height, int orientation, long captureTime, long thumbnailOffset,
+			int thumbnailLength) {
+		this.width = width;
+		this.height = height;
+		this.orientation = orientation;
+		this.captureTime = captureTime;
+		this.thumbnailOffset = thumbnailOffset;
+		this.thumbnailLength = thumbnailLength;
+	}
+
+	/**
+	 * @return the width in pixels, or UNKNOWN
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height in pixels, or UNKNOWN
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the EXIF orientation from 1 to 8, 1 being upright
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * @return the capture time in epoch milliseconds, or UNKNOWN
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/**
+	 * @return whether the photo carries an embedded JPEG thumbnail
+	 */
+	public boolean hasThumbnail() {
+		return thumbnailOffset != UNKNOWN && thumbnailLength > 0;
+	}
+
+	/**
+	 * Reads the bytes of the embedded JPEG thumbnail from the photo file.
+	 *
+	 * @param photo
+	 *            the photo file this metadata was read from
+	 * @return the JPEG bytes of the thumbnail, or null if there is none or
+	 *         it does not fit in a JPEG segment and the file
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public byte[] readThumbnail(File photo) throws IOException {
+		if (!hasThumbnail()) {
+			return null;
+		}
+		RandomAccessFile file = new RandomAccessFile(photo, "r");
+		try {
+			if (thumbnailLength > MAX_SEGMENT_LENGTH || thumbnailOffset + thumbnailLength > file.length()) {
+				return null;
+			}
+			byte[] thumbnail = new byte[thumbnailLength];
+			file.seek(thumbnailOffset);
+			file.readFully(thumbnail);
+			return thumbnail;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns a reader-friendly description of the dimensions and capture
+	 * time.
+	 *
+	 * @return the string representation
+	 */
+	@Override
+	public String toString() {
+		String result = (width == UNKNOWN) ? "unknown size" : width + " x " + height;
+		if (captureTime != UNKNOWN) {
+			result += ", taken " + new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(captureTime);
+		}
+		return result;
+	}
+}
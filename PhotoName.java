@@ -0,0 +1,208 @@
+package photo_renamer;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * The file name of a photo held as its parts: the id of its base, the ids of its tags in
+ * order and the id of its extension, all in NameTable. A name of a photo with a long
+ * history costs a small int array instead of a string repeating the base and the tags,
+ * and the string is only built when a rename or a window needs it.
+ * <p>
+ * Parsing keeps every '@' segment, even empty or repeated ones, so toString() gives back
+ * exactly the name parsed: that is the name of the file on disk. The names made by
+ * withTag and withoutTag are canonical, as TagNameCodec writes them.
+ * <p>
+ * A PhotoName is immutable. It is serialized as its string, since ids only hold in one
+ * run, and parsed again when read.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class PhotoName implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int[] NO_TAGS = new int[0];
+
+	private final int base;
+	private final int[] tags;
+	private final int extension;
+
+	private PhotoName(int base, int[] tags, int extension) {
+		this.base = base;
+		this.tags = tags;
+		this.extension = extension;
+	}
+
+	/**
+	 * Returns the designated file name as parts.
+	 *
+	 * @param fileName
+	 *            a file name, without directories
+	 * @return the name
+	 */
+	public static PhotoName of(String fileName) {
+		TagNameCodec codec = TagNameCodec.local().parse(fileName);
+		int count = codec.tagCount();
+		int[] tags = (count == 0) ? NO_TAGS : new int[count];
+		for (int i = 0; i < count; i++) {
+			tags[i] = NameTable.id(codec.tag(i));
+		}
+		return new PhotoName(NameTable.id(codec.base()), tags, NameTable.id(codec.extension()));
+	}
+
+	/**
+	 * Returns the name with the designated tag after the others, or this name
+	 * if it has the tag already.
+	 *
+	 * @param tag
+	 *            the tag to add
+	 * @return the new name
+	 */
+	public PhotoName withTag(String tag) {
+		if (hasTag(tag)) {
+			return this;
+		}
+		int[] canonical = canonicalTags(-1);
+		int[] added = Arrays.copyOf(canonical, canonical.length + 1);
+		added[canonical.length] = NameTable.id(tag);
+		return new PhotoName(base, added, extension);
+	}
+
+	/**
+	 * Returns the name without the designated tag, or this name if it does
+	 * not have the tag.
+	 *
+	 * @param tag
+	 *            the tag to delete
+	 * @return the new name
+	 */
+	public PhotoName withoutTag(String tag) {
+		if (!hasTag(tag)) {
+			return this;
+		}
+		return new PhotoName(base, canonicalTags(NameTable.id(tag)), extension);
+	}
+
+	/**
+	 * @param tag
+	 *            the name of a tag
+	 * @return whether this name has the tag
+	 */
+	public boolean hasTag(String tag) {
+		for (int id : tags) {
+			if (NameTable.part(id).equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the tags of this name, each once, in order
+	 */
+	public List<String> getTagNames() {
+		int[] canonical = canonicalTags(-1);
+		List<String> names = new ArrayList<String>(canonical.length);
+		for (int id : canonical) {
+			names.add(NameTable.part(id));
+		}
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * @return the name without tags, which is the photo's initial name
+	 */
+	public String getInitialName() {
+		return NameTable.part(base) + NameTable.part(extension);
+	}
+
+	/**
+	 * @return the tag ids of this name without empty and repeated tags, and
+	 *         without the tag with the designated id
+	 */
+	private int[] canonicalTags(int leftOut) {
+		int[] canonical = new int[tags.length];
+		int count = 0;
+		int empty = NameTable.id("");
+		for (int id : tags) {
+			if (id == leftOut || id == empty || contains(canonical, count, id)) {
+				continue;
+			}
+			canonical[count++] = id;
+		}
+		return (count == tags.length) ? tags : Arrays.copyOf(canonical, count);
+	}
+
+	private static boolean contains(int[] ids, int count, int id) {
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the file name
+	 */
+	@Override
+	public String toString() {
+		String baseName = NameTable.part(base);
+		String extensionName = NameTable.part(extension);
+		int length = baseName.length() + extensionName.length();
+		for (int id : tags) {
+			length += NameTable.part(id).length() + 1;
+		}
+		StringBuilder name = new StringBuilder(length).append(baseName);
+		for (int id : tags) {
+			name.append(TagNameCodec.PREFIX).append(NameTable.part(id));
+		}
+		return name.append(extensionName).toString();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof PhotoName)) {
+			return false;
+		}
+		PhotoName name = (PhotoName) other;
+		return base == name.base && extension == name.extension && Arrays.equals(tags, name.tags);
+	}
+
+	@Override
+	public int hashCode() {
+		return (base * 31 + extension) * 31 + Arrays.hashCode(tags);
+	}
+
+	/**
+	 * Writes this name as its string.
+	 */
+	private Object writeReplace() {
+		return new SerializedName(toString());
+	}
+
+	private void readObject(ObjectInputStream in) throws InvalidObjectException {
+		throw new InvalidObjectException("A PhotoName is read through its SerializedName.");
+	}
+
+	/*
+	 * The serialized form of a PhotoName.
+	 */
+	private static final class SerializedName implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final String name;
+
+		SerializedName(String name) {
+			this.name = name;
+		}
+
+		private Object readResolve() {
+			return PhotoName.of(name);
+		}
+	}
+}
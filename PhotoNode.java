@@ -5,16 +5,17 @@ import java.util.Date;
 import java.text.SimpleDateFormat;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.HashMap;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.ParseException;
-import java.util.logging.FileHandler;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,6 +28,26 @@ import java.util.logging.Logger;
  * name, current set of tags, all history of renaming operations and many methods to change the 
  * data and update the necessary serializable file.
  * 
+ * Adding and deleting tags and reverting hold the photo's lock from PhotoLocks, so the
+ * operations on one photo run one at a time while different photos can be tagged in
+ * parallel. The tags and the history are ConcurrentHashMaps, so they can be read
+ * while an operation runs; each operation ends, even when it fails, by publishing the
+ * photo's state to PhotoManager.snapshot() for readers that need it consistent.
+ * <p>
+ * The current name and every name of the history are PhotoNames, whose bases and tags
+ * are shared through NameTable, so a long history costs an entry per change and not a
+ * copy of the photo; the name strings are built when a file is renamed or shown.
+ * <p>
+ * The parent of a PhotoNode is the node of its directory in PathTrie, shared by all the
+ * photos of the directory, and its file is built from it and the current name. The tags
+ * are written by name and the directory by path, so a photo is written without the
+ * photos of its tags and of its directory.
+ * <p>
+ * The file is renamed through RenameQueue: renames of a photo in quick succession are
+ * written as one, and until then RenameQueue.fileOf is the file on disk. The rename is
+ * queued before the photo changes, so a missing file or a name taken fails the
+ * operation and leaves the photo and the catalog as they were.
+ * 
  * @author Zhiyu Liang
  * @author Zhi Lin
  */
@@ -34,9 +55,12 @@ public class PhotoNode extends FileNode implements Serializable {
 
 	private static final long serialVersionUID = -1380943893375531698L;
 	private static final Logger logger = Logger.getLogger(PhotoNode.class.getName());
-	private static final String renameLogPath = "./renamed_history.txt";
-	private static final FileHandler fileHanderler = addHandler(renameLogPath);
-	private static final DateFormat dateFormatter = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+	private static final ThreadLocal<DateFormat> dateFormatter = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+		}
+	};
 
 	private String lastModifiedDate;
 	private final String firstModificationDate;
@@ -45,9 +69,14 @@ public class PhotoNode extends FileNode implements Serializable {
 	public final static String ADD_MODE = "ADD";
 	public final static String DELETE_MODE = "DELETE";
 
-	private Map<String, Tag> tags;
-	private Map<String, PhotoNode> renamingHistory;
-	public File file;
+	private transient Map<String, Tag> tags;
+	/** The names of the tags, written in place of the tags. */
+	private String[] tagNames;
+	private Map<String, PhotoName> renamingHistory;
+	private PhotoName photoName;
+	private String photoId;
+	private String fingerprint;
+	private PhotoMetadata metadata;
 	public static final FileType filetype = FileType.PHOTO;
 
 	/**
@@ -57,26 +86,68 @@ public class PhotoNode extends FileNode implements Serializable {
 	 * @param originalName
 	 *            the current name when declaring a new PhotoNode
 	 * @param parent
-	 *            the parent node of this photoNode
+	 *            the parent node of this photoNode, if it has no file
 	 * @param file
 	 *            the actual photo file in the system corresponding to this
-	 *            PhotoNode
+	 *            PhotoNode; the node of its directory becomes the parent
 	 */
 	public PhotoNode(String originalName, FileNode parent, File file) {
-		super(originalName, parent, filetype);
+		super(null, (file != null) ? PathTrie.directory(file.getAbsoluteFile().getParentFile()) : parent, filetype);
 		this.initialName = originalName;
-		this.tags = new HashMap<String, Tag>();
-		this.renamingHistory = new HashMap<String, PhotoNode>();
-		this.file = file;
+		this.photoName = PhotoName.of(originalName);
+		this.tags = new ConcurrentHashMap<String, Tag>();
+		this.renamingHistory = new ConcurrentHashMap<String, PhotoName>();
+		this.photoId = PhotoId.of(file, originalName);
 		this.lastModifiedDate = "";
 		// Set the firstModificationDate to the time the PhotoNode is created.
 		Date date = new Date();
-		String currentTime = dateFormatter.format(date);
+		String currentTime = dateFormatter.get().format(date);
 		this.firstModificationDate = currentTime;
-		// Associate the handler with the logger.
-		logger.setLevel(Level.ALL);
-		fileHanderler.setLevel(Level.ALL);
-		logger.addHandler(fileHanderler);
+	}
+
+	/**
+	 * Writes this PhotoNode, with the names of its tags.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		this.tagNames = this.tags.keySet().toArray(new String[0]);
+		out.defaultWriteObject();
+	}
+
+	/**
+	 * Reads this PhotoNode. The tags are those of TagManager with the names
+	 * written, or new ones if it has none yet. The directory, name and
+	 * history written by earlier versions, as a FileNode of the path, a
+	 * string and PhotoNodes, are converted, and the tags they wrote whole are
+	 * taken from the name. Photos written before they had ids are identified
+	 * by their file now.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (this.parent != null && !(this.parent instanceof PathTrie.Directory)) {
+			this.parent = PathTrie.directory(new File(this.parent.getName()));
+		}
+		if (this.photoName == null) {
+			this.photoName = PhotoName.of(this.name != null ? this.name : this.initialName);
+			this.name = null;
+		}
+		this.tags = new ConcurrentHashMap<String, Tag>();
+		for (String tagName : (this.tagNames != null) ? Arrays.asList(this.tagNames) : this.photoName.getTagNames()) {
+			Tag tag = TagManager.findTag(tagName);
+			this.tags.put(tagName, (tag != null) ? tag : new Tag(tagName));
+		}
+		this.tagNames = null;
+		Map<String, PhotoName> history = new ConcurrentHashMap<String, PhotoName>();
+		for (Map.Entry<String, ?> entry : ((Map<String, ?>) this.renamingHistory).entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof PhotoNode) {
+				value = ((PhotoNode) value).photoName;
+			}
+			history.put(entry.getKey(), (PhotoName) value);
+		}
+		this.renamingHistory = history;
+		if (this.photoId == null) {
+			this.photoId = PhotoId.of((getDirectory() != null) ? getCurrentFile() : null, this.initialName);
+		}
 	}
 
 	/**
@@ -85,7 +156,8 @@ public class PhotoNode extends FileNode implements Serializable {
 	 * adds the tag to the Photo.
 	 * <p>
 	 * When adding/deleting a new tag to a photo, also adds/deletes photo to the
-	 * tag and rename the actual photo in the system with the tag.
+	 * tag and rename the actual photo in the system with the tag. If the
+	 * TagManager already has a tag with the same name, the photo gets that tag.
 	 * 
 	 * @param t
 	 *            the tag to be added to the photo.
@@ -93,13 +165,21 @@ public class PhotoNode extends FileNode implements Serializable {
 	 *             if failed updating file.
 	 */
 	public void addTag(Tag t) throws IOException {
-		if (this.getLastModifiedDate().equals("")) {
-			initializeRenamingHistory();
+		ReentrantLock lock = PhotoLocks.lockFor(this);
+		lock.lock();
+		try {
+			String oldName = this.getName();
+			PhotoName newPhotoName = this.queueRename(t, ADD_MODE);
+			if (this.getLastModifiedDate().equals("")) {
+				initializeRenamingHistory();
+			}
+			Tag attached = TagManager.attach(t, this);
+			this.tags.put(attached.getName(), attached);
+			this.renamePhoto(oldName, newPhotoName);
+		} finally {
+			PhotoManager.publish(this);
+			lock.unlock();
 		}
-		this.tags.put(t.getName(), t);
-		t.addPhoto(this);
-		TagManager.appendTag(t);
-		this.renamePhoto(t, ADD_MODE);
 	}
 
 	/**
@@ -111,19 +191,29 @@ public class PhotoNode extends FileNode implements Serializable {
 	 * @throws IOException
 	 */
 	public void deleteTag(Tag t) throws IOException {
-		if (this.getLastModifiedDate().equals("")) {
-			initializeRenamingHistory();
+		ReentrantLock lock = PhotoLocks.lockFor(this);
+		lock.lock();
+		try {
+			String oldName = this.getName();
+			PhotoName newPhotoName = this.queueRename(t, DELETE_MODE);
+			if (this.getLastModifiedDate().equals("")) {
+				initializeRenamingHistory();
+			}
+			tags.remove(t.getName());
+			t.deletePhoto(this);
+			TagManager.detach(t.getName(), this);
+			TagManager.tagCleaner();
+			this.renamePhoto(oldName, newPhotoName);
+		} finally {
+			PhotoManager.publish(this);
+			lock.unlock();
 		}
-		tags.remove(t.getName());
-		t.deletePhoto(this);
-		TagManager.tagCleaner();
-		this.renamePhoto(t, DELETE_MODE);
 	}
 
 	/**
-	 * Initialize RenamingHistory to the date of creation corresponding to a
-	 * PhotoNode with this PhotoNode's initial name if no change has been made
-	 * to the PhotoNode.
+	 * Initialize RenamingHistory to the date of creation corresponding to
+	 * this PhotoNode's initial name if no change has been made to the
+	 * PhotoNode.
 	 * <p>
 	 * When initializing RenamingHistory, also set LastModifiedDate to
 	 * firstModificationDate, which is the date of creation.
@@ -132,112 +222,65 @@ public class PhotoNode extends FileNode implements Serializable {
 	 *             if failed updating file.
 	 */
 	private void initializeRenamingHistory() throws IOException {
-		PhotoNode originalCopy = new PhotoNode(this.initialName, this.parent, this.file);
-		Map<String, Tag> emptyMap = new HashMap<String, Tag>();
-		originalCopy.setTags(emptyMap);
-		this.renamingHistory.put(this.firstModificationDate, originalCopy);
+		this.renamingHistory.put(this.firstModificationDate, PhotoName.of(this.initialName));
 		this.setLastModifiedDate(firstModificationDate);
 	}
 
 	/**
 	 * Extends the tag with a '@' prefix to the original Photo name or deletes
-	 * the tag from the original photo name based on the designated mode. After
-	 * renaming process it writes the change to the renaming history of this
-	 * photo for further possible reversion.
+	 * the tag from the original photo name based on the designated mode, and
+	 * queues the rename of the actual photo to the new name. The photo itself
+	 * is not changed. Tags are matched whole, and the new name is canonical,
+	 * as TagNameCodec writes it.
 	 * 
 	 * @param t
 	 *            the tag to be added/deleted from the actual photo name.
 	 * @param mode
 	 *            whether to add or delete the tag from the photo name.
+	 * @return the new name of the photo
 	 * @throws IOException
+	 *             if the file is missing or the new name is taken
 	 */
-	private void renamePhoto(Tag t, String mode) throws IOException {
-		String rootPath = file.getParent();
-		String newName;
-		String suffix = file.getName().substring(file.getName().lastIndexOf("."));
+	private PhotoName queueRename(Tag t, String mode) throws IOException {
+		PhotoName newPhotoName;
 		if (mode == ADD_MODE) {
-			newName = addTagToName(t, suffix);
+			newPhotoName = this.photoName.withTag(t.getName());
 		} else if (mode == DELETE_MODE) {
-			newName = deleteTagFromName(t);
+			newPhotoName = this.photoName.withoutTag(t.getName());
 		} else {
-			newName = this.getName();
+			newPhotoName = this.photoName;
 		}
-		Path base = Paths.get(rootPath);
-		Path filePath = base.resolve(this.getName());
-		this.name = newName;
-		PhotoNode changedPhoto = new PhotoNode(newName, this.parent, this.file);
-		this.recordToHistory(changedPhoto);
-		PhotoManager.appendPhoto(this);
-		Files.move(filePath, filePath.resolveSibling(newName));
-		logger.log(Level.FINE, "Renamed Photo To: " + newName);
+		renameWithNameGiven(newPhotoName.toString());
+		return newPhotoName;
 	}
 
 	/**
-	 * Add tag name with prefix to the PhotoNode name and return it as a String.
+	 * Gives the photo the new name its file was queued to be renamed to, and
+	 * writes the change to the renaming history of this photo for further
+	 * possible reversion and to the catalog.
 	 * 
-	 * @param t
-	 *            Tag object to add tag name from.
-	 * @param suffix
-	 *            suffix of the PhotoNode.
-	 * @return returns updated name.
-	 */
-	private String addTagToName(Tag t, String suffix) {
-		String newName;
-		int suffixIndex = this.getName().lastIndexOf(".");
-		String tagNameWithPrefix = PREFIX + t.getName();
-		if (this.getName().contains(tagNameWithPrefix)) {
-			newName = this.getName();
-		} else {
-			newName = this.getName().substring(0, suffixIndex) + PREFIX + t.getName() + suffix;
-		}
-		return newName;
-	}
-
-	/**
-	 * Delete tag name from the PhotoNode name and return it as a String.
-	 * 
-	 * @param t
-	 *            The tag object, it's name will be deleted from PhotoNode name.
-	 * @return returns updated name.
+	 * @param oldName
+	 *            the name of the photo before the operation
+	 * @param newPhotoName
+	 *            the new name of the photo
+	 * @throws IOException
 	 */
-	private String deleteTagFromName(Tag t) {
-		String newName;
-		if (this.getName().indexOf(t.getName()) != -1) {
-			int suffixStartIndex = this.getName().lastIndexOf(".") + 1;
-			int tagIndex = this.getName().indexOf("@");
-			if (tagIndex != -1) {
-				suffixStartIndex = this.getName().indexOf(t.getName(), tagIndex);
-			}
-			int endIndex = this.getName().indexOf("@", suffixStartIndex);
-			if (endIndex != -1) {
-				newName = this.getName().substring(0, suffixStartIndex - 1) + this.getName().substring(endIndex);
-			} else {
-				endIndex = this.getName().lastIndexOf(".");
-			}
-			newName = this.getName().substring(0, suffixStartIndex - 1) + this.getName().substring(endIndex);
-			return newName;
-		}
-		return this.getName();
+	private void renamePhoto(String oldName, PhotoName newPhotoName) throws IOException {
+		this.photoName = newPhotoName;
+		this.recordToHistory();
+		PhotoManager.appendPhoto(this);
+		RenameAuditLog.record(RenameAuditLog.RENAME, this.getPhotoId(), oldName, this.getName(), this.tags.keySet());
 	}
 
 	/**
 	 * Records current operation on the photo to its renaming history.
-	 * Information includes the time of this operation and the PhotoNode after
-	 * change.
-	 * 
-	 * @param changedPhoto
-	 *            the PhotoNode recorded to the history
-	 * @throws IOException
+	 * Information includes the time of this operation and the name of the
+	 * photo after change, whose tags are the photo's tags.
 	 */
-	public void recordToHistory(PhotoNode changedPhoto) throws IOException {
+	public void recordToHistory() {
 		Date date = new Date();
-		String currentTime = dateFormatter.format(date);
-		Map<String, Tag> currentMap = new HashMap<String, Tag>();
-		for (Map.Entry<String, Tag> entry : this.getTags().entrySet()) {
-			currentMap.put(entry.getKey(), entry.getValue());
-		}
-		changedPhoto.setTags(currentMap);
-		this.renamingHistory.put(currentTime, changedPhoto);
+		String currentTime = dateFormatter.get().format(date);
+		this.renamingHistory.put(currentTime, this.photoName);
 		this.setLastModifiedDate(currentTime);
 	}
 
@@ -251,31 +294,41 @@ public class PhotoNode extends FileNode implements Serializable {
 	 * @throws IOException
 	 */
 	public void revert(String date) throws IOException {
-		PhotoNode destinationNode = this.renamingHistory.get(date);
-		if (destinationNode != null) {
-			renameWithNameGiven(destinationNode.getName());
-			this.setName(destinationNode.getName());
-			for (Map.Entry<String, Tag> entry : destinationNode.getTags().entrySet()) {
-				if (!tags.containsKey(entry.getKey())) {
-					this.addTag(entry.getValue());
+		ReentrantLock lock = PhotoLocks.lockFor(this);
+		lock.lock();
+		try {
+			PhotoName destination = this.renamingHistory.get(date);
+			if (destination != null) {
+				String oldName = this.getName();
+				renameWithNameGiven(destination.toString());
+				this.photoName = destination;
+				for (String tagName : destination.getTagNames()) {
+					if (!tags.containsKey(tagName)) {
+						Tag tag = TagManager.findTag(tagName);
+						this.addTag((tag != null) ? tag : new Tag(tagName));
+					}
 				}
-			}
-			List<Tag> tagsToBeRemoved = new ArrayList<Tag>();
-			for (Map.Entry<String, Tag> entry : this.tags.entrySet()) {
-				if (!(destinationNode.getTags().containsKey(entry.getKey()))) {
-					TagManager.findTag(entry.getKey()).deletePhoto(this);
-					tagsToBeRemoved.add(entry.getValue());
+				List<Tag> tagsToBeRemoved = new ArrayList<Tag>();
+				for (Map.Entry<String, Tag> entry : this.tags.entrySet()) {
+					if (!destination.hasTag(entry.getKey())) {
+						TagManager.detach(entry.getKey(), this);
+						tagsToBeRemoved.add(entry.getValue());
+					}
 				}
+				for (Tag tag : tagsToBeRemoved) {
+					tag.deletePhoto(this);
+					tags.remove(tag.getName());
+				}
+				stashLaterChanges(date);
+				TagManager.tagCleaner();
+				PhotoManager.appendPhoto(this);
+				TagManager.saveToFile(TagManager.getFilepath());
+				RenameAuditLog.record(RenameAuditLog.REVERT, this.getPhotoId(), oldName, this.getName(),
+						this.tags.keySet());
 			}
-			for (Tag tag : tagsToBeRemoved) {
-				tag.deletePhoto(this);
-				tags.remove(tag.getName());
-			}
-			stashLaterChanges(date);
-			TagManager.tagCleaner();
-			PhotoManager.saveToFile();
-			TagManager.saveToFile(TagManager.getFilepath());
-			logger.log(Level.FINE, "Reverted Back To Date: " + date + " with name " + this.getName());
+		} finally {
+			PhotoManager.publish(this);
+			lock.unlock();
 		}
 	}
 
@@ -287,10 +340,10 @@ public class PhotoNode extends FileNode implements Serializable {
 	 */
 	private void stashLaterChanges(String revertedDate) {
 		try {
-			Date thatDay = dateFormatter.parse(revertedDate);
+			Date thatDay = dateFormatter.get().parse(revertedDate);
 			List<String> datesToBeRemoved = new ArrayList<String>();
 			for (String historyDate : this.renamingHistory.keySet()) {
-				Date historyDateDate = dateFormatter.parse(historyDate);
+				Date historyDateDate = dateFormatter.get().parse(historyDate);
 				if (thatDay.before(historyDateDate)) {
 					datesToBeRemoved.add(historyDate);
 				}
@@ -304,19 +357,38 @@ public class PhotoNode extends FileNode implements Serializable {
 		this.setLastModifiedDate(revertedDate);
 	}
 
+	/**
+	 * Lets go of the changes of the renaming history that the designated
+	 * policy does not keep. The caller holds this photo's lock, or is the only
+	 * thread using the photo.
+	 * 
+	 * @param retention
+	 *            the policy of the history
+	 * @param now
+	 *            the time the policy counts days back from, in milliseconds
+	 * @return the number of changes let go
+	 */
+	int compactHistory(HistoryRetention retention, long now) {
+		List<String> expired = retention.expired(this.renamingHistory.keySet(), this.lastModifiedDate, now);
+		for (String date : expired) {
+			this.renamingHistory.remove(date);
+		}
+		return expired.size();
+	}
+
 	/**
 	 * Helper function to rename the actual file in the file system to the
-	 * designated new name.
+	 * designated new name. The rename is queued and checked at once; the
+	 * caller then gives the photo the new name and saves it to the catalog.
 	 * 
 	 * @param name
 	 *            the designated new name of this file.
 	 * @throws IOException
+	 *             if the file is missing or the new name is taken
 	 */
 	public void renameWithNameGiven(String name) throws IOException {
-		Path base = Paths.get(this.file.getParent());
-		Path filePath = base.resolve(this.getName());
-		Files.move(filePath, filePath.resolveSibling(name));
-		PhotoManager.appendPhoto(this);
+		Path filePath = getCurrentFile().toPath();
+		RenameQueue.rename(this, filePath, filePath.resolveSibling(name));
 	}
 
 	/**
@@ -344,6 +416,53 @@ public class PhotoNode extends FileNode implements Serializable {
 		return this.initialName;
 	}
 
+	/**
+	 * Returns the id of this photo, its key in PhotoManager and in the tags.
+	 * It is given by PhotoId and stays the same when the photo is renamed.
+	 * 
+	 * @return the id of this photo
+	 */
+	public String getPhotoId() {
+		return this.photoId;
+	}
+
+	/**
+	 * Returns the fingerprint of this photo's content, by which it is found
+	 * again if its file gets a new id.
+	 * 
+	 * @return the fingerprint, or null if it has not been taken yet
+	 */
+	public String getFingerprint() {
+		return this.fingerprint;
+	}
+
+	/**
+	 * Sets the id and the fingerprint of this photo. Only PhotoManager calls
+	 * it, with the photo's lock held, and updates its maps accordingly.
+	 * 
+	 * @param photoId
+	 *            the new id
+	 * @param fingerprint
+	 *            the fingerprint of the photo's content, or null
+	 */
+	void identify(String photoId, String fingerprint) {
+		this.photoId = photoId;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Points this photo at the designated file, found to be the photo under
+	 * another name or in another directory, and takes the file's name as its
+	 * current name.
+	 * 
+	 * @param file
+	 *            the file of this photo
+	 */
+	void relocate(File file) {
+		this.parent = PathTrie.directory(file.getAbsoluteFile().getParentFile());
+		this.photoName = PhotoName.of(file.getName());
+	}
+
 	/**
 	 * Returns a map of this photo's tag set.
 	 * 
@@ -354,52 +473,95 @@ public class PhotoNode extends FileNode implements Serializable {
 	}
 
 	/**
-	 * Sets this photo's tag set to the designated new tag set and saves the
-	 * change to the serialized file maintained by photoManager class.
+	 * Returns the current name of this photo, built from its PhotoName.
 	 * 
-	 * @param tags
-	 *            the tags to set
-	 * @throws IOException
+	 * @return the current file name of this photo
 	 */
-	private void setTags(Map<String, Tag> tags) throws IOException {
-		this.tags = tags;
-		PhotoManager.saveToFile();
+	@Override
+	public String getName() {
+		return this.photoName.toString();
+	}
+
+	/**
+	 * Sets the current name of this photo, without renaming its file.
+	 * 
+	 * @param name
+	 *            the new file name of this photo
+	 */
+	@Override
+	public void setName(String name) {
+		this.photoName = PhotoName.of(name);
+	}
+
+	/**
+	 * Returns the current name of this photo as its parts.
+	 * 
+	 * @return the current PhotoName of this photo
+	 */
+	public PhotoName getPhotoName() {
+		return this.photoName;
 	}
 
 	/**
 	 * Returns a map of all renaming history of this PhotoNode. Keys are the
-	 * time of changing and values are the complete PhotoNode at the
-	 * corresponding time.
+	 * time of changing and values are the name of the photo at the
+	 * corresponding time; its tags are the tags the photo had.
 	 * 
 	 * @return the renamingHistory map
 	 */
-	public Map<String, PhotoNode> getRenamingHistory() {
+	public Map<String, PhotoName> getRenamingHistory() {
 		return renamingHistory;
 	}
 
 	/**
-	 * @return the firstModificationDate
+	 * Returns the directory of this photo, from its node in PathTrie.
+	 * 
+	 * @return the directory, or null if this photo has no file
 	 */
-	public String getFirstModificationDate() {
-		return firstModificationDate;
+	public File getDirectory() {
+		PathTrie.Directory directory = directoryNode();
+		return (directory != null) ? directory.getFile() : null;
+	}
+
+	/**
+	 * @return the node of this photo's directory, or null if it has no file
+	 */
+	PathTrie.Directory directoryNode() {
+		return (this.parent instanceof PathTrie.Directory) ? (PathTrie.Directory) this.parent : null;
 	}
 
 	/**
-	 * Returns the fileHandler of the logger and updates the logging file.
+	 * Returns the file of this photo under its current name.
 	 * 
-	 * @param filePath
-	 *            the path of the logger file
-	 * @return the file handler
+	 * @return the current file of this photo
 	 */
-	public static FileHandler addHandler(String filePath) {
-		try {
-			// Create a file handler that append log to filePath.
-			FileHandler fileHandler = new FileHandler(filePath, true);
-			return fileHandler;
-		} catch (IOException e) {
-			logger.log(Level.WARNING, "IOException!");
+	public File getCurrentFile() {
+		return new File(getDirectory(), this.getName());
+	}
+
+	/**
+	 * Returns the dimensions, orientation, capture time and thumbnail location
+	 * of this photo. They are read from the header of the file on first use,
+	 * without decoding the photo, and stored with this PhotoNode.
+	 * 
+	 * @return the metadata, or null if the file cannot be read
+	 */
+	public PhotoMetadata getMetadata() {
+		if (this.metadata == null && getDirectory() != null) {
+			try {
+				this.metadata = ImageHeaderReader.read(RenameQueue.fileOf(this));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot read the header of " + this.getName(), e);
+			}
 		}
-		return null;
+		return this.metadata;
+	}
+
+	/**
+	 * @return the firstModificationDate
+	 */
+	public String getFirstModificationDate() {
+		return firstModificationDate;
 	}
 
 	/**
@@ -0,0 +1,112 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.List;
+
+/*
+ * A view of a photo's record in the catalog PhotoManager keeps of every photo it has seen:
+ * its id, directory, name and tags, read in place from the buffers of the catalog rather
+ * than copied. A PhotoRecord is a flyweight: it holds only the id of its photo and where
+ * the record is, and PhotoManager.findPhoto(String, PhotoRecord) points the same one at
+ * photo after photo, so going over a library makes no object per photo.
+ * <p>
+ * A record always reads the photo as it is recorded now, and once the photo is removed
+ * from the catalog reading it throws IllegalStateException. A PhotoRecord is used by one
+ * thread at a time; the catalog under it can be changed meanwhile from any thread.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class PhotoRecord {
+	private OffHeapCatalog catalog;
+	private String photoId;
+	private long address;
+	private long version;
+
+	/**
+	 * Constructor for a record pointing at no photo, to be given to
+	 * PhotoManager.findPhoto(String, PhotoRecord).
+	 */
+	public PhotoRecord() {
+	}
+
+	void bind(OffHeapCatalog catalog, String photoId, long address, long version) {
+		this.catalog = catalog;
+		this.photoId = photoId;
+		this.address = address;
+		this.version = version;
+	}
+
+	long address() {
+		return address;
+	}
+
+	long version() {
+		return version;
+	}
+
+	/**
+	 * @return the id of the photo
+	 */
+	public String getPhotoId() {
+		return photoId;
+	}
+
+	/**
+	 * @return the name of the photo, with its tags
+	 */
+	public String getName() {
+		return catalog().name(this);
+	}
+
+	/**
+	 * @return the directory of the photo, or null if it has no file
+	 */
+	public File getDirectory() {
+		return catalog().directory(this);
+	}
+
+	/**
+	 * @return the file of the photo under its current name, or null if it has
+	 *         no file
+	 */
+	public File getCurrentFile() {
+		File directory = getDirectory();
+		return (directory != null) ? new File(directory, getName()) : null;
+	}
+
+	/**
+	 * @return the names of the photo's tags, in order
+	 */
+	public List<String> getTagNames() {
+		return catalog().tagNames(this);
+	}
+
+	/**
+	 * @param tagName
+	 *            the name of a tag
+	 * @return whether the photo has the tag
+	 */
+	public boolean hasTag(String tagName) {
+		return catalog().hasTag(this, tagName);
+	}
+
+	/**
+	 * @return whether the photo is still in the catalog
+	 */
+	public boolean exists() {
+		return catalog != null && catalog.exists(this);
+	}
+
+	private OffHeapCatalog catalog() {
+		if (catalog == null) {
+			throw new IllegalStateException("The record points at no photo");
+		}
+		return catalog;
+	}
+
+	@Override
+	public String toString() {
+		return (catalog != null) ? photoId : "no photo";
+	}
+}
@@ -141,6 +141,8 @@ public class PhotoRenamer {
 	 * @throws ClassNotFoundException 
 	 */
 	public static void main(String[] args) throws ClassNotFoundException, IOException {
+		Metrics.registerMBean();
+		HistoryCompactor.start();
 		PhotoRenamer.buildWindow().setVisible(true);
 	}
 
@@ -0,0 +1,434 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
+
+/*
+ * The operations of this program on photos: adding and deleting tags, reverting to a
+ * date of the renaming history, and batches of these. Every operation validates its
+ * input, runs on the executor of this service and returns a CompletableFuture, so the
+ * listeners of the windows only adapt the result to Swing, on the event dispatch thread
+ * through ON_EDT, and the same engine serves the windows, BatchRenamer and the
+ * benchmarks.
+ * <p>
+ * Invalid input completes the future exceptionally with an IllegalArgumentException
+ * whose message can be shown to the user; a failed rename with an IOException.
+ * <p>
+ * Each operation holds the lock of its photo from PhotoLocks while it runs, so
+ * operations on different photos run in parallel and operations on the same photo
+ * one at a time.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class PhotoService {
+	/** Runs the completion of a future on the event dispatch thread. */
+	public static final Executor ON_EDT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			SwingUtilities.invokeLater(command);
+		}
+	};
+
+	private static PhotoService shared;
+
+	private final Executor executor;
+
+	/**
+	 * Constructor for a service running its operations on the designated
+	 * executor.
+	 *
+	 * @param executor
+	 *            the executor of the operations
+	 */
+	public PhotoService(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns the service used by the windows. It runs one operation at a
+	 * time, in the order they were requested, on a background thread.
+	 *
+	 * @return the shared service
+	 */
+	public static synchronized PhotoService shared() {
+		if (shared == null) {
+			ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "photo-service");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			shared = new PhotoService(worker);
+		}
+		return shared;
+	}
+
+	/**
+	 * Splits the text typed by the user into tag names, as separated by
+	 * commas.
+	 *
+	 * @param text
+	 *            the typed text
+	 * @return the distinct non-empty tag names, in order
+	 * @throws IllegalArgumentException
+	 *             if there is no tag or a tag contains '@'
+	 */
+	public static List<String> parseTags(String text) {
+		String trimmed = (text == null) ? "" : text.trim();
+		if (trimmed.equals("")) {
+			throw new IllegalArgumentException("Please enter a non-empty tag.");
+		}
+		if (trimmed.indexOf(PhotoNode.PREFIX) != -1) {
+			throw new IllegalArgumentException("Tag should not contain '@' character, please re-enter.");
+		}
+		LinkedHashSet<String> names = new LinkedHashSet<String>();
+		for (String name : trimmed.split(",")) {
+			if (!name.trim().equals("")) {
+				names.add(name.trim());
+			}
+		}
+		if (names.isEmpty()) {
+			throw new IllegalArgumentException("Please enter a non-empty tag.");
+		}
+		return new ArrayList<String>(names);
+	}
+
+	/**
+	 * Adds the tags to the photo, creating the tags that do not exist yet.
+	 * Tags the photo already has are skipped.
+	 *
+	 * @param photo
+	 *            the photo to tag
+	 * @param tagNames
+	 *            the names of the tags
+	 * @return the future of the tag names actually added
+	 */
+	public CompletableFuture<List<String>> addTags(final PhotoNode photo, final Collection<String> tagNames) {
+		return submit(new Supplier<List<String>>() {
+			@Override
+			public List<String> get() {
+				validateNames(tagNames);
+				return addTagsNow(photo, tagNames);
+			}
+		});
+	}
+
+	/**
+	 * Deletes the tags from the photo and drops the tags no photo has any
+	 * more. Tags the photo does not have are skipped.
+	 *
+	 * @param photo
+	 *            the photo to untag
+	 * @param tagNames
+	 *            the names of the tags
+	 * @return the future of the tag names actually deleted
+	 */
+	public CompletableFuture<List<String>> deleteTags(final PhotoNode photo, final Collection<String> tagNames) {
+		return submit(new Supplier<List<String>>() {
+			@Override
+			public List<String> get() {
+				return deleteTagsNow(photo, tagNames);
+			}
+		});
+	}
+
+	/**
+	 * Reverts the photo to the designated date of its renaming history and
+	 * drops the tags no photo has any more.
+	 *
+	 * @param photo
+	 *            the photo to revert
+	 * @param date
+	 *            a date of the renaming history
+	 * @return the future of the photo's name after the revert
+	 */
+	public CompletableFuture<String> revert(final PhotoNode photo, final String date) {
+		return submit(new Supplier<String>() {
+			@Override
+			public String get() {
+				return revertNow(photo, date);
+			}
+		});
+	}
+
+	/**
+	 * Runs a batch of operations. The operations on the same photo run in
+	 * order, different photos in parallel on the executor, and the catalog
+	 * is saved once at the end of the batch, after the files are renamed, one
+	 * rename per photo. A failed operation does not stop the others.
+	 *
+	 * @param operations
+	 *            the operations of the batch
+	 * @return the future of the failed operations with their cause
+	 */
+	public CompletableFuture<Map<Operation, Throwable>> batch(List<Operation> operations) {
+		final Map<Operation, Throwable> failures = Collections
+				.synchronizedMap(new LinkedHashMap<Operation, Throwable>());
+		Map<String, List<Operation>> byPhoto = new LinkedHashMap<String, List<Operation>>();
+		for (Operation operation : operations) {
+			List<Operation> sequence = byPhoto.get(operation.photoKey());
+			if (sequence == null) {
+				sequence = new ArrayList<Operation>();
+				byPhoto.put(operation.photoKey(), sequence);
+			}
+			sequence.add(operation);
+		}
+		PhotoManager.beginBatch();
+		TagManager.beginBatch();
+		List<CompletableFuture<Void>> sequences = new ArrayList<CompletableFuture<Void>>();
+		for (final List<Operation> sequence : byPhoto.values()) {
+			sequences.add(CompletableFuture.runAsync(new Runnable() {
+				@Override
+				public void run() {
+					for (Operation operation : sequence) {
+						try {
+							operation.apply();
+						} catch (IOException | RuntimeException e) {
+							failures.put(operation, e);
+						}
+					}
+				}
+			}, executor));
+		}
+		CompletableFuture<Void> all = CompletableFuture.allOf(sequences.toArray(new CompletableFuture<?>[0]));
+		return all.handle(new BiFunction<Void, Throwable, Map<Operation, Throwable>>() {
+			@Override
+			public Map<Operation, Throwable> apply(Void ignored, Throwable error) {
+				try {
+					try {
+						RenameQueue.flush();
+					} finally {
+						PhotoManager.endBatch();
+						TagManager.endBatch();
+					}
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+				return failures;
+			}
+		});
+	}
+
+	/**
+	 * Returns the message to show the user for the failure of an operation.
+	 *
+	 * @param failure
+	 *            the exception completing the future of the operation
+	 * @return the message of its cause
+	 */
+	public static String messageOf(Throwable failure) {
+		Throwable cause = failure;
+		while (cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return (cause.getMessage() != null) ? cause.getMessage() : cause.toString();
+	}
+
+	/**
+	 * Runs task on the executor, completing the future with its result or
+	 * its exception.
+	 */
+	private <T> CompletableFuture<T> submit(Supplier<T> task) {
+		return CompletableFuture.supplyAsync(task, executor);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a name is empty or contains '@'
+	 */
+	private static void validateNames(Collection<String> tagNames) {
+		for (String name : tagNames) {
+			if (name == null || name.trim().equals("")) {
+				throw new IllegalArgumentException("Please enter a non-empty tag.");
+			}
+			if (name.indexOf(PhotoNode.PREFIX) != -1) {
+				throw new IllegalArgumentException("Tag should not contain '@' character, please re-enter.");
+			}
+		}
+	}
+
+	private static List<String> addTagsNow(PhotoNode photo, Collection<String> tagNames) {
+		List<String> added = new ArrayList<String>();
+		ReentrantLock lock = PhotoLocks.lockFor(photo);
+		lock.lock();
+		try {
+			for (String name : tagNames) {
+				name = name.trim();
+				if (!photo.getTags().containsKey(name)) {
+					Tag tag = TagManager.findTag(name);
+					photo.addTag(tag == null ? new Tag(name) : tag);
+					added.add(name);
+				}
+			}
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		} finally {
+			lock.unlock();
+		}
+		return added;
+	}
+
+	private static List<String> deleteTagsNow(PhotoNode photo, Collection<String> tagNames) {
+		List<String> deleted = new ArrayList<String>();
+		ReentrantLock lock = PhotoLocks.lockFor(photo);
+		lock.lock();
+		try {
+			for (String name : tagNames) {
+				Tag tag = TagManager.findTag(name.trim());
+				if (tag != null && photo.getTags().containsKey(tag.getName())) {
+					photo.deleteTag(tag);
+					deleted.add(tag.getName());
+				}
+			}
+			// Clears all tags with no photo attached to them from the TagManager.
+			TagManager.tagCleaner();
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		} finally {
+			lock.unlock();
+		}
+		return deleted;
+	}
+
+	private static String revertNow(PhotoNode photo, String date) {
+		ReentrantLock lock = PhotoLocks.lockFor(photo);
+		lock.lock();
+		try {
+			if (!photo.getRenamingHistory().containsKey(date)) {
+				throw new IllegalArgumentException("No change of " + photo.getName() + " at " + date);
+			}
+			photo.revert(date);
+			TagManager.tagCleaner();
+			return photo.getName();
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * One operation of a batch, on a photo file named by its initial or its
+	 * current name.
+	 */
+	public static class Operation {
+		public static final String TAG = "tag";
+		public static final String UNTAG = "untag";
+		public static final String REVERT = "revert";
+
+		private final String kind;
+		private final File file;
+		private final String argument;
+		private final List<String> tagNames;
+
+		/**
+		 * Constructor for an operation.
+		 *
+		 * @param kind
+		 *            TAG, UNTAG or REVERT
+		 * @param file
+		 *            the photo file
+		 * @param argument
+		 *            the comma separated tag names, or the date to revert to
+		 * @throws IllegalArgumentException
+		 *             if the kind is unknown or the tags are invalid
+		 */
+		public Operation(String kind, File file, String argument) {
+			if (kind.equals(TAG) || kind.equals(UNTAG)) {
+				this.tagNames = parseTags(argument);
+			} else if (kind.equals(REVERT)) {
+				this.tagNames = Collections.emptyList();
+			} else {
+				throw new IllegalArgumentException("Unknown operation: " + kind);
+			}
+			this.kind = kind;
+			this.file = file.getAbsoluteFile();
+			this.argument = argument;
+		}
+
+		/**
+		 * @return TAG, UNTAG or REVERT
+		 */
+		public String getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return the photo file
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the same key for all operations on the same photo, whether
+		 *         named by initial or current name
+		 */
+		String photoKey() {
+			return PhotoManager.pathOf(file);
+		}
+
+		/**
+		 * Applies this operation to its photo, holding the lock of the photo's
+		 * path from the lookup on, so that two operations naming a new photo
+		 * create it once.
+		 *
+		 * @throws IOException
+		 *             if the photo cannot be renamed
+		 * @throws IllegalArgumentException
+		 *             if the photo or the date does not exist
+		 */
+		void apply() throws IOException {
+			ReentrantLock lock = PhotoLocks.lockForPath(photoKey());
+			lock.lock();
+			try {
+				PhotoNode photo = PhotoManager.findOrCreate(file);
+				if (!RenameQueue.fileOf(photo).exists()) {
+					throw new IllegalArgumentException("No such photo: " + photo.getCurrentFile());
+				}
+				if (kind.equals(TAG)) {
+					addTagsNow(photo, tagNames);
+				} else if (kind.equals(UNTAG)) {
+					deleteTagsNow(photo, tagNames);
+				} else {
+					revertNow(photo, argument);
+				}
+			} catch (CompletionException e) {
+				throw (IOException) e.getCause();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns this operation as a line of BatchRenamer input.
+		 *
+		 * @return the string representation
+		 */
+		@Override
+		public String toString() {
+			return kind + "\t" + file + "\t" + argument;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package photo_renamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/*
+ * An immutable copy of what the windows show of a photo: its names, tags and renaming
+ * history, as of one change. PhotoNode changes in place under its lock; a PhotoView is
+ * taken when a change ends and published in a CatalogSnapshot, so it can be read from
+ * any thread without locks.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class PhotoView {
+	private final String photoId;
+	private final String initialName;
+	private final String name;
+	private final File currentFile;
+	private final String firstModificationDate;
+	private final String lastModifiedDate;
+	private final List<String> tagNames;
+	private final SortedMap<String, String> history;
+
+	private PhotoView(PhotoNode photo) {
+		this.photoId = photo.getPhotoId();
+		this.initialName = photo.getInitialName();
+		this.name = photo.getName();
+		this.currentFile = (photo.getDirectory() != null) ? photo.getCurrentFile() : null;
+		this.firstModificationDate = photo.getFirstModificationDate();
+		this.lastModifiedDate = photo.getLastModifiedDate();
+		List<String> tags = new ArrayList<String>(photo.getTags().keySet());
+		Collections.sort(tags);
+		this.tagNames = Collections.unmodifiableList(tags);
+		// The dates are formatted so that their order as text is their order
+		// in time.
+		SortedMap<String, String> names = new TreeMap<String, String>();
+		for (Map.Entry<String, PhotoName> entry : photo.getRenamingHistory().entrySet()) {
+			names.put(entry.getKey(), entry.getValue().toString());
+		}
+		this.history = Collections.unmodifiableSortedMap(names);
+	}
+
+	/**
+	 * Returns a view of the designated photo as it is now. The caller holds
+	 * the photo's lock, or is the only thread changing the photo.
+	 *
+	 * @param photo
+	 *            the photo
+	 * @return the view of the photo
+	 */
+	public static PhotoView of(PhotoNode photo) {
+		return new PhotoView(photo);
+	}
+
+	/**
+	 * @return the id of the photo
+	 */
+	public String getPhotoId() {
+		return photoId;
+	}
+
+	/**
+	 * @return the initial name of the photo
+	 */
+	public String getInitialName() {
+		return initialName;
+	}
+
+	/**
+	 * @return the current name of the photo
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the file of the photo under its current name, or null if the
+	 *         photo has no file
+	 */
+	public File getCurrentFile() {
+		return currentFile;
+	}
+
+	/**
+	 * @return the date the photo was first selected
+	 */
+	public String getFirstModificationDate() {
+		return firstModificationDate;
+	}
+
+	/**
+	 * @return the date of the last change, or "" if there was none
+	 */
+	public String getLastModifiedDate() {
+		return lastModifiedDate;
+	}
+
+	/**
+	 * @return the names of the photo's tags, sorted
+	 */
+	public List<String> getTagNames() {
+		return tagNames;
+	}
+
+	/**
+	 * Returns the renaming history of the photo: the name it got at each
+	 * date of change, from the oldest date to the latest.
+	 *
+	 * @return the names of the photo by date
+	 */
+	public SortedMap<String, String> getHistory() {
+		return history;
+	}
+}
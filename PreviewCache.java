@@ -0,0 +1,122 @@
+package photo_renamer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * An in-memory cache of decoded display-size previews, bounded by the total number of
+ * bytes held by their pixels rather than by the number of entries.
+ * <p>
+ * Previews evicted from the byte budget are not dropped right away: they are kept behind
+ * soft references and come back for free as long as the garbage collector has not needed
+ * the memory.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class PreviewCache {
+	/** The maximum number of pixel bytes held by strongly referenced previews. */
+	public static final long MAX_BYTES = 64L * 1024 * 1024;
+
+	/** Strongly held previews in least recently used order. */
+	private static final Map<String, BufferedImage> previews = new LinkedHashMap<String, BufferedImage>(16, 0.75f,
+			true);
+	/** Previews evicted from the budget, kept until the garbage collector needs the memory. */
+	private static final Map<String, SoftPreview> evicted = new HashMap<String, SoftPreview>();
+	private static final ReferenceQueue<BufferedImage> cleared = new ReferenceQueue<BufferedImage>();
+	private static long totalBytes;
+
+	/**
+	 * Returns the cached preview with the designated key, or null if it is not
+	 * cached.
+	 *
+	 * @param key
+	 *            the cache key of the photo
+	 * @return the cached preview, or null
+	 */
+	public static synchronized BufferedImage get(String key) {
+		BufferedImage image = previews.get(key);
+		if (image != null) {
+			return image;
+		}
+		purge();
+		SoftPreview reference = evicted.remove(key);
+		if (reference != null && (image = reference.get()) != null) {
+			// Promotes the preview back into the budget.
+			put(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Caches the preview under the designated key and evicts the least
+	 * recently used previews to soft references while over budget.
+	 *
+	 * @param key
+	 *            the cache key of the photo
+	 * @param image
+	 *            the display-size preview
+	 */
+	public static synchronized void put(String key, BufferedImage image) {
+		BufferedImage previous = previews.put(key, image);
+		if (previous != null) {
+			totalBytes -= sizeOf(previous);
+		}
+		evicted.remove(key);
+		totalBytes += sizeOf(image);
+		Iterator<Map.Entry<String, BufferedImage>> it = previews.entrySet().iterator();
+		while (totalBytes > MAX_BYTES && it.hasNext()) {
+			Map.Entry<String, BufferedImage> eldest = it.next();
+			if (eldest.getKey().equals(key)) {
+				// Never evicts the preview just added, even if it is over budget alone.
+				continue;
+			}
+			it.remove();
+			totalBytes -= sizeOf(eldest.getValue());
+			evicted.put(eldest.getKey(), new SoftPreview(eldest.getKey(), eldest.getValue(), cleared));
+		}
+		purge();
+	}
+
+	/**
+	 * Returns the number of bytes held by the pixels of the image.
+	 *
+	 * @param image
+	 *            the image to measure
+	 * @return the size of the image's pixel data in bytes
+	 */
+	public static long sizeOf(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	/**
+	 * Forgets the soft references cleared by the garbage collector.
+	 */
+	private static void purge() {
+		SoftPreview reference;
+		while ((reference = (SoftPreview) cleared.poll()) != null) {
+			if (evicted.get(reference.key) == reference) {
+				evicted.remove(reference.key);
+			}
+		}
+	}
+
+	/*
+	 * A soft reference to an evicted preview that remembers its cache key.
+	 */
+	private static class SoftPreview extends SoftReference<BufferedImage> {
+		private final String key;
+
+		SoftPreview(String key, BufferedImage image, ReferenceQueue<BufferedImage> queue) {
+			super(image, queue);
+			this.key = key;
+		}
+	}
+}
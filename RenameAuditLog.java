@@ -0,0 +1,588 @@
+package photo_renamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * The audit log of all renaming operations, stored as line-delimited JSON AuditRecords
+ * in one segment file per day under ./audit, e.g. audit/audit-2016-11-02.ndjson.
+ * <p>
+ * Each segment has a small index next to it (audit-2016-11-02.idx) holding the time
+ * range of the segment and the byte offsets of the records of each photo, so that
+ * findByPhoto reads only the matching lines and findBetween only opens the segments of
+ * the days in range. An index that is missing or older than its segment, e.g. after a
+ * crash, is rebuilt from the segment on first use.
+ * <p>
+ * Recording an operation only captures its fields into a record and puts it in a
+ * bounded ring buffer; formatting and writing happen on a background thread. If the
+ * writer falls behind and the buffer is full, new records are counted and dropped, and
+ * a DROPPED record with the count is written instead. Records only leave the buffer
+ * under the lock of the segments, so a flush or a query never misses a record the
+ * writer has taken and not written yet.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class RenameAuditLog {
+	private static final Logger logger = Logger.getLogger(RenameAuditLog.class.getName());
+	private static final String directoryPath = "./audit";
+	private static final String SEGMENT_PREFIX = "audit-";
+	private static final String SEGMENT_SUFFIX = ".ndjson";
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final int CAPACITY = 8192;
+	private static final int BATCH_SIZE = 512;
+
+	public final static String RENAME = "RENAME";
+	public final static String REVERT = "REVERT";
+	public final static String DROPPED = "DROPPED";
+
+	private static final BlockingQueue<AuditRecord> buffer = new ArrayBlockingQueue<AuditRecord>(CAPACITY);
+	private static final AtomicLong dropped = new AtomicLong();
+	/** Released for each buffered record, to wake the writer without a lock. */
+	private static final Semaphore available = new Semaphore(0);
+	/** Set once the writer is started; read without a lock by record. */
+	private static volatile Thread writerThread;
+	private static final Object startLock = new Object();
+	/** Guards the segments and their files, and is held across their I/O. */
+	private static final Object segmentLock = new Object();
+	/** The segment of the current day, open for appending. */
+	private static Segment active;
+
+	static {
+		// Audits by default; logging configuration can still turn it off.
+		if (logger.getLevel() == null) {
+			logger.setLevel(Level.FINE);
+		}
+	}
+
+	/**
+	 * Records an operation on a photo. Returns immediately without formatting
+	 * or any I/O. Nothing is recorded unless the logger of this class is
+	 * loggable at Level.FINE.
+	 *
+	 * @param operation
+	 *            the kind of operation, RENAME or REVERT
+	 * @param photoId
+	 *            the PhotoId of the photo
+	 * @param oldName
+	 *            the name of the photo before the operation
+	 * @param newName
+	 *            the name of the photo after the operation
+	 * @param tags
+	 *            the tags of the photo after the operation
+	 */
+	public static void record(String operation, String photoId, String oldName, String newName,
+			Collection<String> tags) {
+		if (!logger.isLoggable(Level.FINE)) {
+			return;
+		}
+		ensureStarted();
+		AuditRecord record = new AuditRecord(System.currentTimeMillis(), operation, photoId, oldName, newName,
+				new ArrayList<String>(tags));
+		if (buffer.offer(record)) {
+			available.release();
+		} else {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes all buffered records and the index of the current segment.
+	 * Called on shutdown and before every query.
+	 */
+	public static void flush() {
+		synchronized (segmentLock) {
+			List<AuditRecord> batch = new ArrayList<AuditRecord>();
+			buffer.drainTo(batch);
+			write(batch);
+			if (active != null) {
+				try {
+					active.saveIndex();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Cannot write the index of " + active.data, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns all recorded operations on the photo, oldest first. Only the
+	 * indexed lines of each segment are read.
+	 *
+	 * @param photoId
+	 *            the PhotoId of the photo
+	 * @return the operations on the photo
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public static List<AuditRecord> findByPhoto(String photoId) throws IOException {
+		synchronized (segmentLock) {
+			flush();
+			List<AuditRecord> result = new ArrayList<AuditRecord>();
+			for (String day : days()) {
+				Segment segment = segment(day);
+				List<Long> offsets = segment.offsets.get(photoId);
+				if (offsets != null) {
+					result.addAll(segment.readAt(offsets));
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Returns all operations recorded between from and to, inclusive, oldest
+	 * first. Segments of other days, or whose indexed time range does not
+	 * overlap, are not read.
+	 *
+	 * @param from
+	 *            the start of the range in epoch milliseconds
+	 * @param to
+	 *            the end of the range in epoch milliseconds
+	 * @return the operations in the range
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	public static List<AuditRecord> findBetween(long from, long to) throws IOException {
+		synchronized (segmentLock) {
+			flush();
+			List<AuditRecord> result = new ArrayList<AuditRecord>();
+			String firstDay = day(from);
+			String lastDay = day(to);
+			for (String day : days()) {
+				if (day.compareTo(firstDay) < 0 || day.compareTo(lastDay) > 0) {
+					continue;
+				}
+				Segment segment = segment(day);
+				if (segment.maxTime < from || segment.minTime > to) {
+					continue;
+				}
+				for (AuditRecord record : segment.scan(0, null)) {
+					if (record.getTime() >= from && record.getTime() <= to) {
+						result.add(record);
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Starts the background writer and the shutdown hook on first use. Once
+	 * started, this takes no lock.
+	 */
+	private static void ensureStarted() {
+		if (writerThread != null) {
+			return;
+		}
+		synchronized (startLock) {
+			if (writerThread == null) {
+				start();
+			}
+		}
+	}
+
+	private static void start() {
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				List<AuditRecord> batch = new ArrayList<AuditRecord>(BATCH_SIZE);
+				while (true) {
+					try {
+						available.acquire();
+					} catch (InterruptedException e) {
+						return;
+					}
+					try {
+						synchronized (segmentLock) {
+							// The records drained by a flush leave their permits
+							// behind, which only wake the writer for nothing.
+							available.drainPermits();
+							buffer.drainTo(batch, BATCH_SIZE);
+							write(batch);
+							if (!buffer.isEmpty()) {
+								// Their permits were drained with the others.
+								available.release();
+							}
+						}
+					} catch (RuntimeException e) {
+						// Thrown on, it would end the writer and leave the
+						// records to pile up in the buffer.
+						logger.log(Level.SEVERE, "Cannot write to the audit log", e);
+					}
+					batch.clear();
+				}
+			}
+		}, "rename-audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}));
+		writerThread = writer;
+	}
+
+	/**
+	 * Appends the records to the segments of their days, rotating to a new
+	 * segment when the day changes. Must hold segmentLock.
+	 *
+	 * @param batch
+	 *            the records to write
+	 */
+	private static void write(List<AuditRecord> batch) {
+		long lost = dropped.getAndSet(0);
+		if (lost > 0) {
+			batch.add(new AuditRecord(System.currentTimeMillis(), DROPPED, "", "", lost + " records",
+					Collections.<String> emptyList()));
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			for (AuditRecord record : batch) {
+				String day = day(record.getTime());
+				if (active == null || !active.day.equals(day)) {
+					if (active != null) {
+						active.close();
+					}
+					active = segment(day);
+					active.openForAppend();
+				}
+				active.append(record);
+			}
+			active.out.flush();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot write to the audit log", e);
+		}
+	}
+
+	/**
+	 * Returns the segment of the day with its index loaded, reusing the active
+	 * segment when it is the one asked for.
+	 *
+	 * @param day
+	 *            the day of the segment, as yyyy-MM-dd
+	 * @return the segment
+	 * @throws IOException
+	 *             if the index cannot be loaded
+	 */
+	private static Segment segment(String day) throws IOException {
+		if (active != null && active.day.equals(day)) {
+			return active;
+		}
+		Segment segment = new Segment(day);
+		segment.loadIndex();
+		return segment;
+	}
+
+	/**
+	 * @return the days that have a segment, oldest first
+	 */
+	private static List<String> days() {
+		List<String> days = new ArrayList<String>();
+		String[] names = new File(directoryPath).list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					days.add(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+				}
+			}
+		}
+		Collections.sort(days);
+		return days;
+	}
+
+	/**
+	 * @param time
+	 *            a time in epoch milliseconds
+	 * @return the local day of the time, as yyyy-MM-dd
+	 */
+	private static String day(long time) {
+		DateFormat dayFormatter = new SimpleDateFormat("yyyy-MM-dd");
+		return dayFormatter.format(new Date(time));
+	}
+
+	/*
+	 * The segment file of one day together with its index.
+	 */
+	private static class Segment {
+		private final String day;
+		private final File data;
+		private final File indexFile;
+		/** The byte offsets of the records of each photo. */
+		private final Map<String, List<Long>> offsets = new HashMap<String, List<Long>>();
+		/** The number of bytes of the segment covered by the index. */
+		private long length;
+		private long minTime = Long.MAX_VALUE;
+		private long maxTime = Long.MIN_VALUE;
+		private OutputStream out;
+
+		Segment(String day) {
+			this.day = day;
+			this.data = new File(directoryPath, SEGMENT_PREFIX + day + SEGMENT_SUFFIX);
+			this.indexFile = new File(directoryPath, SEGMENT_PREFIX + day + INDEX_SUFFIX);
+		}
+
+		/**
+		 * Loads the index file and indexes whatever part of the segment it
+		 * does not cover yet.
+		 *
+		 * @throws IOException
+		 *             if the files cannot be read
+		 */
+		void loadIndex() throws IOException {
+			if (indexFile.exists()) {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8));
+				try {
+					String[] header = reader.readLine().split("\t");
+					length = Long.parseLong(header[0]);
+					minTime = Long.parseLong(header[1]);
+					maxTime = Long.parseLong(header[2]);
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int tab = line.indexOf('\t');
+						List<Long> photoOffsets = new ArrayList<Long>();
+						for (String offset : line.substring(0, tab).split(",")) {
+							photoOffsets.add(Long.parseLong(offset));
+						}
+						offsets.put(unescape(line.substring(tab + 1)), photoOffsets);
+					}
+				} catch (RuntimeException e) {
+					// A damaged index is rebuilt from the segment.
+					offsets.clear();
+					length = 0;
+					minTime = Long.MAX_VALUE;
+					maxTime = Long.MIN_VALUE;
+				} finally {
+					reader.close();
+				}
+			}
+			if (data.length() > length) {
+				List<Long> positions = new ArrayList<Long>();
+				List<AuditRecord> records = scan(length, positions);
+				for (int i = 0; i < records.size(); i++) {
+					length = positions.get(i);
+					index(records.get(i));
+				}
+				length = positions.get(positions.size() - 1);
+				saveIndex();
+			}
+		}
+
+		/**
+		 * Writes the index next to the segment.
+		 *
+		 * @throws IOException
+		 *             if the index cannot be written
+		 */
+		void saveIndex() throws IOException {
+			PrintWriter writer = new PrintWriter(
+					new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8));
+			try {
+				writer.print(length + "\t" + minTime + "\t" + maxTime + "\n");
+				for (Map.Entry<String, List<Long>> entry : offsets.entrySet()) {
+					StringBuilder line = new StringBuilder();
+					for (Long offset : entry.getValue()) {
+						if (line.length() > 0) {
+							line.append(',');
+						}
+						line.append(offset);
+					}
+					writer.print(line.append('\t').append(escape(entry.getKey())).append('\n'));
+				}
+			} finally {
+				writer.close();
+			}
+		}
+
+		/**
+		 * Opens the segment for appending after its last complete record. A
+		 * partial record left by a crash is ended first, so that it stays a
+		 * line of its own, skipped when read.
+		 *
+		 * @throws IOException
+		 *             if the segment cannot be opened
+		 */
+		void openForAppend() throws IOException {
+			data.getParentFile().mkdirs();
+			boolean partial = false;
+			if (data.length() > 0) {
+				RandomAccessFile file = new RandomAccessFile(data, "r");
+				try {
+					file.seek(file.length() - 1);
+					partial = file.read() != '\n';
+				} finally {
+					file.close();
+				}
+			}
+			out = new BufferedOutputStream(new FileOutputStream(data, true));
+			if (partial) {
+				out.write('\n');
+				out.flush();
+			}
+			length = data.length();
+		}
+
+		void append(AuditRecord record) throws IOException {
+			byte[] line = (record.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+			out.write(line);
+			index(record);
+			length += line.length;
+		}
+
+		void close() throws IOException {
+			out.close();
+			saveIndex();
+		}
+
+		/**
+		 * Adds the record, located at the current end of the segment, to the
+		 * index.
+		 */
+		private void index(AuditRecord record) {
+			List<Long> photoOffsets = offsets.get(record.getPhotoId());
+			if (photoOffsets == null) {
+				photoOffsets = new ArrayList<Long>();
+				offsets.put(record.getPhotoId(), photoOffsets);
+			}
+			photoOffsets.add(length);
+			minTime = Math.min(minTime, record.getTime());
+			maxTime = Math.max(maxTime, record.getTime());
+		}
+
+		/**
+		 * Reads the records at the designated byte offsets.
+		 */
+		List<AuditRecord> readAt(List<Long> recordOffsets) throws IOException {
+			List<AuditRecord> records = new ArrayList<AuditRecord>();
+			RandomAccessFile file = new RandomAccessFile(data, "r");
+			try {
+				ByteArrayOutputStream line = new ByteArrayOutputStream();
+				for (long offset : recordOffsets) {
+					file.seek(offset);
+					line.reset();
+					int b;
+					while ((b = file.read()) != -1 && b != '\n') {
+						line.write(b);
+					}
+					AuditRecord record = parse(line);
+					if (record != null) {
+						records.add(record);
+					}
+				}
+			} finally {
+				file.close();
+			}
+			return records;
+		}
+
+		/**
+		 * Reads all complete records from the designated byte offset on.
+		 * Malformed lines, such as a record cut short by a crash, are logged
+		 * and skipped.
+		 *
+		 * @param start
+		 *            the offset of the first record to read
+		 * @param positions
+		 *            receives the offset of each record read, followed by the
+		 *            offset just past the last complete record; may be null
+		 * @return the records read
+		 */
+		List<AuditRecord> scan(long start, List<Long> positions) throws IOException {
+			List<AuditRecord> records = new ArrayList<AuditRecord>();
+			InputStream in = new BufferedInputStream(new FileInputStream(data));
+			try {
+				long skipped = 0;
+				while (skipped < start) {
+					skipped += in.skip(start - skipped);
+				}
+				long position = start;
+				ByteArrayOutputStream line = new ByteArrayOutputStream();
+				int b;
+				while ((b = in.read()) != -1) {
+					if (b != '\n') {
+						line.write(b);
+						continue;
+					}
+					AuditRecord record = parse(line);
+					if (record != null) {
+						records.add(record);
+						if (positions != null) {
+							positions.add(position);
+						}
+					}
+					position += line.size() + 1;
+					line.reset();
+				}
+				if (positions != null) {
+					positions.add(position);
+				}
+			} finally {
+				in.close();
+			}
+			return records;
+		}
+
+		/**
+		 * @return the record of the line, or null, logged, if the line is
+		 *         not one
+		 */
+		private AuditRecord parse(ByteArrayOutputStream line) {
+			String json = new String(line.toByteArray(), StandardCharsets.UTF_8);
+			try {
+				return AuditRecord.fromJson(json);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Skipping a malformed line of " + data + ": " + json, e);
+				return null;
+			}
+		}
+
+		private static String escape(String id) {
+			return id.replace("\\", "\\\\").replace("\n", "\\n");
+		}
+
+		private static String unescape(String id) {
+			StringBuilder result = new StringBuilder(id.length());
+			for (int i = 0; i < id.length(); i++) {
+				char c = id.charAt(i);
+				if (c == '\\' && i + 1 < id.length()) {
+					c = id.charAt(++i) == 'n' ? '\n' : id.charAt(i);
+				}
+				result.append(c);
+			}
+			return result.toString();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * The renames of the photos' files, written behind the catalog. Adding and deleting tags
+ * and reverting change the catalog at once and leave the file to this queue, which keeps
+ * one rename per photo: from the file on disk to the latest name of the photo. A photo
+ * tagged and untagged again before the queue is flushed is not renamed at all, and a
+ * photo given five tags is renamed once.
+ * <p>
+ * The queue is flushed once no rename has been queued for rename.quietMillis
+ * milliseconds, 500 by default, or at the latest rename.maxDelayMillis, 5000 by default,
+ * after the first rename it holds, so that steady editing still reaches the disk. It is
+ * flushed by a background thread, on demand with flush, when PhotoManager forgets its
+ * photos, and on shutdown. With rename.quietMillis set to 0 every rename is done when it is queued. A
+ * rename is checked when it is queued, as Files.move would check it, so a missing file or
+ * a name taken fails the operation and not the flush; a rename that still fails later is
+ * logged and counted in rename.failed.
+ * <p>
+ * Until it is flushed, the file of a photo with a queued rename is not getCurrentFile()
+ * but fileOf(photo); PhotoManager matches files to photos with it.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class RenameQueue {
+	private static final Logger logger = Logger.getLogger(RenameQueue.class.getName());
+	private static final long QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("rename.quietMillis", 500));
+	private static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(Long.getLong("rename.maxDelayMillis", 5000));
+
+	/** The queued renames by photo; PhotoNodes are equal only to themselves. */
+	private static final Map<PhotoNode, Rename> pending = new ConcurrentHashMap<PhotoNode, Rename>();
+	/** The photos by the target of their queued rename, guarded by the class. */
+	private static final Map<Path, PhotoNode> targets = new HashMap<Path, PhotoNode>();
+	private static long firstQueued;
+	private static long lastQueued;
+	private static Thread flusher;
+
+	private RenameQueue() {
+	}
+
+	/**
+	 * Queues the rename of the designated photo's file to target, replacing the
+	 * rename queued for the photo, if any. A rename back to the file on disk
+	 * cancels the queued one. The caller holds the photo's lock.
+	 *
+	 * @param photo
+	 *            the photo
+	 * @param source
+	 *            the file of the photo in the catalog before the rename
+	 * @param target
+	 *            the new file of the photo
+	 * @throws IOException
+	 *             if the file on disk is missing or the target is taken, or,
+	 *             when renames are not written behind, if the rename fails
+	 */
+	public static synchronized void rename(PhotoNode photo, Path source, Path target) throws IOException {
+		Rename queued = pending.get(photo);
+		Path onDisk = (queued != null) ? queued.source : source;
+		if (target.equals(onDisk)) {
+			if (queued != null) {
+				cancel(photo, queued);
+				Metrics.increment(Metrics.RENAME_COALESCED);
+			}
+			return;
+		}
+		if (!Files.exists(onDisk)) {
+			throw new NoSuchFileException(onDisk.toString());
+		}
+		PhotoNode owner = targets.get(target);
+		if (Files.exists(target) || (owner != null && owner != photo)) {
+			throw new FileAlreadyExistsException(target.toString());
+		}
+		if (queued != null) {
+			targets.remove(queued.target);
+			Metrics.increment(Metrics.RENAME_COALESCED);
+		}
+		if (pending.isEmpty()) {
+			firstQueued = System.nanoTime();
+		}
+		pending.put(photo, new Rename(onDisk, target));
+		targets.put(target, photo);
+		if (QUIET_NANOS == 0) {
+			flush();
+			return;
+		}
+		lastQueued = System.nanoTime();
+		ensureStarted();
+		RenameQueue.class.notifyAll();
+	}
+
+	/**
+	 * Returns the file of the designated photo on disk: the source of its
+	 * queued rename, or its current file if none is queued.
+	 *
+	 * @param photo
+	 *            the photo
+	 * @return the file of the photo on disk
+	 */
+	public static File fileOf(PhotoNode photo) {
+		Rename queued = pending.get(photo);
+		return (queued != null) ? queued.source.toFile() : photo.getCurrentFile();
+	}
+
+	/**
+	 * @return the number of renames queued
+	 */
+	public static int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Renames the files of all queued renames. Every rename is tried; those
+	 * that fail are logged and dropped.
+	 *
+	 * @throws IOException
+	 *             the failure of the first rename that failed
+	 */
+	public static synchronized void flush() throws IOException {
+		IOException failure = null;
+		for (Iterator<Map.Entry<PhotoNode, Rename>> i = pending.entrySet().iterator(); i.hasNext();) {
+			Rename rename = i.next().getValue();
+			i.remove();
+			targets.remove(rename.target);
+			long start = System.nanoTime();
+			try {
+				Files.move(rename.source, rename.target);
+				Metrics.record(Metrics.RENAME_MOVE, start);
+			} catch (IOException e) {
+				Metrics.increment(Metrics.RENAME_FAILED);
+				logger.log(Level.SEVERE, "Cannot rename " + rename.source + " to " + rename.target, e);
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Renames the files of all queued renames, leaving the failures to the
+	 * log.
+	 */
+	static synchronized void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			// Logged with its rename by flush.
+		}
+	}
+
+	private static void cancel(PhotoNode photo, Rename queued) {
+		pending.remove(photo);
+		targets.remove(queued.target);
+	}
+
+	/**
+	 * Starts the background flusher and the shutdown hook on first use.
+	 */
+	private static void ensureStarted() {
+		if (flusher != null) {
+			return;
+		}
+		flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (RenameQueue.class) {
+					while (true) {
+						try {
+							long now = System.nanoTime();
+							long wait = Math.min(QUIET_NANOS - (now - lastQueued), MAX_DELAY_NANOS - (now - firstQueued));
+							if (pending.isEmpty()) {
+								RenameQueue.class.wait();
+							} else if (wait > 0) {
+								TimeUnit.NANOSECONDS.timedWait(RenameQueue.class, wait);
+							} else {
+								flushQuietly();
+							}
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}
+		}, "rename-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushQuietly();
+			}
+		}, "rename-queue-shutdown"));
+	}
+
+	/*
+	 * A queued rename: the file of the photo on disk and the file it is
+	 * renamed to.
+	 */
+	private static final class Rename {
+		private final Path source;
+		private final Path target;
+
+		Rename(Path source, Path target) {
+			this.source = source;
+			this.target = target;
+		}
+	}
+}
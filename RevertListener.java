@@ -2,13 +2,15 @@ package photo_renamer;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.IOException;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
 
 /*
@@ -75,18 +77,27 @@ public class RevertListener implements ActionListener {
 	 *            the event object
 	 */
 	public void actionPerformed(ActionEvent e) {
-		try {
-			this.photo.revert(this.date);
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
+		// Reverts in the background and shows the result once done.
+		PhotoService.shared().revert(this.photo, this.date).whenCompleteAsync(new BiConsumer<String, Throwable>() {
+			@Override
+			public void accept(String name, Throwable failure) {
+				if (failure != null) {
+					JOptionPane.showMessageDialog(null, PhotoService.messageOf(failure));
+				}
+				showReverted();
+			}
+		}, PhotoService.ON_EDT);
+	}
 
-		// Clears all tags with no photo attached to them from the TagManager.
-		try {
-			TagManager.tagCleaner();
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
+	/**
+	 * Rebuilds the tag lists and the revert options from the reverted photo
+	 * and shows its name.
+	 */
+	private void showReverted() {
+		// Reads everything shown from one snapshot of the catalog. A photo
+		// that is not in it has never been changed.
+		CatalogSnapshot catalog = PhotoManager.snapshot();
+		PhotoView view = catalog.getPhoto(this.photo.getPhotoId());
 
 		// Reconstructs the ListModel of all used tags.
 		allListModel.clear();
@@ -96,27 +107,31 @@ public class RevertListener implements ActionListener {
 
 		// Reconstructs the ListModel of this photo's tags.
 		thisListModel.clear();
-		for (String thisTags : photo.getTags().keySet()) {
-			thisListModel.addElement(thisTags);
-		}
+		if (view != null) {
+			for (String thisTags : view.getTagNames()) {
+				thisListModel.addElement(thisTags);
+			}
 
-		// Removes later dates from the menu option
-		this.revertOptions.removeAll();
+			// Removes later dates from the menu option
+			this.revertOptions.removeAll();
 
-		// Updates the renaming history.
-		for (String date : this.photo.getRenamingHistory().keySet()) {
-			JMenuItem newMenuItem = new JMenuItem(date + "--> " + this.photo.getRenamingHistory().get(date).getName());
-			this.revertOptions.add(newMenuItem);
-			ActionListener revertBackToDate = new RevertListener(photo, date, revertOptions, thisListModel,
-					allListModel, thisList, allList, photoFrame, imageNameIndicator);
-			newMenuItem.addActionListener(revertBackToDate);
+			// Updates the renaming history, from the oldest date.
+			for (Map.Entry<String, String> change : view.getHistory().entrySet()) {
+				String date = change.getKey();
+				JMenuItem newMenuItem = new JMenuItem(date + "--> " + change.getValue());
+				this.revertOptions.add(newMenuItem);
+				ActionListener revertBackToDate = new RevertListener(photo, date, revertOptions, thisListModel,
+						allListModel, thisList, allList, photoFrame, imageNameIndicator);
+				newMenuItem.addActionListener(revertBackToDate);
+			}
 		}
 
 		// Repaints the window and updates the photo's name to show the effect
 		// of this change to the user.
 		photoFrame.getContentPane().validate();
 		photoFrame.getContentPane().repaint();
-		imageNameIndicator.setText(TEXT_SEPARATOR + this.photo.getName() + TEXT_SEPARATOR);
+		String name = (view != null) ? view.getName() : this.photo.getName();
+		imageNameIndicator.setText(TEXT_SEPARATOR + name + TEXT_SEPARATOR);
 	}
 
 }
\ No newline at end of file
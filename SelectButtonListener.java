@@ -3,15 +3,16 @@ package photo_renamer;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Container;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -32,6 +33,7 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
@@ -42,6 +44,7 @@ import javax.swing.event.ListSelectionListener;
  * @ Zhiyu Liang
  */
 public class SelectButtonListener implements ActionListener{
+	private static final Logger logger = Logger.getLogger(SelectButtonListener.class.getName());
 	/** The window the button is in. */
 	private JFrame directoryFrame;
 	/** The label for the full path to the chosen directory. */
@@ -61,6 +64,8 @@ public class SelectButtonListener implements ActionListener{
     private static final String DELETE_STRING = "Delete Tag";
     private static final String ADD_FROM_EXISTING = "Add Existing Tag";
     private static final String TEXT_SEPARATOR = "            ";
+    private static final String LOADING_STRING = "Loading photo...";
+    private static final String UNREADABLE_STRING = "This photo cannot be displayed.";
 
 	/**
 	 * An action listener for window dirFrame, displaying a file path on
@@ -95,221 +100,214 @@ public class SelectButtonListener implements ActionListener{
 		// Chooses a photo to edit.
 		int returnVal = fileChooser.showOpenDialog(directoryFrame.getContentPane());
 		if (returnVal == JFileChooser.APPROVE_OPTION) {
-			File file = fileChooser.getSelectedFile();
+			final File file = fileChooser.getSelectedFile();
 			if (file.exists()) {
-				directoryLabel.setText("Selected Photo: " + file.getAbsolutePath());
-				// parent file node.
-				FileNode parent = new FileNode(file.getParent(), null, FileType.DIRECTORY);
-				// find the photoNode in photoManager, if not, build a new fileNode.
-				String fileName = file.getName();
-				String initName = fileName;
-				int startIndex = fileName.indexOf("@");
-				// check if the photo has any tags.
-				if (startIndex != -1) {
-					int endIndex = fileName.lastIndexOf(".");
-					String taggedPart = fileName.substring(startIndex, endIndex);
-					initName = fileName.replace(taggedPart, "");
-				}
-				try {
-					// All methods in photoManager and TagManager are static,
-					// So creating another manager instance won't effect the saved file.
-					pm = new PhotoManager();
-					tm = new TagManager();
-				} catch (ClassNotFoundException | IOException e1) {
-					e1.printStackTrace();
-				} 
-				// Assigns this photo to the selected photo.
-				if (PhotoManager.findPhoto(initName) == null) {
-					this.photo = new PhotoNode(initName, parent, file);
-				} else {
-					this.photo = PhotoManager.findPhoto(initName);	
-				}
-				
-				// another window for editing tags.
-				this.directoryFrame.setVisible(false);
-				JFrame editingPhoto = new JFrame("Photo Editing Mode");
-				editingPhoto.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-				
-				// the panel to show the name of the photo and meaning of the JLists.
-				JPanel indicatorPanel = new JPanel(new BorderLayout());
-				JTextArea tagManagerIndicator = new JTextArea("This list shows all currently used tags");
-				tagManagerIndicator.setEditable(false);
-				JTextArea thisTagsIndicator = new JTextArea("This list shows all tags of this photo");
-				thisTagsIndicator.setEditable(false);
-				JTextArea imageNameIndicator = new JTextArea(TEXT_SEPARATOR + this.photo.getName() + TEXT_SEPARATOR);
-				imageNameIndicator.setEditable(false);
-				
-				// Add the indicators together.
-				indicatorPanel.add(tagManagerIndicator, BorderLayout.WEST);
-				indicatorPanel.add(thisTagsIndicator, BorderLayout.EAST);
-				indicatorPanel.add(imageNameIndicator, BorderLayout.CENTER);
-				
-				// the panel to display the photo.
-				JPanel imagePanel = new JPanel();
-				BufferedImage img = null;
-				try {
-					img = ImageIO.read(file);
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-				
-				// Resizes the image to fit this window.
-				BufferedImage resizedImage = resize(img);
-				ImageIcon icon = new ImageIcon(resizedImage);
-				JLabel imageLabel = new JLabel(icon, JLabel.CENTER);
-				imagePanel.add(imageLabel);
-				
-				// Builds the text field to enter a tag.
-				tagName = new JTextField(10);
-				
-				// Sets up the JList for this photo's tags.
-				DefaultListModel<String> thisListModel = new DefaultListModel<String>();
-				for (String tag : this.photo.getTags().keySet()) {
-					thisListModel.addElement(tag);
-				}
-				
-				// Creates a JList for displaying this photo's tags and put it into a scroll pane.
-				thisList = new JList<String>(thisListModel);
-				thisList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-				thisList.setVisibleRowCount(10);
-				JScrollPane thisListScrollPane = new JScrollPane(thisList);
-				
-				// Sets up the JList for all currently available tags.
-				DefaultListModel<String> allListModel = new DefaultListModel<String>();
-				for (String tag : TagManager.getTags().keySet()) {
-					allListModel.addElement(tag);
-				}
-				
-				// Creates a JList and puts it into a scroll pane.
-				allList = new JList<String>(allListModel);
-				allList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-				allList.setVisibleRowCount(10);
-				JScrollPane allListScrollPane = new JScrollPane(allList);
-				
-				// Sets up the menu for reversion.
-				JMenuBar menuBar = new JMenuBar();
-				JMenu revertOptions = new JMenu("Revert Change To");
-				menuBar.add(revertOptions);
-				JMenuItem newMenuItem = new JMenuItem(this.photo.getFirstModificationDate() + "--> " + this.photo.getInitialName());
-				revertOptions.add(newMenuItem);
-				ActionListener revertBackToDate = new RevertListener(this.photo, this.photo.getFirstModificationDate(), revertOptions,
-						thisListModel, allListModel, thisList, allList, editingPhoto, imageNameIndicator);
-				newMenuItem.addActionListener(revertBackToDate);
-				
-				// Sets up the menu for going back to choose another photo or directory.
-				JMenu goBack = new JMenu("Go Back..");
-				menuBar.add(goBack);
-				JMenuItem selectAnotherPhoto = new JMenuItem("Select Another Photo");
-				JMenuItem viewPhotos = new JMenuItem("View All Photos Under A Directory");
-				goBack.add(selectAnotherPhoto);
-				goBack.add(viewPhotos);
-				ActionListener goBackToPreviousPage = new GoBackListener(directoryFrame, editingPhoto);
-				selectAnotherPhoto.addActionListener(goBackToPreviousPage);
-				viewPhotos.addActionListener(goBackToPreviousPage);
-				
-				// Sets up the add tag button.
-				JButton addTagButton = new JButton(ADD_STRING);
-				addTagButton.setActionCommand(ADD_STRING);
-				addTagButton.addActionListener(new AddTagButtonListener(tagName, photo, thisListModel, thisList, allListModel, 
-						allList, editingPhoto, revertOptions, imageNameIndicator));
-				
-				// Sets up the delete tag button.
-				deleteTagButton = new JButton(DELETE_STRING);
-				deleteTagButton.setActionCommand(DELETE_STRING);
-				deleteTagButton.addActionListener(new DeleteTagButtonListener(photo, thisListModel, allListModel, thisList, 
-						allList, editingPhoto, revertOptions, imageNameIndicator));
-				
-				// Sets up the "add from existing tags" button.
-				JButton addSelected = new JButton(ADD_FROM_EXISTING);
-				addSelected.setActionCommand(ADD_FROM_EXISTING);
-				addSelected.addActionListener(new AddExistingButtonListener(photo, thisListModel, allListModel, 
-						thisList, allList, editingPhoto, revertOptions, imageNameIndicator));
-				
-				//Creates a panel that uses BoxLayout.
-		        JPanel buttonPane = new JPanel();
-		        buttonPane.setLayout(new BoxLayout(buttonPane,
-                        BoxLayout.LINE_AXIS));
-		        buttonPane.add(addSelected);
-		        buttonPane.add(Box.createHorizontalStrut(5));
-		        buttonPane.add(new JSeparator(SwingConstants.VERTICAL));
-		        buttonPane.add(Box.createHorizontalStrut(5));
-		        buttonPane.add(tagName);
-		        buttonPane.add(addTagButton);
-		        buttonPane.add(deleteTagButton);
-		        buttonPane.setBorder(BorderFactory.createEmptyBorder(5,5,5,5));
-		           
-		        // Enables the user to hit enter to add tag(s).
-				tagName.addActionListener(new AddTagButtonListener(tagName, photo, thisListModel, 
-						thisList, allListModel, allList, editingPhoto, revertOptions, imageNameIndicator));
-		        
-				// Put the above JCompenents all together to this editing photo frame.
-				editingPhoto.setJMenuBar(menuBar);
-		        Container c = editingPhoto.getContentPane();
-		        c.add(imagePanel, BorderLayout.CENTER);
-		        c.add(buttonPane, BorderLayout.SOUTH);
-		        c.add(thisListScrollPane, BorderLayout.EAST);
-		        c.add(allListScrollPane, BorderLayout.WEST);
-		        c.add(indicatorPanel, BorderLayout.NORTH);
-		        c.setBackground(Color.lightGray);
-		        editingPhoto.pack();
-				editingPhoto.setVisible(true);
+				directoryLabel.setText(LOADING_STRING);
+				// Reading the catalog and the photo's header touches the disk, so it
+				// runs in the background and the editing window is built when done.
+				new SwingWorker<PhotoNode, Void>() {
+					private PhotoMetadata metadata;
+					private CatalogSnapshot catalog;
+
+					@Override
+					protected PhotoNode doInBackground() {
+						// The managers were loaded with this listener: reloading them here
+						// would drop the changes of operations running on PhotoService.
+						PhotoNode found = PhotoManager.findOrCreate(file);
+						metadata = found.getMetadata();
+						catalog = PhotoManager.snapshot();
+						return found;
+					}
+
+					@Override
+					protected void done() {
+						try {
+							// Assigns this photo to the selected photo.
+							photo = get();
+						} catch (InterruptedException | ExecutionException e1) {
+							logger.log(Level.SEVERE, "Cannot open " + file, e1);
+							directoryLabel.setText("Cannot open " + file.getAbsolutePath());
+							return;
+						}
+						directoryLabel.setText("Selected Photo: " + file.getAbsolutePath());
+						openEditor(file, metadata, catalog);
+					}
+				}.execute();
 			}
 		}
 		else {
 			directoryLabel.setText("No Photo Selected");
 		}
 	}
+
+	/**
+	 * Hides the main window and opens the window to edit the tags of the
+	 * selected photo. Runs on the event dispatch thread.
+	 *
+	 * @param file
+	 *            the selected photo file
+	 * @param metadata
+	 *            the header of the photo, or null
+	 * @param catalog
+	 *            the snapshot of the catalog read with the photo
+	 */
+	private void openEditor(File file, PhotoMetadata metadata, CatalogSnapshot catalog) {
+		// another window for editing tags.
+		this.directoryFrame.setVisible(false);
+		JFrame editingPhoto = new JFrame("Photo Editing Mode");
+		if (metadata != null) {
+			editingPhoto.setTitle("Photo Editing Mode (" + metadata + ")");
+		}
+		editingPhoto.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		
+		// the panel to show the name of the photo and meaning of the JLists.
+		JPanel indicatorPanel = new JPanel(new BorderLayout());
+		JTextArea tagManagerIndicator = new JTextArea("This list shows all currently used tags");
+		tagManagerIndicator.setEditable(false);
+		JTextArea thisTagsIndicator = new JTextArea("This list shows all tags of this photo");
+		thisTagsIndicator.setEditable(false);
+		JTextArea imageNameIndicator = new JTextArea(TEXT_SEPARATOR + this.photo.getName() + TEXT_SEPARATOR);
+		imageNameIndicator.setEditable(false);
+		
+		// Add the indicators together.
+		indicatorPanel.add(tagManagerIndicator, BorderLayout.WEST);
+		indicatorPanel.add(thisTagsIndicator, BorderLayout.EAST);
+		indicatorPanel.add(imageNameIndicator, BorderLayout.CENTER);
+		
+		// the panel to display the photo. A placeholder is shown while the photo
+		// is decoded in the background and swapped for the resized image later.
+		JPanel imagePanel = new JPanel();
+		final JLabel imageLabel = new JLabel(LOADING_STRING, JLabel.CENTER);
+		imagePanel.add(imageLabel);
+		final JFrame editingFrame = editingPhoto;
+		ImageLoader.loadForDisplay(file, new Consumer<BufferedImage>() {
+			@Override
+			public void accept(BufferedImage resizedImage) {
+				if (resizedImage == null) {
+					// Keeps the embedded thumbnail if one was shown already.
+					if (imageLabel.getIcon() == null) {
+						imageLabel.setText(UNREADABLE_STRING);
+					}
+					return;
+				}
+				imageLabel.setText(null);
+				imageLabel.setIcon(new ImageIcon(resizedImage));
+				editingFrame.pack();
+			}
+		});
+		ImageLoader.prefetchNeighbours(file);
+		
+		// Builds the text field to enter a tag.
+		tagName = new JTextField(10);
+		
+		// Sets up the JList for this photo's tags, read with all other tags
+		// from one snapshot of the catalog.
+		PhotoView view = catalog.getPhoto(this.photo.getPhotoId());
+		DefaultListModel<String> thisListModel = new DefaultListModel<String>();
+		if (view != null) {
+			for (String tag : view.getTagNames()) {
+				thisListModel.addElement(tag);
+			}
+		}
+		
+		// Creates a JList for displaying this photo's tags and put it into a scroll pane.
+		thisList = new JList<String>(thisListModel);
+		thisList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		thisList.setVisibleRowCount(10);
+		JScrollPane thisListScrollPane = new JScrollPane(thisList);
+		
+		// Sets up the JList for all currently available tags.
+		DefaultListModel<String> allListModel = new DefaultListModel<String>();
+		for (String tag : TagManager.getTags().keySet()) {
+			allListModel.addElement(tag);
+		}
+		
+		// Creates a JList and puts it into a scroll pane.
+		allList = new JList<String>(allListModel);
+		allList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		allList.setVisibleRowCount(10);
+		JScrollPane allListScrollPane = new JScrollPane(allList);
+		
+		// Sets up the menu for reversion.
+		JMenuBar menuBar = new JMenuBar();
+		JMenu revertOptions = new JMenu("Revert Change To");
+		menuBar.add(revertOptions);
+		JMenuItem newMenuItem = new JMenuItem(this.photo.getFirstModificationDate() + "--> " + this.photo.getInitialName());
+		revertOptions.add(newMenuItem);
+		ActionListener revertBackToDate = new RevertListener(this.photo, this.photo.getFirstModificationDate(), revertOptions,
+				thisListModel, allListModel, thisList, allList, editingPhoto, imageNameIndicator);
+		newMenuItem.addActionListener(revertBackToDate);
+		
+		// Sets up the menu for going back to choose another photo or directory.
+		JMenu goBack = new JMenu("Go Back..");
+		menuBar.add(goBack);
+		JMenuItem selectAnotherPhoto = new JMenuItem("Select Another Photo");
+		JMenuItem viewPhotos = new JMenuItem("View All Photos Under A Directory");
+		goBack.add(selectAnotherPhoto);
+		goBack.add(viewPhotos);
+		ActionListener goBackToPreviousPage = new GoBackListener(directoryFrame, editingPhoto);
+		selectAnotherPhoto.addActionListener(goBackToPreviousPage);
+		viewPhotos.addActionListener(goBackToPreviousPage);
+		
+		// Sets up the add tag button.
+		JButton addTagButton = new JButton(ADD_STRING);
+		addTagButton.setActionCommand(ADD_STRING);
+		addTagButton.addActionListener(new AddTagButtonListener(tagName, photo, thisListModel, thisList, allListModel, 
+				allList, editingPhoto, revertOptions, imageNameIndicator));
+		
+		// Sets up the delete tag button.
+		deleteTagButton = new JButton(DELETE_STRING);
+		deleteTagButton.setActionCommand(DELETE_STRING);
+		deleteTagButton.addActionListener(new DeleteTagButtonListener(photo, thisListModel, allListModel, thisList, 
+				allList, editingPhoto, revertOptions, imageNameIndicator));
+		
+		// Sets up the "add from existing tags" button.
+		JButton addSelected = new JButton(ADD_FROM_EXISTING);
+		addSelected.setActionCommand(ADD_FROM_EXISTING);
+		addSelected.addActionListener(new AddExistingButtonListener(photo, thisListModel, allListModel, 
+				thisList, allList, editingPhoto, revertOptions, imageNameIndicator));
+		
+		//Creates a panel that uses BoxLayout.
+		JPanel buttonPane = new JPanel();
+		buttonPane.setLayout(new BoxLayout(buttonPane,
+                        BoxLayout.LINE_AXIS));
+		buttonPane.add(addSelected);
+		buttonPane.add(Box.createHorizontalStrut(5));
+		buttonPane.add(new JSeparator(SwingConstants.VERTICAL));
+		buttonPane.add(Box.createHorizontalStrut(5));
+		buttonPane.add(tagName);
+		buttonPane.add(addTagButton);
+		buttonPane.add(deleteTagButton);
+		buttonPane.setBorder(BorderFactory.createEmptyBorder(5,5,5,5));
+	           
+		// Enables the user to hit enter to add tag(s).
+		tagName.addActionListener(new AddTagButtonListener(tagName, photo, thisListModel, 
+				thisList, allListModel, allList, editingPhoto, revertOptions, imageNameIndicator));
+	        
+		// Put the above JCompenents all together to this editing photo frame.
+		editingPhoto.setJMenuBar(menuBar);
+		Container c = editingPhoto.getContentPane();
+		c.add(imagePanel, BorderLayout.CENTER);
+		c.add(buttonPane, BorderLayout.SOUTH);
+		c.add(thisListScrollPane, BorderLayout.EAST);
+		c.add(allListScrollPane, BorderLayout.WEST);
+		c.add(indicatorPanel, BorderLayout.NORTH);
+		c.setBackground(Color.lightGray);
+		editingPhoto.pack();
+		editingPhoto.setVisible(true);
+	}
 	
 	/**
-	 * Returns a resized picture with resolution 1136 * 639 which can be properly displayed in this window.
+	 * Returns a resized picture fitting in 1136 * 639 which can be properly displayed in this
+	 * window. Pictures that already fit keep their size.
 	 * 
 	 * @param image
 	 * 		the picture to be resized
-	 * @param width
-	 * 		the desired width
-	 * @param height
-	 * 		the desired height
 	 * @return
 	 * 		a resized BufferImage
 	 */
 	public static BufferedImage resize(BufferedImage image) {
-		double ratio = (image.getWidth() > image.getHeight()) ? 1136 / image.getWidth() : 639 / image.getHeight();
-		double newWidth = image.getWidth();
-		double newHeight = image.getHeight();
-		
-		// Shrinks the photo to the maximum length 1136 or maximum height 639 depending on the photo
-		// is landscape or portrait.
-		if (image.getHeight() > 639) {
-			if (image.getWidth() < 1136) {
-				ratio = 639.0 / image.getHeight();
-				newHeight = image.getHeight() * ratio;
-				newWidth = image.getWidth() * ratio;
-			} else {
-				if (image.getHeight() > image.getWidth()) {
-					ratio = 639.0 / image.getHeight();
-					newHeight = image.getHeight() * ratio;
-					newWidth = image.getWidth() * ratio;
-				} else {
-					ratio = 1136.0 / image.getWidth();
-					newWidth = image.getWidth() * ratio;
-					newHeight = image.getHeight() * ratio;
-				}
-			}
-		} else {
-			if (image.getWidth() > 1136) {
-				ratio = 1136.0 / image.getWidth();
-				newWidth = image.getWidth() * ratio;
-				newHeight = image.getHeight() * ratio;
-			}
-		}
-		
-		// Redraws the image.
-	    BufferedImage bi = new BufferedImage((int)newWidth, (int)newHeight, BufferedImage.TRANSLUCENT);
-	    Graphics2D g2d = (Graphics2D) bi.createGraphics();
-	    g2d.addRenderingHints(new RenderingHints(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY));
-	    g2d.drawImage(image, 0, 0, (int)newWidth, (int)newHeight, null);
-	    g2d.dispose();
-	    return bi;
+		return ImageScaler.scaleToFit(image, ImageLoader.DISPLAY_WIDTH, ImageLoader.DISPLAY_HEIGHT);
 	}
 	
 }
@@ -0,0 +1,186 @@
+package photo_renamer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * The catalog in serialized files, as this program has always kept it: the photos in
+ * CatalogShards and the tags in one file, by default ./tag manager.bin. Reading a directory
+ * reads its shard, but this store keeps no index, so finding a photo by id or by the time
+ * of a change reads every shard; finding the photos of a tag reads the tag file. Shards
+ * are separate files, so different directories are read in parallel.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+final class SerializedCatalogStore implements CatalogStore {
+	private final File tagFile;
+
+	/**
+	 * Constructor for the store.
+	 *
+	 * @param tagFile
+	 *            the file of the tags
+	 */
+	SerializedCatalogStore(File tagFile) {
+		this.tagFile = tagFile;
+	}
+
+	@Override
+	public Map<String, PhotoNode> readDirectory(File directory) throws IOException {
+		return readShard(CatalogShards.shardOf(directory));
+	}
+
+	/**
+	 * Lists the directories from the headers of the shards. A shard written
+	 * without a header is read whole once, to give it one.
+	 */
+	@Override
+	public Collection<File> directories() throws IOException {
+		List<File> directories = new ArrayList<File>();
+		for (File shard : CatalogShards.shards()) {
+			File directory;
+			try {
+				directory = CatalogShards.upgrade(shard);
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Cannot read " + shard, e);
+			}
+			if (directory != null) {
+				directories.add(directory);
+			}
+		}
+		return directories;
+	}
+
+	@Override
+	public Collection<PhotoNode> readAll() throws IOException {
+		List<PhotoNode> photos = new ArrayList<PhotoNode>();
+		for (File shard : CatalogShards.shards()) {
+			photos.addAll(readShard(shard).values());
+		}
+		return photos;
+	}
+
+	@Override
+	public void writeDirectory(File directory, Collection<PhotoNode> photos) throws IOException {
+		CatalogShards.write(directory, photos);
+	}
+
+	@Override
+	public Map<String, Tag> readTags() throws IOException {
+		if (tagFile.length() == 0) {
+			return new HashMap<String, Tag>();
+		}
+		return readTags(tagFile);
+	}
+
+	@Override
+	public void writeTags(Map<String, Tag> tags) throws IOException {
+		writeTags(tagFile, tags);
+	}
+
+	@Override
+	public PhotoNode readPhoto(String photoId) throws IOException {
+		for (File shard : CatalogShards.shards()) {
+			PhotoNode photo = readShard(shard).get(photoId);
+			if (photo != null) {
+				return photo;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Set<String> findTagged(String tagName) throws IOException {
+		Tag tag = readTags().get(tagName);
+		return (tag != null) ? new HashSet<String>(tag.getPhotoIds()) : Collections.<String> emptySet();
+	}
+
+	@Override
+	public Set<String> findChanged(String from, String to) throws IOException {
+		Set<String> ids = new HashSet<String>();
+		for (File shard : CatalogShards.shards()) {
+			for (PhotoNode photo : readShard(shard).values()) {
+				for (String date : photo.getRenamingHistory().keySet()) {
+					if (date.compareTo(from) >= 0 && date.compareTo(to) < 0) {
+						ids.add(photo.getPhotoId());
+						break;
+					}
+				}
+			}
+		}
+		return ids;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return CatalogShards.shards().isEmpty();
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private static Map<String, PhotoNode> readShard(File shard) throws IOException {
+		try {
+			return CatalogShards.read(shard);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Cannot read " + shard, e);
+		}
+	}
+
+	/**
+	 * Reads the tags from the designated file, which earlier versions wrote
+	 * as a HashMap.
+	 *
+	 * @param file
+	 *            a file of tags
+	 * @return the tags by name
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Tag> readTags(File file) throws IOException {
+		ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return (Map<String, Tag>) input.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Cannot read " + file, e);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes the tags to the designated file.
+	 *
+	 * @param file
+	 *            a file of tags
+	 * @param tags
+	 *            the tags by name
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	static void writeTags(File file, Map<String, Tag> tags) throws IOException {
+		ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeObject(tags);
+		} finally {
+			output.close();
+		}
+	}
+}
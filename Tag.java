@@ -1,44 +1,83 @@
 package photo_renamer;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectInputValidation;
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * This class consists all the necessary data of a single tag object including
  * its name, current set of photos that has this tag. It also provides adding/
- * deleting itself to a photo.
- * 
+ * deleting itself to a photo. The photos are kept as the set of their ids, a
+ * concurrent set, so photos may be added and deleted from several threads at
+ * once, and the tags can be saved and loaded without the photos themselves.
+ *
  * @author Zhiyu Liang
  * @author Zhi Lin
  */
 public class Tag implements Serializable {
-	private Map<String, PhotoNode> photos;
+	/** The id of the classes that kept the photos themselves, which are still read. */
+	private static final long serialVersionUID = -409636452920696785L;
+
+	private Set<String> photoIds;
 	private String name;
 
 	/**
 	 * Constructor for the Tag object.
-	 * 
+	 *
 	 * @param name
 	 *            the name of this tag
 	 */
 	public Tag(String name) {
 		this.name = name;
-		this.photos = new HashMap<String, PhotoNode>();
+		this.photoIds = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * Reads this tag. Earlier versions wrote the photos themselves, by initial
+	 * name; their ids are taken once the whole stream is read, since a photo
+	 * may still be being read when its tag is.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		this.name = (String) fields.get("name", null);
+		this.photoIds = ConcurrentHashMap.newKeySet();
+		Set<String> ids = (Set<String>) fields.get("photoIds", null);
+		if (ids != null) {
+			this.photoIds.addAll(ids);
+			return;
+		}
+		final Map<String, PhotoNode> photos = (Map<String, PhotoNode>) fields.get("photos", null);
+		if (photos != null) {
+			in.registerValidation(new ObjectInputValidation() {
+				@Override
+				public void validateObject() throws InvalidObjectException {
+					for (PhotoNode photo : photos.values()) {
+						photoIds.add(photo.getPhotoId());
+					}
+				}
+			}, 0);
+		}
 	}
 
 	/**
-	 * Returns the current set of photos that have this tag.
-	 * 
-	 * @return the photos having this tag
+	 * Returns the ids of the photos that have this tag. The set is live and
+	 * may be changed from any thread.
+	 *
+	 * @return the ids of the photos having this tag
 	 */
-	public Map<String, PhotoNode> getPhotos() {
-		return this.photos;
+	public Set<String> getPhotoIds() {
+		return this.photoIds;
 	}
 
 	/**
 	 * Returns the name of this tag.
-	 * 
+	 *
 	 * @return this tag's name
 	 */
 	public String getName() {
@@ -47,7 +86,7 @@ public class Tag implements Serializable {
 
 	/**
 	 * Sets the name of this tag.
-	 * 
+	 *
 	 * @param name
 	 *            the name to set to this tag
 	 */
@@ -58,18 +97,18 @@ public class Tag implements Serializable {
 	/**
 	 * Adds the photo to this tag if it is not currently in this tag's photo
 	 * set.
-	 * 
+	 *
 	 * @param photo
 	 *            the photo to be added to this tag
 	 */
 	public void addPhoto(PhotoNode photo) {
-		this.photos.put(photo.getInitialName(), photo);
+		this.photoIds.add(photo.getPhotoId());
 	}
 
 	/**
 	 * Deletes the photo from this tag if it exists.
 	 */
 	public void deletePhoto(PhotoNode photo) {
-		this.photos.remove(photo.getInitialName());
+		this.photoIds.remove(photo.getPhotoId());
 	}
 }
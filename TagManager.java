@@ -1,68 +1,67 @@
 package photo_renamer;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
 
 /*
  * A manager that keeps track of all tags that is ever been created. It also provides access
  * to fetch a Tag given the tag's name, the filepath of the serializable file storing the data
  * of all tags and clearance of all unused tags.
  * 
+ * The tags are kept in the CatalogStore of PhotoManager; the serializable file is where the
+ * serialized store keeps them.
+ * 
+ * The tags are kept in a ConcurrentHashMap. Attaching a photo to a tag and dropping an
+ * unused tag both run inside the map's atomic compute operations, so a tag cannot be
+ * dropped while a photo is being attached to it.
+ * 
  * @author Zhiyu Liang
  * @author Zhi Lin
  */
 public class TagManager {
-    private static final String filePath = "./tag manager.bin";
-	private static Map<String, Tag> tags;
+    private static final String filePath = CatalogStores.TAG_FILE;
+	private static volatile ConcurrentMap<String, Tag> tags = new ConcurrentHashMap<String, Tag>();
+	private static final Object saveLock = new Object();
+	private static int batchDepth;
+	private static final Set<String> pendingSaves = new LinkedHashSet<String>();
 
 	/**
-	 * Constructor for this TagManager object. Updates from the serializable
-	 * file if such file has been created. Else creates a new serializable file
-	 * to store all tags.
+	 * Constructor for this TagManager object. Updates from the store of the
+	 * catalog.
 	 * 
 	 * @throws ClassNotFoundException
 	 * @throws IOException
 	 */
 	public TagManager() throws ClassNotFoundException, IOException {
-		tags = new HashMap<String, Tag>();
-		File file = new File(filePath);
-		if (file.exists() && file.length() != 0) {
-			readFromFile(filePath);
-		} else if (!file.exists()) {
-			file.createNewFile();
+		tags = new ConcurrentHashMap<String, Tag>();
+		try {
+			tags = new ConcurrentHashMap<String, Tag>(PhotoManager.store().readTags());
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Deserializes the map from given path.
+	 * Deserializes the map from given path. The tags of the serializable
+	 * file are read from the store of the catalog, wherever it keeps them.
 	 * 
 	 * @param path
 	 *            the path of the serializable file
 	 * @throws ClassNotFoundException
 	 */
-	@SuppressWarnings("unchecked")
 	protected static void readFromFile(String path) throws ClassNotFoundException {
 		try {
-			InputStream file = new FileInputStream(path);
-			InputStream buffer = new BufferedInputStream(file);
-			ObjectInput input;
-			input = new ObjectInputStream(buffer);
-			tags = (HashMap<String, Tag>) input.readObject();
-			input.close();
+			// Written as a HashMap by earlier versions.
+			tags = new ConcurrentHashMap<String, Tag>(filePath.equals(path) ? PhotoManager.store().readTags()
+					: SerializedCatalogStore.readTags(new File(path)));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -70,21 +69,68 @@ public class TagManager {
 
 	/**
 	 * Saves the current data to the serializable file. This function also can
-	 * be used to update file content .
+	 * be used to update file content. The tags of the serializable file are
+	 * written to the store of the catalog, wherever it keeps them.
 	 * 
 	 * @param path
 	 * 			  the path of the serializable file
 	 * @throws IOException
 	 */
 	protected static void saveToFile(String path) throws IOException {
+		if (deferSave(path)) {
+			return;
+		}
+		synchronized (saveLock) {
+			long start = System.nanoTime();
+			if (filePath.equals(path)) {
+				PhotoManager.store().writeTags(tags);
+			} else {
+				SerializedCatalogStore.writeTags(new File(path), tags);
+			}
+			Metrics.record(Metrics.TAGS_SAVE, start);
+		}
+	}
 
-		OutputStream file = new FileOutputStream(path);
-		OutputStream buffer = new BufferedOutputStream(file);
-		ObjectOutput output = new ObjectOutputStream(buffer);
+	/**
+	 * Starts a batch of changes. Until the matching endBatch, saves are only
+	 * noted and the files are written once at the end. Batches may be
+	 * nested.
+	 */
+	public static synchronized void beginBatch() {
+		batchDepth++;
+	}
 
-		// serialize the Map
-		output.writeObject(tags);
-		output.close();
+	/**
+	 * Ends a batch of changes started by beginBatch and writes the files
+	 * saved during the batch, if this was the outermost batch.
+	 * 
+	 * @throws IOException
+	 *             if a file cannot be written
+	 */
+	public static synchronized void endBatch() throws IOException {
+		batchDepth--;
+		if (batchDepth == 0) {
+			List<String> paths = new ArrayList<String>(pendingSaves);
+			pendingSaves.clear();
+			for (String path : paths) {
+				saveToFile(path);
+			}
+		}
+	}
+
+	/**
+	 * Notes a save of the designated file if a batch is running.
+	 * 
+	 * @param path
+	 *            the path of the serializable file
+	 * @return whether the save is deferred to the end of the batch
+	 */
+	private static synchronized boolean deferSave(String path) {
+		if (batchDepth > 0) {
+			pendingSaves.add(path);
+			return true;
+		}
+		return false;
 	}
 
 	/**
@@ -114,17 +160,87 @@ public class TagManager {
 	 * @throws IOException
 	 */
 	public static void tagCleaner() throws IOException {
-		List<String> tagsToBeRemoved = new ArrayList<String>();
-		for (Tag tag : tags.values()) {
-			if (tag.getPhotos().size() == 0)
-				tagsToBeRemoved.add(tag.getName());
-		}
-		for (String tagName : tagsToBeRemoved) {
-			tags.remove(tagName);
+		for (String tagName : tags.keySet()) {
+			// Checks and removes in one step, so that a photo attached in
+			// between keeps its tag.
+			tags.computeIfPresent(tagName, new BiFunction<String, Tag, Tag>() {
+				@Override
+				public Tag apply(String name, Tag tag) {
+					return tag.getPhotoIds().isEmpty() ? null : tag;
+				}
+			});
 		}
 		saveToFile(filePath);
 	}
 
+	/**
+	 * Attaches the photo to the tag with the name of the designated tag,
+	 * adding the designated tag to this manager if there is none yet, and
+	 * updates the serializable file.
+	 * 
+	 * @param tag
+	 *            the tag to attach, used if no tag has its name yet
+	 * @param photo
+	 *            the photo to attach
+	 * @return the tag the photo is attached to, which may be another instance
+	 *         with the same name
+	 * @throws IOException
+	 */
+	public static Tag attach(final Tag tag, final PhotoNode photo) throws IOException {
+		Tag attached = tags.compute(tag.getName(), new BiFunction<String, Tag, Tag>() {
+			@Override
+			public Tag apply(String name, Tag existing) {
+				Tag canonical = (existing != null) ? existing : tag;
+				canonical.addPhoto(photo);
+				return canonical;
+			}
+		});
+		saveToFile(filePath);
+		return attached;
+	}
+
+	/**
+	 * Detaches the photo from the tag with the designated name. The tag is
+	 * kept, even without photos, until the next tagCleaner.
+	 * 
+	 * @param tagName
+	 *            the name of the tag
+	 * @param photo
+	 *            the photo to detach
+	 */
+	public static void detach(String tagName, final PhotoNode photo) {
+		tags.computeIfPresent(tagName, new BiFunction<String, Tag, Tag>() {
+			@Override
+			public Tag apply(String name, Tag tag) {
+				tag.deletePhoto(photo);
+				return tag;
+			}
+		});
+	}
+
+	/**
+	 * Moves the designated photo, which had the designated former id, to its
+	 * id in each of its tags.
+	 * 
+	 * @param photo
+	 *            the photo with its new id
+	 * @param formerId
+	 *            the id the photo had
+	 */
+	public static void reidentify(final PhotoNode photo, final String formerId) {
+		for (String tagName : photo.getTags().keySet()) {
+			tags.computeIfPresent(tagName, new BiFunction<String, Tag, Tag>() {
+				@Override
+				public Tag apply(String name, Tag tag) {
+					if (tag.getPhotoIds().remove(formerId)) {
+						tag.addPhoto(photo);
+					}
+					return tag;
+				}
+			});
+		}
+	}
+
 	/**
 	 * Returns the Tag tag according to the designated name of the tag.
 	 * 
@@ -0,0 +1,271 @@
+package photo_renamer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Reads and writes the file names this program gives tagged photos: the initial name's
+ * base, then every tag with an '@' prefix, then the initial name's extension, as in
+ * IMG_0001@sea@beach.jpg. The extension starts at the last '.' after the last '@'; a name
+ * without one has none.
+ * <p>
+ * parse() makes one pass over the name and keeps only the offsets of its parts, in an
+ * array reused from one parse to the next, so parsing a name and testing it for a tag or
+ * a base allocates nothing. Tags are compared whole: sea is not found in
+ * IMG@seaside.jpg. The names written by withTag, withoutTag and encode are canonical: each
+ * tag once, no empty tag, in the order the tags were added.
+ * <p>
+ * A codec holds the last name it parsed, so it is not safe for use from several threads;
+ * local() returns one per thread. Callers use it between a parse and the next and do not
+ * keep it across calls that may parse names themselves.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public final class TagNameCodec {
+	public static final char PREFIX = '@';
+	private static final char EXTENSION = '.';
+
+	private static final ThreadLocal<TagNameCodec> local = new ThreadLocal<TagNameCodec>() {
+		@Override
+		protected TagNameCodec initialValue() {
+			return new TagNameCodec();
+		}
+	};
+
+	private String name;
+	/** The offset of the first character of each tag, after its '@'. */
+	private int[] tagStarts = new int[8];
+	private int tagCount;
+	private int baseEnd;
+	private int extensionStart;
+
+	/**
+	 * Returns the codec of the calling thread.
+	 *
+	 * @return the codec of this thread
+	 */
+	public static TagNameCodec local() {
+		return local.get();
+	}
+
+	/**
+	 * Parses the designated file name, replacing the name parsed before.
+	 *
+	 * @param name
+	 *            a file name, without directories
+	 * @return this codec
+	 */
+	public TagNameCodec parse(String name) {
+		this.name = name;
+		int length = name.length();
+		int lastPrefix = -1;
+		int lastDot = -1;
+		tagCount = 0;
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c == PREFIX) {
+				if (tagCount == tagStarts.length) {
+					tagStarts = Arrays.copyOf(tagStarts, tagCount * 2);
+				}
+				tagStarts[tagCount++] = i + 1;
+				lastPrefix = i;
+			} else if (c == EXTENSION) {
+				lastDot = i;
+			}
+		}
+		extensionStart = (lastDot > lastPrefix) ? lastDot : length;
+		baseEnd = (tagCount > 0) ? tagStarts[0] - 1 : extensionStart;
+		return this;
+	}
+
+	/**
+	 * @return the number of tags in the name, with duplicates
+	 */
+	public int tagCount() {
+		return tagCount;
+	}
+
+	/**
+	 * @param index
+	 *            the position of a tag in the name, from 0
+	 * @return the tag at that position
+	 */
+	public String tag(int index) {
+		return name.substring(tagStarts[index], tagEnd(index));
+	}
+
+	/**
+	 * Returns whether the name has the designated tag. It allocates nothing.
+	 *
+	 * @param tag
+	 *            the name of a tag
+	 * @return whether the tag is in the name, as a whole
+	 */
+	public boolean hasTag(String tag) {
+		return indexOfTag(tag) != -1;
+	}
+
+	/**
+	 * @param tag
+	 *            the name of a tag
+	 * @return the position of the tag in the name, or -1 if it has none
+	 */
+	public int indexOfTag(String tag) {
+		int tagLength = tag.length();
+		for (int i = 0; i < tagCount; i++) {
+			int start = tagStarts[i];
+			if (tagEnd(i) - start == tagLength && name.regionMatches(start, tag, 0, tagLength)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether the name without its tags is the designated initial
+	 * name. It allocates nothing.
+	 *
+	 * @param initialName
+	 *            the initial name of a photo
+	 * @return whether the parsed name is a name of that photo
+	 */
+	public boolean isNameOf(String initialName) {
+		int baseLength = baseEnd;
+		int extensionLength = name.length() - extensionStart;
+		return initialName.length() == baseLength + extensionLength
+				&& initialName.regionMatches(0, name, 0, baseLength)
+				&& initialName.regionMatches(baseLength, name, extensionStart, extensionLength);
+	}
+
+	/**
+	 * @return the name before the first tag and the extension
+	 */
+	public String base() {
+		return name.substring(0, baseEnd);
+	}
+
+	/**
+	 * @return the extension, with its '.', or "" if the name has none
+	 */
+	public String extension() {
+		return name.substring(extensionStart);
+	}
+
+	/**
+	 * @return the name without its tags, which is the photo's initial name
+	 */
+	public String initialName() {
+		if (baseEnd == extensionStart) {
+			return name;
+		}
+		return new StringBuilder(baseEnd + name.length() - extensionStart).append(name, 0, baseEnd)
+				.append(name, extensionStart, name.length()).toString();
+	}
+
+	/**
+	 * Returns the canonical name with the designated tag added after the
+	 * others, or the parsed name unchanged if it has the tag already.
+	 *
+	 * @param tag
+	 *            the tag to add
+	 * @return the new name
+	 */
+	public String withTag(String tag) {
+		if (hasTag(tag)) {
+			return name;
+		}
+		StringBuilder encoded = new StringBuilder(name.length() + tag.length() + 1);
+		appendBaseAndTags(encoded, null);
+		return encoded.append(PREFIX).append(tag).append(name, extensionStart, name.length()).toString();
+	}
+
+	/**
+	 * Returns the canonical name without the designated tag, or the parsed
+	 * name unchanged if it does not have the tag.
+	 *
+	 * @param tag
+	 *            the tag to delete
+	 * @return the new name
+	 */
+	public String withoutTag(String tag) {
+		if (!hasTag(tag)) {
+			return name;
+		}
+		StringBuilder encoded = new StringBuilder(name.length());
+		appendBaseAndTags(encoded, tag);
+		return encoded.append(name, extensionStart, name.length()).toString();
+	}
+
+	/**
+	 * @return the parsed name written canonically
+	 */
+	public String encode() {
+		StringBuilder encoded = new StringBuilder(name.length());
+		appendBaseAndTags(encoded, null);
+		return encoded.append(name, extensionStart, name.length()).toString();
+	}
+
+	/**
+	 * Returns the name of a photo with the designated tags, in their order.
+	 *
+	 * @param initialName
+	 *            the initial name of the photo
+	 * @param tags
+	 *            the names of the tags
+	 * @return the canonical name of the photo with the tags
+	 */
+	public static String encode(String initialName, Iterable<String> tags) {
+		int extensionStart = initialName.lastIndexOf(EXTENSION);
+		if (extensionStart == -1) {
+			extensionStart = initialName.length();
+		}
+		StringBuilder encoded = new StringBuilder(initialName.length() + 32).append(initialName, 0, extensionStart);
+		Set<String> written = new HashSet<String>();
+		for (String tag : tags) {
+			if (!tag.isEmpty() && written.add(tag)) {
+				encoded.append(PREFIX).append(tag);
+			}
+		}
+		return encoded.append(initialName, extensionStart, initialName.length()).toString();
+	}
+
+	/**
+	 * Appends the base and the tags of the parsed name to encoded, each tag
+	 * once, skipping empty tags and the tag to leave out, if any.
+	 */
+	private void appendBaseAndTags(StringBuilder encoded, String leftOut) {
+		encoded.append(name, 0, baseEnd);
+		for (int i = 0; i < tagCount; i++) {
+			int start = tagStarts[i];
+			int end = tagEnd(i);
+			if (start == end || (leftOut != null && end - start == leftOut.length()
+					&& name.regionMatches(start, leftOut, 0, leftOut.length()))) {
+				continue;
+			}
+			if (indexOfTag(start, end) < i) {
+				continue;
+			}
+			encoded.append(PREFIX).append(name, start, end);
+		}
+	}
+
+	/**
+	 * @return the first position of the tag equal to name[start, end)
+	 */
+	private int indexOfTag(int start, int end) {
+		int length = end - start;
+		for (int i = 0; i < tagCount; i++) {
+			int other = tagStarts[i];
+			if (tagEnd(i) - other == length && name.regionMatches(other, name, start, length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int tagEnd(int index) {
+		return (index + 1 < tagCount) ? tagStarts[index + 1] - 1 : extensionStart;
+	}
+}
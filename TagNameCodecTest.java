@@ -0,0 +1,182 @@
+package photo_renamer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * This class provides unit tests for the TagNameCodec class. Besides examples, each
+ * property is checked on names drawn at random from a fixed seed, with tags that are
+ * prefixes of each other and bases with dots.
+ *
+ * @author Zhi Lin
+ */
+public class TagNameCodecTest {
+	/** The number of random names each property is checked on. */
+	private static final int RUNS = 2000;
+	private static final String[] EXTENSIONS = { ".jpg", ".png", ".JPEG", ".gif" };
+	private static final String[] TAG_POOL = { "sea", "seaside", "s", "side", "beach", "be", "a", "ab", "2016",
+			"v1.2" };
+
+	private Random random;
+	private TagNameCodec codec;
+
+	/**
+	 * Creates a codec and a random generator with a fixed seed.
+	 */
+	@Before
+	public void setUp() {
+		random = new Random(20161019L);
+		codec = new TagNameCodec();
+	}
+
+	/**
+	 * Tests that a tagged name is split into its base, tags and extension.
+	 */
+	@Test
+	public void testParse() {
+		codec.parse("IMG_0001@sea@beach.jpg");
+		assertEquals("IMG_0001", codec.base());
+		assertEquals(2, codec.tagCount());
+		assertEquals("sea", codec.tag(0));
+		assertEquals("beach", codec.tag(1));
+		assertEquals(".jpg", codec.extension());
+		assertEquals("IMG_0001.jpg", codec.initialName());
+	}
+
+	/**
+	 * Tests that a tag is not found in a longer tag it starts or ends.
+	 */
+	@Test
+	public void testTagsMatchWhole() {
+		codec.parse("IMG@seaside@a.jpg");
+		assertFalse(codec.hasTag("sea"));
+		assertFalse(codec.hasTag("side"));
+		assertTrue(codec.hasTag("seaside"));
+		assertEquals("IMG@seaside@a@sea.jpg", codec.withTag("sea"));
+		assertEquals("IMG@seaside@a.jpg", codec.withoutTag("sea"));
+		assertEquals("IMG@seaside.jpg", codec.withoutTag("a"));
+	}
+
+	/**
+	 * Tests names without extension and with dots in the base or in a tag.
+	 */
+	@Test
+	public void testDots() {
+		codec.parse("holiday.2016@v1.2.jpg");
+		assertEquals("holiday.2016", codec.base());
+		assertEquals("v1.2", codec.tag(0));
+		assertEquals(".jpg", codec.extension());
+		codec.parse("README@draft");
+		assertEquals("", codec.extension());
+		assertEquals("draft", codec.tag(0));
+		assertEquals("README", codec.initialName());
+		// Without an extension, the last dot after the last tag is taken as one.
+		assertEquals(".2", codec.parse("README@v1.2").extension());
+	}
+
+	/**
+	 * Tests that duplicate and empty tags are dropped when a name is
+	 * re-encoded.
+	 */
+	@Test
+	public void testCanonicalEncoding() {
+		assertEquals("IMG@a@b.jpg", codec.parse("IMG@a@@b@a.jpg").encode());
+		assertEquals("IMG.jpg", codec.parse("IMG.jpg").encode());
+	}
+
+	/**
+	 * Tests that parsing an encoded name gives back its base, tags and
+	 * extension.
+	 */
+	@Test
+	public void testRoundTrip() {
+		for (int run = 0; run < RUNS; run++) {
+			String base = randomBase();
+			String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+			List<String> tags = new ArrayList<String>(randomTags());
+			String name = TagNameCodec.encode(base + extension, tags);
+			codec.parse(name);
+			assertEquals(name, base, codec.base());
+			assertEquals(name, extension, codec.extension());
+			assertEquals(name, tags.size(), codec.tagCount());
+			for (int i = 0; i < tags.size(); i++) {
+				assertEquals(name, tags.get(i), codec.tag(i));
+			}
+			assertEquals(name, base + extension, codec.initialName());
+			assertTrue(name, codec.isNameOf(base + extension));
+			assertEquals(name, name, codec.encode());
+		}
+	}
+
+	/**
+	 * Tests that hasTag agrees with the set of tags the name was encoded
+	 * with, for every tag of the pool.
+	 */
+	@Test
+	public void testHasTagIsExact() {
+		for (int run = 0; run < RUNS; run++) {
+			Set<String> tags = randomTags();
+			codec.parse(TagNameCodec.encode(randomBase() + ".jpg", tags));
+			for (String tag : TAG_POOL) {
+				assertEquals(tag, tags.contains(tag), codec.hasTag(tag));
+			}
+		}
+	}
+
+	/**
+	 * Tests that adding a tag is idempotent, that deleting it afterwards
+	 * gives back the original name, and that neither changes the photo.
+	 */
+	@Test
+	public void testWithTagThenWithoutTag() {
+		for (int run = 0; run < RUNS; run++) {
+			String initialName = randomBase() + ".png";
+			Set<String> tags = randomTags();
+			String name = TagNameCodec.encode(initialName, tags);
+			String tag = TAG_POOL[random.nextInt(TAG_POOL.length)];
+			String tagged = codec.parse(name).withTag(tag);
+			assertTrue(tagged, codec.parse(tagged).hasTag(tag));
+			assertTrue(tagged, codec.isNameOf(initialName));
+			assertEquals(tagged, tagged, codec.withTag(tag));
+			String untagged = codec.withoutTag(tag);
+			assertFalse(untagged, codec.parse(untagged).hasTag(tag));
+			assertTrue(untagged, codec.isNameOf(initialName));
+			if (!tags.contains(tag)) {
+				assertEquals(name, untagged);
+			}
+		}
+	}
+
+	/**
+	 * @return a base of letters, digits and dots, without '@'
+	 */
+	private String randomBase() {
+		String alphabet = "IMG_0123456789abc.";
+		StringBuilder base = new StringBuilder("IMG");
+		int length = random.nextInt(12);
+		for (int i = 0; i < length; i++) {
+			base.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return base.toString();
+	}
+
+	/**
+	 * @return up to five distinct tags from the pool, in the order drawn
+	 */
+	private Set<String> randomTags() {
+		Set<String> tags = new LinkedHashSet<String>();
+		int count = random.nextInt(6);
+		for (int i = 0; i < count; i++) {
+			tags.add(TAG_POOL[random.nextInt(TAG_POOL.length)]);
+		}
+		return tags;
+	}
+}
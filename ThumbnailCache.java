@@ -0,0 +1,264 @@
+package photo_renamer;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/*
+ * A disk-backed cache of the display-size previews shown in the editing window, so that
+ * opening the same photo again does not decode and resize the original.
+ * <p>
+ * Entries are keyed by the file key of the photo (device and inode where the platform
+ * provides one), its size and its last modified time. Renaming a photo by tagging keeps
+ * all three, so tagged photos are still served from the cache. The cache is bounded by
+ * the total size of its files and evicts the least recently used previews first.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class ThumbnailCache {
+	private static final Logger logger = Logger.getLogger(ThumbnailCache.class.getName());
+	private static final String directoryPath = "./thumbnails";
+	private static final String SUFFIX = ".jpg";
+	private static final float QUALITY = 0.9f;
+	/** The maximum total size in bytes of all cached previews. */
+	public static final long MAX_BYTES = 256L * 1024 * 1024;
+
+	/** Cached entries in least recently used order, mapped to their size in bytes. */
+	private static Map<String, Long> entries;
+	private static long totalBytes;
+
+	/**
+	 * Returns the cached preview of the photo, or null if it has not been
+	 * cached or the photo changed since.
+	 *
+	 * @param photo
+	 *            the original photo file
+	 * @return the cached display-size preview, or null
+	 */
+	public static synchronized BufferedImage get(File photo) {
+		String key = keyFor(photo);
+		if (key == null || index().get(key) == null) {
+			return null;
+		}
+		File entry = entryFile(key);
+		try {
+			BufferedImage image = ImageIO.read(entry);
+			if (image != null) {
+				// Records the access on disk so the order survives restarts.
+				entry.setLastModified(System.currentTimeMillis());
+				return image;
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot read cached preview " + entry, e);
+		}
+		remove(key);
+		return null;
+	}
+
+	/**
+	 * Stores the display-size preview of the photo and evicts the least
+	 * recently used previews if the cache grows over its size limit.
+	 *
+	 * @param photo
+	 *            the original photo file
+	 * @param preview
+	 *            the display-size preview of the photo
+	 */
+	public static synchronized void put(File photo, BufferedImage preview) {
+		String key = keyFor(photo);
+		if (key == null) {
+			return;
+		}
+		Map<String, Long> index = index();
+		File entry = entryFile(key);
+		File temp = null;
+		try {
+			temp = File.createTempFile("preview", ".tmp", entry.getParentFile());
+			write(preview, temp);
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot cache preview of " + photo, e);
+			if (temp != null) {
+				temp.delete();
+			}
+			return;
+		}
+		Long previous = index.put(key, entry.length());
+		totalBytes += entry.length() - (previous == null ? 0 : previous);
+		evict();
+	}
+
+	/**
+	 * Returns the cache key of the photo, or null if its attributes cannot be
+	 * read. Platforms without file keys fall back to the absolute path, in
+	 * which case renaming the photo misses the cache once.
+	 *
+	 * @param photo
+	 *            the original photo file
+	 * @return the cache key
+	 */
+	static String keyFor(File photo) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(photo.toPath(), BasicFileAttributes.class);
+			Object fileKey = attributes.fileKey();
+			String identity = (fileKey != null) ? fileKey.toString() : photo.getAbsolutePath();
+			String key = identity + "|" + attributes.size() + "|" + attributes.lastModifiedTime().toMillis() + "|"
+					+ ImageLoader.DISPLAY_WIDTH + "x" + ImageLoader.DISPLAY_HEIGHT;
+			return toHex(MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8)));
+		} catch (IOException | NoSuchAlgorithmException e) {
+			logger.log(Level.FINE, "Cannot build cache key for " + photo, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Evicts the least recently used previews until the cache fits its limit.
+	 */
+	private static void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (totalBytes > MAX_BYTES && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			it.remove();
+			totalBytes -= eldest.getValue();
+			entryFile(eldest.getKey()).delete();
+		}
+	}
+
+	/**
+	 * Forgets the entry with the designated key and deletes its file.
+	 *
+	 * @param key
+	 *            the key of the entry
+	 */
+	private static void remove(String key) {
+		Long size = entries.remove(key);
+		if (size != null) {
+			totalBytes -= size;
+		}
+		entryFile(key).delete();
+	}
+
+	/**
+	 * Returns the index of cached entries, building it from the cache
+	 * directory on first use. Files are ordered by their last access.
+	 *
+	 * @return the access-ordered index of entries
+	 */
+	private static Map<String, Long> index() {
+		if (entries != null) {
+			return entries;
+		}
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		totalBytes = 0;
+		File directory = new File(directoryPath);
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return entries;
+		}
+		List<File> cached = new ArrayList<File>();
+		for (File file : files) {
+			if (file.getName().endsWith(SUFFIX)) {
+				cached.add(file);
+			} else {
+				// Leftovers of interrupted writes.
+				file.delete();
+			}
+		}
+		Collections.sort(cached, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File file : cached) {
+			String name = file.getName();
+			entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+			totalBytes += file.length();
+		}
+		evict();
+		return entries;
+	}
+
+	/**
+	 * Writes the preview as a JPEG file. Images in layouts the JPEG writer
+	 * does not accept are copied to plain RGB first.
+	 *
+	 * @param preview
+	 *            the image to write
+	 * @param file
+	 *            the destination file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private static void write(BufferedImage preview, File file) throws IOException {
+		if (preview.getType() != BufferedImage.TYPE_INT_RGB && preview.getType() != BufferedImage.TYPE_3BYTE_BGR
+				&& preview.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+			BufferedImage rgb = new BufferedImage(preview.getWidth(), preview.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g2d = rgb.createGraphics();
+			g2d.drawImage(preview, 0, 0, null);
+			g2d.dispose();
+			preview = rgb;
+		}
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+		ImageOutputStream output = ImageIO.createImageOutputStream(file);
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(QUALITY);
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(preview, null, null), param);
+		} finally {
+			writer.dispose();
+			output.close();
+		}
+	}
+
+	/**
+	 * @param key
+	 *            the key of an entry
+	 * @return the file holding the entry
+	 */
+	private static File entryFile(String key) {
+		return new File(directoryPath, key + SUFFIX);
+	}
+
+	/**
+	 * @param bytes
+	 *            the bytes to format
+	 * @return the lower case hexadecimal representation of bytes
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
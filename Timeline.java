@@ -0,0 +1,161 @@
+package photo_renamer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/*
+ * The changes of the renaming histories of the photos PhotoManager has seen, in one index
+ * ordered by time, so that the photos changed in a time are found without going through
+ * the photos: by a range of the index, in the time of the range.
+ * <p>
+ * Each entry is a date of a photo's history with the photo's id; the dates and ids are
+ * those of the photos, not copies. The dates of each photo are kept too, so that a photo
+ * indexed again, after a change, a revert or a compaction of its history, has the entries
+ * of the dates it lost removed. A photo is indexed under its id, atomically, so photos
+ * are indexed from any thread.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+final class Timeline {
+	private static final String[] NO_DATES = new String[0];
+
+	private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<Entry>();
+	private final ConcurrentHashMap<String, String[]> datesByPhoto = new ConcurrentHashMap<String, String[]>();
+
+	/**
+	 * Indexes the history of the designated photo as it is now, replacing the
+	 * entries of the photo's id. The caller holds the photo's lock, or is the
+	 * only thread changing the photo.
+	 *
+	 * @param photo
+	 *            the photo
+	 */
+	void index(PhotoNode photo) {
+		final String photoId = photo.getPhotoId();
+		final String[] dates = photo.getRenamingHistory().keySet().toArray(NO_DATES);
+		datesByPhoto.compute(photoId, new BiFunction<String, String[], String[]>() {
+			@Override
+			public String[] apply(String id, String[] former) {
+				replace(photoId, (former != null) ? former : NO_DATES, dates);
+				return dates;
+			}
+		});
+	}
+
+	/**
+	 * Indexes the history of the designated photo if its id has no entries
+	 * yet, for photos read from the store that may have been changed since.
+	 *
+	 * @param photo
+	 *            the photo
+	 */
+	void indexIfAbsent(PhotoNode photo) {
+		final String photoId = photo.getPhotoId();
+		final String[] dates = photo.getRenamingHistory().keySet().toArray(NO_DATES);
+		datesByPhoto.computeIfAbsent(photoId, new Function<String, String[]>() {
+			@Override
+			public String[] apply(String id) {
+				replace(photoId, NO_DATES, dates);
+				return dates;
+			}
+		});
+	}
+
+	/**
+	 * Removes the entries of the photo with the designated id.
+	 *
+	 * @param photoId
+	 *            the id of a photo
+	 */
+	void remove(final String photoId) {
+		datesByPhoto.computeIfPresent(photoId, new BiFunction<String, String[], String[]>() {
+			@Override
+			public String[] apply(String id, String[] former) {
+				replace(photoId, former, NO_DATES);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Returns the photos with a change in the designated time. Times are in
+	 * the format of the renaming history, yyyy/MM/dd HH:mm:ss.
+	 *
+	 * @param from
+	 *            the start of the time, included
+	 * @param to
+	 *            the end of the time, excluded
+	 * @return the ids of the photos changed
+	 */
+	Set<String> changed(String from, String to) {
+		Set<String> ids = new HashSet<String>();
+		if (from.compareTo(to) < 0) {
+			for (Entry entry : entries.subSet(new Entry(from, ""), new Entry(to, ""))) {
+				ids.add(entry.photoId);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the number of changes indexed
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes the entries of the dates a photo lost and adds those of the
+	 * dates it gained. Runs under the lock of the photo's id in datesByPhoto.
+	 */
+	private void replace(String photoId, String[] former, String[] dates) {
+		Set<String> kept = new HashSet<String>(Arrays.asList(dates));
+		Set<String> indexed = new HashSet<String>(Arrays.asList(former));
+		for (String date : former) {
+			if (!kept.contains(date)) {
+				entries.remove(new Entry(date, photoId));
+			}
+		}
+		for (String date : dates) {
+			if (!indexed.contains(date)) {
+				entries.add(new Entry(date, photoId));
+			}
+		}
+	}
+
+	/*
+	 * A change of a photo's history, ordered by its date, then by the id of
+	 * the photo.
+	 */
+	private static final class Entry implements Comparable<Entry> {
+		private final String date;
+		private final String photoId;
+
+		Entry(String date, String photoId) {
+			this.date = date;
+			this.photoId = photoId;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int byDate = date.compareTo(other.date);
+			return (byDate != 0) ? byDate : photoId.compareTo(other.photoId);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Entry && compareTo((Entry) other) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return date.hashCode() * 31 + photoId.hashCode();
+		}
+	}
+}
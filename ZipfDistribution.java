@@ -0,0 +1,60 @@
+package photo_renamer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Draws ranks from 0 to n - 1 with the probability of rank k proportional to
+ * 1 / (k + 1)^exponent, the skew of tag popularity in real photo libraries: a few tags
+ * are on most photos and most tags are on a few. Sampling is a binary search in the
+ * precomputed cumulative distribution.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+public class ZipfDistribution {
+	private final double[] cumulative;
+
+	/**
+	 * Constructor for the distribution.
+	 *
+	 * @param n
+	 *            the number of ranks, at least 1
+	 * @param exponent
+	 *            the skew; 0 is uniform, around 1 is typical
+	 */
+	public ZipfDistribution(int n, double exponent) {
+		if (n < 1) {
+			throw new IllegalArgumentException("A Zipf distribution needs at least one rank.");
+		}
+		this.cumulative = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += 1 / Math.pow(k + 1, exponent);
+			cumulative[k] = sum;
+		}
+		for (int k = 0; k < n; k++) {
+			cumulative[k] /= sum;
+		}
+	}
+
+	/**
+	 * Returns a random rank.
+	 *
+	 * @param random
+	 *            the source of randomness
+	 * @return a rank from 0, the most likely, to n - 1
+	 */
+	public int sample(Random random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		int rank = (index >= 0) ? index : -index - 1;
+		return Math.min(rank, cumulative.length - 1);
+	}
+
+	/**
+	 * @return the number of ranks
+	 */
+	public int size() {
+		return cumulative.length;
+	}
+}
@@ -0,0 +1,612 @@
+package photo_renamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The JMH benchmarks of the hot paths of this program: catalog appends and saves, loading
+ * and indexing the whole catalog, the catalog stores, publishing and reading catalog
+ * snapshots, parsing tagged file names, tagging and reverting photos with long renaming
+ * histories, FileNode.findChild and the directory scan. ResizeBenchmark measures the
+ * display resize.
+ * <p>
+ * Each benchmark takes the sizes it runs at from its state: the catalog sizes are
+ * 10k/100k/1M photos, and can be narrowed with JMH's -p, e.g. -p photos=10000. The
+ * TagNameCodec benchmarks are meant to be run with -prof gc, whose gc.alloc.rate.norm is
+ * the bytes allocated per operation: none for parsing and comparing a name. The
+ * CatalogStore benchmarks use the serialized store; -p store=jdbc with
+ * -jvmArgsAppend -Dbenchmark.jdbcUrl=... names an empty database to compare, with its
+ * driver on the class path.
+ * <p>
+ * PhotoManager and TagManager keep their files in the working directory, so the
+ * benchmarks run from an empty one; the jmh task of the build uses
+ * benchmarks/build/jmh-work.
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CatalogBenchmark {
+	private static final String TAGS_FILE = "./tag manager.bin";
+	private static final int PHOTOS_PER_DIRECTORY = 100;
+	private static final int SUBDIRECTORIES = 10;
+	private static final int STORE_TAGS = 1000;
+	private static final int STORE_HISTORY = 3;
+
+	/**
+	 * PhotoManager.appendPhoto of one photo to a catalog of each size.
+	 */
+	@Benchmark
+	public PhotoNode appendPhoto(Catalog catalog) throws IOException {
+		PhotoManager.appendPhoto(catalog.added);
+		return catalog.added;
+	}
+
+	/**
+	 * PhotoManager.saveToFile of a catalog of each size.
+	 */
+	@Benchmark
+	public void saveToFile(Catalog catalog) throws IOException {
+		PhotoManager.saveToFile();
+	}
+
+	/**
+	 * PhotoManager.loadAll of a catalog of each size, on one thread and on
+	 * one per processor.
+	 */
+	@Benchmark
+	public int loadAll(Loading loading) throws Exception {
+		new PhotoManager();
+		PhotoManager.loadAll();
+		return PhotoManager.getPhotos().size();
+	}
+
+	/**
+	 * PhotoManager.indexAll of a catalog of each size, on one thread and on
+	 * one per processor.
+	 */
+	@Benchmark
+	public PhotoRecord indexAll(Loading loading) throws Exception {
+		new PhotoManager();
+		PhotoManager.indexAll();
+		return PhotoManager.findPhoto(loading.ids[0]);
+	}
+
+	/**
+	 * PhotoManager.findPhoto into one PhotoRecord, from the index of a
+	 * catalog of each size. The catalog.offHeap system property chooses the
+	 * buffers of the index.
+	 */
+	@Benchmark
+	public boolean findPhoto(Loading loading) {
+		return PhotoManager.findPhoto(loading.nextId(), loading.record);
+	}
+
+	/**
+	 * CatalogStore.writeDirectory of a directory of PHOTOS_PER_DIRECTORY
+	 * photos, and below it readDirectory, readPhoto, and findTagged and
+	 * findChanged over an hour, in a store of each size.
+	 */
+	@Benchmark
+	public Collection<PhotoNode> storeWriteDirectory(Store store) throws IOException {
+		store.opened.writeDirectory(store.lastDirectory, store.rewritten);
+		return store.rewritten;
+	}
+
+	@Benchmark
+	public Map<String, PhotoNode> storeReadDirectory(Store store) throws IOException {
+		return store.opened.readDirectory(store.directory(store.random.nextInt(store.directories)));
+	}
+
+	@Benchmark
+	public PhotoNode storeReadPhoto(Store store) throws IOException {
+		int i = store.random.nextInt(store.photos);
+		String photoName = photoName(i);
+		return store.opened.readPhoto(PhotoId.byPath(new File(store.directory(i / PHOTOS_PER_DIRECTORY), photoName),
+				photoName));
+	}
+
+	@Benchmark
+	public Set<String> storeFindTagged(Store store) throws IOException {
+		return store.opened.findTagged("tag" + store.random.nextInt(STORE_TAGS));
+	}
+
+	@Benchmark
+	public Set<String> storeFindChanged(Store store) throws IOException {
+		long from = store.start + store.random.nextInt(store.photos * STORE_HISTORY) * 60000L;
+		return store.opened.findChanged(store.format.format(from), store.format.format(from + 3600000L));
+	}
+
+	/**
+	 * CatalogSnapshot.with, the cost of publishing a change of one photo.
+	 */
+	@Benchmark
+	public CatalogSnapshot snapshotWith(Snapshot snapshot) {
+		return snapshot.published.with(snapshot.views[snapshot.random.nextInt(snapshot.views.length)]);
+	}
+
+	/**
+	 * The lookup of a photo in a published snapshot.
+	 */
+	@Benchmark
+	public PhotoView snapshotGetPhoto(Snapshot snapshot) {
+		return snapshot.published.getPhoto(snapshot.ids[snapshot.random.nextInt(snapshot.ids.length)]);
+	}
+
+	/**
+	 * TagNameCodec.parse and hasTag, which allocate nothing.
+	 */
+	@Benchmark
+	public boolean tagNameCodecParseHasTag(Names names) {
+		int i = names.next();
+		return names.codec.parse(names.names[i]).hasTag(names.tags[i]);
+	}
+
+	/**
+	 * TagNameCodec.parse and isNameOf, which allocate nothing.
+	 */
+	@Benchmark
+	public boolean tagNameCodecParseIsNameOf(Names names) {
+		int i = names.next();
+		return names.codec.parse(names.names[i]).isNameOf(names.initialNames[i]);
+	}
+
+	/**
+	 * TagNameCodec.parse and withTag, which allocates the new name only.
+	 */
+	@Benchmark
+	public String tagNameCodecWithTag(Names names) {
+		int i = names.next();
+		return names.codec.parse(names.names[i]).withTag(names.tags[i]);
+	}
+
+	/**
+	 * PhotoNode.addTag followed by deleteTag on a photo with each length of
+	 * renaming history. Tagging adds at most one entry per second, so the
+	 * history keeps its length over the run.
+	 */
+	@Benchmark
+	public String photoNodeAddTagDeleteTag(History history) throws IOException {
+		history.photo.addTag(history.tag);
+		history.photo.deleteTag(history.tag);
+		return history.photo.getName();
+	}
+
+	/**
+	 * PhotoNode.revert to the latest date of a photo with each length of
+	 * renaming history, which removes no entry.
+	 */
+	@Benchmark
+	public String photoNodeRevert(History history) throws IOException {
+		history.photo.revert(history.latest);
+		return history.photo.getName();
+	}
+
+	/**
+	 * FileNode.findChild for photos spread over a tree of directories with
+	 * PHOTOS_PER_DIRECTORY photos each.
+	 */
+	@Benchmark
+	public FileNode fileNodeFindChild(Tree tree) {
+		return tree.root.findChild(photoName(tree.random.nextInt(tree.photos)));
+	}
+
+	/**
+	 * FileChooserButtonListener.buildTree over a synthetic directory tree on
+	 * disk, with a non-photo file next to every ten photos.
+	 */
+	@Benchmark
+	public FileNode buildTree(DiskTree tree) {
+		FileNode root = new FileNode(tree.root.getName(), null, FileType.DIRECTORY);
+		FileChooserButtonListener.buildTree(tree.root, root);
+		return root;
+	}
+
+	/*
+	 * A catalog of photos in one directory, loaded into PhotoManager.
+	 */
+	@State(Scope.Benchmark)
+	public static class Catalog {
+		@Param({ "10000", "100000", "1000000" })
+		public int photos;
+
+		private File scratch;
+		private PhotoNode added;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			scratch = createScratch();
+			List<PhotoNode> catalog = new ArrayList<PhotoNode>(photos);
+			for (int i = 0; i < photos; i++) {
+				String name = photoName(i);
+				catalog.add(new PhotoNode(name, null, new File(scratch, name)));
+			}
+			loadCatalog(catalog);
+			added = new PhotoNode("IMG_NEW.jpg", null, new File(scratch, "IMG_NEW.jpg"));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			clean(scratch);
+		}
+	}
+
+	/*
+	 * A catalog of photos in directories of PHOTOS_PER_DIRECTORY photos,
+	 * loaded on the designated number of threads, 0 for one per processor,
+	 * and indexed.
+	 */
+	@State(Scope.Benchmark)
+	public static class Loading {
+		@Param({ "10000", "100000", "1000000" })
+		public int photos;
+		@Param({ "1", "0" })
+		public int threads;
+
+		private File scratch;
+		private String[] ids;
+		private final PhotoRecord record = new PhotoRecord();
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			scratch = createScratch();
+			List<PhotoNode> catalog = new ArrayList<PhotoNode>(photos);
+			ids = new String[photos];
+			for (int i = 0; i < photos; i++) {
+				String name = photoName(i);
+				PhotoNode photo = new PhotoNode(name, null,
+						new File(new File(scratch, "load/dir" + (i / PHOTOS_PER_DIRECTORY)), name));
+				catalog.add(photo);
+				ids[i] = photo.getPhotoId();
+			}
+			int count = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+			System.setProperty("catalog.loadThreads", Integer.toString(count));
+			loadCatalog(catalog);
+			PhotoManager.indexAll();
+		}
+
+		String nextId() {
+			String id = ids[next];
+			next = (next + 1 < ids.length) ? next + 1 : 0;
+			return id;
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			System.clearProperty("catalog.loadThreads");
+			clean(scratch);
+		}
+	}
+
+	/*
+	 * A CatalogStore holding photos in directories of PHOTOS_PER_DIRECTORY
+	 * photos with one of STORE_TAGS tags and STORE_HISTORY changes each, a
+	 * minute apart from photo to photo.
+	 */
+	@State(Scope.Benchmark)
+	public static class Store {
+		@Param({ "serialized" })
+		public String store;
+		@Param({ "10000", "100000", "1000000" })
+		public int photos;
+
+		private File scratch;
+		private CatalogStore opened;
+		private int directories;
+		private List<PhotoNode> rewritten;
+		private File lastDirectory;
+		private final SimpleDateFormat format = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+		private long start;
+		private final Random random = new Random(42);
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			scratch = createScratch();
+			if (store.equals("jdbc")) {
+				String url = System.getProperty("benchmark.jdbcUrl", "");
+				if (url.length() == 0) {
+					throw new IllegalStateException("Name the database with -Dbenchmark.jdbcUrl.");
+				}
+				opened = new JdbcCatalogStore(url);
+			} else {
+				opened = new SerializedCatalogStore(new File(scratch, "tags.bin"));
+			}
+			directories = (photos + PHOTOS_PER_DIRECTORY - 1) / PHOTOS_PER_DIRECTORY;
+			start = format.parse("2000/01/01 00:00:00").getTime();
+			Map<String, Tag> tags = new HashMap<String, Tag>();
+			for (int d = 0; d < directories; d++) {
+				rewritten = new ArrayList<PhotoNode>();
+				for (int i = d * PHOTOS_PER_DIRECTORY; i < Math.min(photos, (d + 1) * PHOTOS_PER_DIRECTORY); i++) {
+					rewritten.add(storedPhoto(i, tags));
+				}
+				opened.writeDirectory(directory(d), rewritten);
+			}
+			opened.writeTags(tags);
+			lastDirectory = directory(directories - 1);
+		}
+
+		/**
+		 * Returns the photo with the designated number, adding it to its tag.
+		 */
+		private PhotoNode storedPhoto(int i, Map<String, Tag> tags) {
+			String name = photoName(i);
+			PhotoNode photo = new PhotoNode(name, null, new File(directory(i / PHOTOS_PER_DIRECTORY), name));
+			String tagName = "tag" + (i % STORE_TAGS);
+			Tag tag = tags.get(tagName);
+			if (tag == null) {
+				tag = new Tag(tagName);
+				tags.put(tagName, tag);
+			}
+			photo.getTags().put(tagName, tag);
+			tag.addPhoto(photo);
+			for (int k = 0; k < STORE_HISTORY; k++) {
+				photo.getRenamingHistory().put(format.format(start + (i + (long) k * photos) * 60000L),
+						PhotoName.of(name));
+			}
+			return photo;
+		}
+
+		private File directory(int d) {
+			return new File(scratch, "store/dir" + d);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			for (int d = 0; d < directories; d++) {
+				opened.writeDirectory(directory(d), Collections.<PhotoNode>emptyList());
+			}
+			opened.writeTags(new HashMap<String, Tag>());
+			opened.close();
+			clean(scratch);
+		}
+	}
+
+	/*
+	 * A published CatalogSnapshot with one of ten tags per photo.
+	 */
+	@State(Scope.Benchmark)
+	public static class Snapshot {
+		@Param({ "10000", "100000", "1000000" })
+		public int photos;
+
+		private PhotoView[] views;
+		private String[] ids;
+		private CatalogSnapshot published;
+		private final Random random = new Random(42);
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			views = new PhotoView[photos];
+			ids = new String[photos];
+			CatalogSnapshot catalog = CatalogSnapshot.empty();
+			File directory = new File("snapshot");
+			for (int i = 0; i < photos; i++) {
+				String name = photoName(i);
+				PhotoNode photo = new PhotoNode(name, null, new File(directory, name));
+				photo.getTags().put("tag" + (i % 10), new Tag("tag" + (i % 10)));
+				views[i] = PhotoView.of(photo);
+				ids[i] = photo.getPhotoId();
+				catalog = catalog.with(views[i]);
+			}
+			published = catalog;
+		}
+	}
+
+	/*
+	 * Tagged file names with up to eight tags, with the tag each is tested
+	 * for and the initial name of its photo.
+	 */
+	@State(Scope.Thread)
+	public static class Names {
+		private static final int COUNT = 1024;
+
+		private final String[] names = new String[COUNT];
+		private final String[] initialNames = new String[COUNT];
+		private final String[] tags = new String[COUNT];
+		private final TagNameCodec codec = new TagNameCodec();
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random random = new Random(42);
+			for (int i = 0; i < COUNT; i++) {
+				List<String> tagNames = new ArrayList<String>();
+				int count = random.nextInt(9);
+				for (int t = 0; t < count; t++) {
+					tagNames.add("tag" + random.nextInt(50));
+				}
+				initialNames[i] = photoName(i);
+				names[i] = TagNameCodec.encode(initialNames[i], tagNames);
+				tags[i] = "tag" + random.nextInt(50);
+			}
+		}
+
+		int next() {
+			return next++ & (COUNT - 1);
+		}
+	}
+
+	/*
+	 * A photo on disk whose renaming history has the designated number of
+	 * entries, one second apart and all in the past, in an empty catalog.
+	 */
+	@State(Scope.Benchmark)
+	public static class History {
+		@Param({ "10", "1000", "10000" })
+		public int history;
+
+		private File scratch;
+		private PhotoNode photo;
+		private String latest;
+		private final Tag tag = new Tag("bench");
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			scratch = createScratch();
+			loadCatalog(Collections.<PhotoNode>emptyList());
+			new TagManager();
+			String name = "IMG_" + history + ".jpg";
+			File file = new File(scratch, name);
+			file.createNewFile();
+			photo = new PhotoNode(name, null, file);
+			SimpleDateFormat format = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+			long time = format.parse("2000/01/01 00:00:00").getTime();
+			for (int i = 0; i < history; i++) {
+				latest = format.format(time + i * 1000L);
+				photo.getRenamingHistory().put(latest, PhotoName.of(name));
+			}
+			photo.setLastModifiedDate(latest);
+			PhotoManager.appendPhoto(photo);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			RenameQueue.flushQuietly();
+			clean(scratch);
+		}
+	}
+
+	/*
+	 * A FileNode tree of photos in directories of PHOTOS_PER_DIRECTORY photos,
+	 * SUBDIRECTORIES to a directory.
+	 */
+	@State(Scope.Benchmark)
+	public static class Tree {
+		@Param({ "1000", "10000", "100000" })
+		public int photos;
+
+		private FileNode root;
+		private final Random random = new Random(42);
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			root = new FileNode("root", null, FileType.DIRECTORY);
+			List<FileNode> directories = new ArrayList<FileNode>();
+			directories.add(root);
+			for (int i = 0; i < photos; i++) {
+				if (i % PHOTOS_PER_DIRECTORY == 0 && i > 0) {
+					FileNode parent = directories.get((directories.size() - 1) / SUBDIRECTORIES);
+					FileNode directory = new FileNode("dir" + directories.size(), parent, FileType.DIRECTORY);
+					parent.addChild(directory.getName(), directory);
+					directories.add(directory);
+				}
+				FileNode directory = directories.get(directories.size() - 1);
+				directory.addChild(photoName(i), new FileNode(photoName(i), directory, FileType.PHOTO));
+			}
+		}
+	}
+
+	/*
+	 * The same tree as directories and empty files on disk.
+	 */
+	@State(Scope.Benchmark)
+	public static class DiskTree {
+		@Param({ "1000", "10000", "100000" })
+		public int photos;
+
+		private File scratch;
+		private File root;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			scratch = Files.createTempDirectory("photo-benchmark").toFile();
+			root = new File(scratch, "tree");
+			File directory = root;
+			int directories = 0;
+			for (int i = 0; i < photos; i++) {
+				if (i % PHOTOS_PER_DIRECTORY == 0) {
+					directories++;
+					directory = new File(root, (directories % SUBDIRECTORIES) + File.separator + "dir" + directories);
+					directory.mkdirs();
+				}
+				new File(directory, photoName(i)).createNewFile();
+				if (i % 10 == 0) {
+					new File(directory, "notes" + i + ".txt").createNewFile();
+				}
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			delete(scratch);
+		}
+	}
+
+	/**
+	 * Returns a temporary directory for photo files, after checking that the
+	 * working directory has no catalog of its own and choosing the serialized
+	 * store.
+	 */
+	private static File createScratch() throws IOException {
+		if (CatalogShards.DIRECTORY.exists() || new File(TAGS_FILE).exists()) {
+			throw new IllegalStateException(
+					"The working directory has a catalog of its own; run from an empty scratch directory.");
+		}
+		PhotoManager.useStore(CatalogStores.serialized());
+		return Files.createTempDirectory("photo-benchmark").toFile();
+	}
+
+	/**
+	 * Deletes the scratch directory and the catalog of the working directory.
+	 */
+	private static void clean(File scratch) {
+		delete(scratch);
+		delete(CatalogShards.DIRECTORY);
+		new File(TAGS_FILE).delete();
+	}
+
+	/**
+	 * Writes photos as the catalog shards and loads them into PhotoManager.
+	 * Filling the catalog through appendPhoto would save it once per photo.
+	 */
+	private static void loadCatalog(Collection<PhotoNode> photos) throws Exception {
+		delete(CatalogShards.DIRECTORY);
+		CatalogStores.writeAll(PhotoManager.store(), photos);
+		new PhotoManager();
+		PhotoManager.loadAll();
+	}
+
+	private static String photoName(int i) {
+		return "IMG_" + i + ".jpg";
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
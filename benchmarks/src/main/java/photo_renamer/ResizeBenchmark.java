@@ -0,0 +1,206 @@
+package photo_renamer;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Compares the time and quality of the single-pass resize this program used to do with
+ * the progressive ImageScaler behind SelectButtonListener.resize across typical camera
+ * resolutions, plus the size ImageLoader decodes a 50MP photo at with subsampling.
+ * <p>
+ * The times are JMH benchmarks. Quality is the PSNR against an area-averaged reference
+ * of the same size, higher is better, which main prints per resolution:
+ * java -Xmx2g -Djava.awt.headless=true photo_renamer.ResizeBenchmark
+ *
+ * @author Zhiyu Liang
+ * @author Zhi Lin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ResizeBenchmark {
+	@Param({ "1920x1080", "2896x1931", "4032x3024", "6000x4000", "8688x5792" })
+	public String source;
+
+	private BufferedImage image;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		image = syntheticPhoto(source);
+	}
+
+	/**
+	 * The single-pass resize this program used to do.
+	 */
+	@Benchmark
+	public BufferedImage legacy() {
+		return legacyResize(image);
+	}
+
+	/**
+	 * SelectButtonListener.resize, on the progressive ImageScaler.
+	 */
+	@Benchmark
+	public BufferedImage progressive() {
+		return SelectButtonListener.resize(image);
+	}
+
+	/**
+	 * Prints the PSNR of both methods against the reference, one line per
+	 * resolution.
+	 *
+	 * @param args
+	 *            unused
+	 * @throws NoSuchFieldException
+	 *             never: the resolutions are those of the source parameter
+	 */
+	public static void main(String[] args) throws NoSuchFieldException {
+		System.out.println(String.format("%-12s %12s %12s", "source", "legacy dB", "progressive dB"));
+		for (String size : ResizeBenchmark.class.getDeclaredField("source").getAnnotation(Param.class).value()) {
+			BufferedImage source = syntheticPhoto(size);
+			int[] fitted = ImageScaler.fitSize(source.getWidth(), source.getHeight(), ImageLoader.DISPLAY_WIDTH,
+					ImageLoader.DISPLAY_HEIGHT);
+			BufferedImage reference = toRgb(
+					source.getScaledInstance(fitted[0], fitted[1], Image.SCALE_AREA_AVERAGING), fitted[0], fitted[1]);
+			System.out.println(String.format("%-12s %12.2f %12.2f", size, psnr(reference, legacyResize(source)),
+					psnr(reference, SelectButtonListener.resize(source))));
+		}
+	}
+
+	/**
+	 * The resize this program did before ImageScaler: one pass with the default
+	 * nearest neighbour interpolation into a TYPE_INT_BGR image, with the
+	 * original size computation.
+	 *
+	 * @param image
+	 *            the image to resize
+	 * @return the resized image
+	 */
+	static BufferedImage legacyResize(BufferedImage image) {
+		double newWidth = image.getWidth();
+		double newHeight = image.getHeight();
+		double ratio;
+		if (image.getHeight() > 639) {
+			if (image.getWidth() < 1136 || image.getHeight() > image.getWidth()) {
+				ratio = 639.0 / image.getHeight();
+			} else {
+				ratio = 1136.0 / image.getWidth();
+			}
+			newHeight = image.getHeight() * ratio;
+			newWidth = image.getWidth() * ratio;
+		} else if (image.getWidth() > 1136) {
+			ratio = 1136.0 / image.getWidth();
+			newWidth = image.getWidth() * ratio;
+			newHeight = image.getHeight() * ratio;
+		}
+		BufferedImage bi = new BufferedImage((int) newWidth, (int) newHeight, BufferedImage.TRANSLUCENT);
+		Graphics2D g2d = bi.createGraphics();
+		g2d.addRenderingHints(new RenderingHints(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY));
+		g2d.drawImage(image, 0, 0, (int) newWidth, (int) newHeight, null);
+		g2d.dispose();
+		return bi;
+	}
+
+	/**
+	 * Returns the peak signal to noise ratio of candidate against reference
+	 * over the area both images cover.
+	 *
+	 * @param reference
+	 *            the reference image
+	 * @param candidate
+	 *            the image to rate
+	 * @return the PSNR in decibels
+	 */
+	static double psnr(BufferedImage reference, BufferedImage candidate) {
+		int width = Math.min(reference.getWidth(), candidate.getWidth());
+		int height = Math.min(reference.getHeight(), candidate.getHeight());
+		double squaredError = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int a = reference.getRGB(x, y);
+				int b = candidate.getRGB(x, y);
+				for (int shift = 0; shift <= 16; shift += 8) {
+					int difference = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+					squaredError += difference * difference;
+				}
+			}
+		}
+		double meanSquaredError = squaredError / (3.0 * width * height);
+		return meanSquaredError == 0 ? Double.POSITIVE_INFINITY
+				: 10 * Math.log10(255.0 * 255.0 / meanSquaredError);
+	}
+
+	/**
+	 * Returns an image with the fine detail of a photo: smooth gradients
+	 * overlaid with thin lines and sensor-like noise, which is where aliasing
+	 * from skipped pixels shows.
+	 *
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @return the synthetic photo
+	 */
+	static BufferedImage syntheticPhoto(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Random random = new Random(42);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = (x * 255 / width + random.nextInt(24)) & 0xFF;
+				int g = (y * 255 / height + random.nextInt(24)) & 0xFF;
+				int b = ((x + y) % 7 == 0) ? 255 : (x ^ y) & 0x3F;
+				row[x] = (r << 16) | (g << 8) | b;
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return image;
+	}
+
+	/**
+	 * @param size
+	 *            the size of the photo, e.g. 4032x3024
+	 * @return the synthetic photo of that size
+	 */
+	private static BufferedImage syntheticPhoto(String size) {
+		int x = size.indexOf('x');
+		return syntheticPhoto(Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1)));
+	}
+
+	/**
+	 * @param image
+	 *            the image to copy
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @return a TYPE_INT_RGB copy of image
+	 */
+	private static BufferedImage toRgb(Image image, int width, int height) {
+		BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = rgb.createGraphics();
+		g2d.drawImage(image, 0, 0, null);
+		g2d.dispose();
+		return rgb;
+	}
+}